@@ -2,9 +2,10 @@ package com.sauljohnson.bach;
 
 import javax.swing.*;
 import java.awt.*;
-import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Represents a brick that can be displayed and moved in a {@link Designer}.
@@ -29,9 +30,56 @@ public abstract class Brick<T> {
     private int y;
 
     /**
-     * A collection of bricks that are connected to this one.
+     * The bricks that are connected to this one, by identity and in the order they were connected.
      */
-    private List<Brick> connections;
+    private final LinkedIdentitySet<Brick<?>> connections;
+
+    /**
+     * The read-only view of the bricks that are connected to this one.
+     */
+    private final List<Brick> connectionsView;
+
+    /**
+     * The number of connections counting against each connection capacity, keyed by the type the capacity was declared
+     * for and held in single-element arrays so they can be updated in place. Only kept for bricks with fixed
+     * connection capacities.
+     */
+    private final Map<Class<?>, int[]> connectionCounts;
+
+    /**
+     * The compiled connection capacities of this brick's class if they are fixed, or null if not yet looked up.
+     */
+    private ConnectionRuleTable connectionRules;
+
+    /**
+     * The version of the connection rule registry the compiled connection capacities were looked up from.
+     */
+    private int connectionRulesVersion;
+
+    /**
+     * The designer this brick has been added to, or null if it is not currently in a designer.
+     */
+    Designer designer;
+
+    /**
+     * The graph store this brick was materialised from, or null if it was not materialised from one.
+     */
+    GraphStore graphStore;
+
+    /**
+     * The index of the node in the graph store this brick was materialised from.
+     */
+    int graphStoreNode;
+
+    /**
+     * The z-index of this brick within its designer, with higher values rendered on top.
+     */
+    int zIndex;
+
+    /**
+     * Orders this brick among those in its designer with the same z-index, with higher values rendered on top.
+     */
+    long zSequence;
 
     /**
      * Initialises a new instance of a brick that can be displayed and moved in a {@link Designer}.
@@ -44,7 +92,9 @@ public abstract class Brick<T> {
         this.modelObject = modelObject;
         this.x = x;
         this.y = y;
-        connections = new ArrayList<>();
+        connections = new LinkedIdentitySet<>();
+        connectionsView = Collections.<Brick>unmodifiableList(connections.asList());
+        connectionCounts = new HashMap<>();
     }
 
     /**
@@ -64,7 +114,10 @@ public abstract class Brick<T> {
      */
     @SuppressWarnings("WeakerAccess") // API method.
     public void setX(int x) {
-        this.x = x;
+        if (this.x != x) {
+            this.x = x;
+            invalidateBounds();
+        }
     }
 
     /**
@@ -84,7 +137,46 @@ public abstract class Brick<T> {
      */
     @SuppressWarnings("WeakerAccess") // API method.
     public void setY(int y) {
-        this.y = y;
+        if (this.y != y) {
+            this.y = y;
+            invalidateBounds();
+        }
+    }
+
+    /**
+     * Sets the coordinates of the brick in the designer in pixels, updating the designer once rather than once per
+     * coordinate.
+     *
+     * @param x the new x-coordinate of the brick in the designer in pixels
+     * @param y the new y-coordinate of the brick in the designer in pixels
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public void setLocation(int x, int y) {
+        if (this.x != x || this.y != y) {
+            this.x = x;
+            this.y = y;
+            invalidateBounds();
+        }
+    }
+
+    /**
+     * Gets the x-coordinate of the centre of the brick in the designer in pixels.
+     *
+     * @return  the x-coordinate of the centre of the brick in the designer in pixels
+     */
+    @SuppressWarnings("WeakerAccess") // API method.
+    public int getCenterX() {
+        return x + (getWidth() / 2);
+    }
+
+    /**
+     * Gets the y-coordinate of the centre of the brick in the designer in pixels.
+     *
+     * @return  the y-coordinate of the centre of the brick in the designer in pixels
+     */
+    @SuppressWarnings("WeakerAccess") // API method.
+    public int getCenterY() {
+        return y + (getHeight() / 2);
     }
 
     /**
@@ -112,9 +204,10 @@ public abstract class Brick<T> {
     public abstract int getHeight();
 
     /**
-     * Gets the image that represents the brick.
+     * Gets the image that represents the brick. Bricks whose images are slow to decode can load them through a shared
+     * {@link BrickImageLoader} and return null until they are ready, in which case a placeholder is drawn instead.
      *
-     * @return  the image that represents the brick
+     * @return  the image that represents the brick, or null if it is not available yet
      */
     @SuppressWarnings("WeakerAccess") // API method.
     public abstract Image getImage();
@@ -146,40 +239,115 @@ public abstract class Brick<T> {
     public abstract List<ConnectionCapacity> getConnectionCapacities();
 
     /**
-     * Gets the list of bricks this brick is connected to.
+     * Gets the list of bricks this brick is connected to, in the order they were connected. The list is a read-only
+     * view that reflects later changes, and is best iterated over rather than indexed into.
      *
      * @return  the list of bricks this brick is connected to
      */
     @SuppressWarnings("WeakerAccess") // API method.
     public List<Brick> getConnections() {
-        return Collections.unmodifiableList(connections);
+        return connectionsView;
     }
 
     /**
-     * Returns true if this brick can connect to the type of the one given, otherwise returns false.
+     * Gets the node holding the first brick this brick is connected to, from which its connections can be walked in
+     * order without allocating. Connections must not be added or removed during the walk.
      *
-     * @param brick the brick to check
-     * @return      true if this brick can connect to the type of the one given, otherwise false
+     * @return  the first node, or null if there are no connections
+     */
+    LinkedIdentitySet.Node<Brick<?>> getFirstConnection() {
+        return connections.getHead();
+    }
+
+    /**
+     * Returns true if the connection capacities of this brick depend only on its class, so that they can be compiled
+     * once for the class and connections counted against them as they are made. Otherwise returns false, and they are
+     * read from {@link #getConnectionCapacities()} afresh every time they are needed, so they may depend on the state
+     * of the brick.
+     *
+     * @return  true if the connection capacities of this brick depend only on its class, otherwise false
+     */
+    @SuppressWarnings("WeakerAccess") // API method.
+    protected boolean hasFixedConnectionCapacities() {
+        return false;
+    }
+
+    /**
+     * Gets the compiled connection capacities of this brick. For bricks with fixed capacities these are those of its
+     * class, looked up again if the registry has been cleared since they were last looked up.
+     *
+     * @return  the compiled connection capacities
      */
-    private boolean supportsConnection(Brick brick) {
-        for (ConnectionCapacity capacity : getConnectionCapacities()) {
-            if (capacity.getType() == brick.getClass()) {
-                return true;
+    private ConnectionRuleTable getConnectionRules() {
+        final ConnectionRuleRegistry registry = ConnectionRuleRegistry.getDefault();
+
+        // Capacities that may depend on the state of the brick are compiled every time.
+        if (!hasFixedConnectionCapacities()) {
+            return new ConnectionRuleTable(getConnectionCapacities(), registry.isResolveSupertypes());
+        }
+        final int version = registry.getVersion();
+        if (connectionRules == null || connectionRulesVersion != version) {
+            connectionRules = registry.getTable(this);
+            connectionRulesVersion = version;
+
+            // Capacities may now apply to different types, so count again.
+            connectionCounts.clear();
+            for (Brick<?> connection : connections) {
+                incrementConnectionCount(connectionRules, connection.getClass());
             }
         }
-        return false;
+        return connectionRules;
+    }
+
+    /**
+     * Gets the type that connection counts to bricks of the given class are kept against, which is the type the
+     * capacity that applies was declared for.
+     *
+     * @param rules the compiled connection capacities of this brick
+     * @param type  the class of brick being connected to
+     * @return      the type the applicable capacity was declared for, or the class given if none applies
+     */
+    private static Class<?> getCountedType(ConnectionRuleTable rules, Class<?> type) {
+        final ConnectionCapacity capacity = rules.get(type);
+        return capacity == null ? type : capacity.getType();
+    }
+
+    /**
+     * Records a new connection to a brick of the given class.
+     *
+     * @param rules the compiled connection capacities of this brick
+     * @param type  the class of brick connected to
+     */
+    private void incrementConnectionCount(ConnectionRuleTable rules, Class<?> type) {
+        final Class<?> countedType = getCountedType(rules, type);
+        final int[] count = connectionCounts.get(countedType);
+        if (count == null) {
+            connectionCounts.put(countedType, new int[] {1});
+        } else {
+            count[0]++;
+        }
     }
 
     /**
-     * Counts connections having the same type as the given brick.
+     * Gets the number of connections this brick has that count against the same capacity as a connection to a brick
+     * of the given type would.
      *
-     * @param brick the brick for which to count connections of the same type
-     * @return      the number of connections having the same type as the given brick
+     * @param type  the type of brick
+     * @return      the number of connections counting against the capacity for bricks of the given type
      */
-    private int countConnectionsOfType(Brick brick) {
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public int getConnectionCount(Class<?> type) {
+        final ConnectionRuleTable rules = getConnectionRules();
+        final Class<?> countedType = getCountedType(rules, type);
+        if (hasFixedConnectionCapacities()) {
+            final int[] count = connectionCounts.get(countedType);
+            return count == null ? 0 : count[0];
+        }
+
+        // Capacities may have changed since the connections were made, so count them now.
         int count = 0;
-        for (Brick connection : connections) {
-            if (connection.getClass() == brick.getClass()) {
+        for (Brick<?> connection : connections) {
+            if (getCountedType(rules, connection.getClass()) == countedType) {
                 count++;
             }
         }
@@ -187,18 +355,26 @@ public abstract class Brick<T> {
     }
 
     /**
-     * Gets the maximum connection capacity for connections of the same type as the given brick.
+     * Gets the maximum number of connections this brick may have to bricks of the given type.
      *
-     * @param brick the brick for which to get the maximum capacity for connections of the same type
-     * @return      the maximum connection capacity for connections of the same type as the given brick
+     * @param type  the type of brick
+     * @return      the maximum number of connections to bricks of the given type, or zero if not supported
      */
-    private int getMaximumConnectionCapacity(Brick brick) {
-        for (ConnectionCapacity capacity : getConnectionCapacities()) {
-            if (capacity.getType() == brick.getClass()) {
-                return capacity.getCount();
-            }
-        }
-        return 0;
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public int getMaximumConnectionCapacity(Class<?> type) {
+        final ConnectionCapacity capacity = getConnectionRules().get(type);
+        return capacity == null ? 0 : capacity.getCount();
+    }
+
+    /**
+     * Gets the number of further connections this brick may make to bricks of the given type.
+     *
+     * @param type  the type of brick
+     * @return      the number of further connections to bricks of the given type, or zero if not supported
+     */
+    @SuppressWarnings("unused") // API method.
+    public int getRemainingConnectionCapacity(Class<?> type) {
+        return Math.max(0, getMaximumConnectionCapacity(type) - getConnectionCount(type));
     }
 
     /**
@@ -210,10 +386,10 @@ public abstract class Brick<T> {
     @SuppressWarnings("WeakerAccess") // API method.
     public boolean canConnect(Brick brick) {
 
-        // Bidirectional support and bidirectional capacity required.
-        return supportsConnection(brick) && brick.supportsConnection(this)
-                && countConnectionsOfType(brick) < getMaximumConnectionCapacity(brick)
-                && brick.countConnectionsOfType(this) < brick.getMaximumConnectionCapacity(this);
+        // Bidirectional capacity required, which can only be non-zero if supported.
+        final Brick<?> other = brick;
+        return getConnectionCount(other.getClass()) < getMaximumConnectionCapacity(other.getClass())
+                && other.getConnectionCount(getClass()) < other.getMaximumConnectionCapacity(getClass());
     }
 
     /**
@@ -221,8 +397,37 @@ public abstract class Brick<T> {
      *
      * @param brick the brick to add a connection to
      */
-    private void addConnectionUnchecked(Brick brick) {
-        connections.add(brick);
+    private void addConnectionUnchecked(Brick<?> brick) {
+        if (!hasFixedConnectionCapacities()) {
+            connections.add(brick);
+            return;
+        }
+
+        // Bring counts up to date before the connection is made, so that it is not counted twice.
+        final ConnectionRuleTable rules = getConnectionRules();
+        if (connections.add(brick)) {
+            incrementConnectionCount(rules, brick.getClass());
+        }
+    }
+
+    /**
+     * Removes a connection from the brick without informing any designer.
+     *
+     * @param brick the brick to remove the connection to
+     * @return      true if the brick was connected to the one given, otherwise false
+     */
+    private boolean removeConnectionUnchecked(Brick<?> brick) {
+        if (!hasFixedConnectionCapacities()) {
+            return connections.remove(brick);
+        }
+
+        // Resolve the counted type before the connection is removed, as doing so may count connections again.
+        final Class<?> countedType = getCountedType(getConnectionRules(), brick.getClass());
+        if (!connections.remove(brick)) {
+            return false;
+        }
+        connectionCounts.get(countedType)[0]--;
+        return true;
     }
 
     /**
@@ -237,7 +442,18 @@ public abstract class Brick<T> {
                 throw new IllegalArgumentException("You may not add multiple links between the same bricks.");
             } else {
                 addConnectionUnchecked(brick);
-                brick.addConnectionUnchecked(this);
+                ((Brick<?>) brick).addConnectionUnchecked(this);
+                if (graphStore != null && graphStore == brick.graphStore) {
+                    graphStore.brickLinked(this, brick);
+                }
+
+                // Inform designers of new link.
+                if (designer != null) {
+                    designer.linkAdded(this, brick);
+                }
+                if (brick.designer != null && brick.designer != designer) {
+                    brick.designer.linkAdded(this, brick);
+                }
             }
         } else {
             throw new IllegalArgumentException("You may not connect a brick of type '" + getTypeName()
@@ -257,14 +473,29 @@ public abstract class Brick<T> {
     }
 
     /**
-     * Removes a connection from the brick.
+     * Removes a connection from the brick. Does nothing if the bricks are not connected.
      *
      * @param brick the brick to remove the connection to
      */
     @SuppressWarnings("WeakerAccess") // API method.
     public void removeConnection(Brick brick) {
-        connections.remove(brick);
-        brick.connections.remove(this);
+
+        // Nothing to tell the designer or graph store if there was no link to begin with.
+        if (!removeConnectionUnchecked(brick)) {
+            return;
+        }
+        ((Brick<?>) brick).removeConnectionUnchecked(this);
+        if (graphStore != null && graphStore == brick.graphStore) {
+            graphStore.brickUnlinked(this, brick);
+        }
+
+        // Inform designers of removed link.
+        if (designer != null) {
+            designer.linkRemoved(this, brick);
+        }
+        if (brick.designer != null && brick.designer != designer) {
+            brick.designer.linkRemoved(this, brick);
+        }
     }
 
     /**
@@ -272,8 +503,8 @@ public abstract class Brick<T> {
      */
     @SuppressWarnings("WeakerAccess") // API method.
     public void removeAllConnections() {
-        while (connections.size() > 0) {
-            removeConnection(connections.get(0));
+        while (!connections.isEmpty()) {
+            removeConnection(connections.getFirst());
         }
     }
 
@@ -284,9 +515,54 @@ public abstract class Brick<T> {
      */
     @SuppressWarnings("WeakerAccess") // API method.
     public Rectangle getBounds() {
-        return new Rectangle(x, y, getWidth(), getHeight());
+        return getBounds(new Rectangle());
+    }
+
+    /**
+     * Stores the size and position of this brick into the given rectangle and returns it, avoiding an allocation.
+     *
+     * @param rv    the rectangle to store into
+     * @return      the rectangle given
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public Rectangle getBounds(Rectangle rv) {
+        rv.setBounds(x, y, getWidth(), getHeight());
+        return rv;
     }
     
+    /**
+     * Informs the designer containing this brick (if any) that its bounds have changed. The designer updates its index
+     * straight away, then repaints the old and new regions and informs observers once per pass of the event queue.
+     * Subclasses whose width or height can change should call this after such a change so that hit-testing remains
+     * accurate.
+     *
+     * This may be called from any thread, for example by a background feed of positions. If the brick is on a
+     * displayable designer and this is not the event dispatch thread, the change is handed over to the designer and
+     * its index is updated along with the repaint instead. Other changes to a designer must still be made on the event
+     * dispatch thread.
+     */
+    @SuppressWarnings("WeakerAccess") // API method.
+    protected void invalidateBounds() {
+        final Designer currentDesigner = designer;
+        if (currentDesigner != null && currentDesigner.isDisplayable() && !SwingUtilities.isEventDispatchThread()) {
+            currentDesigner.queueBrickBoundsChanged(this);
+        } else {
+            boundsChanged();
+        }
+    }
+
+    /**
+     * Updates the graph store and designer containing this brick (if any) after its bounds have changed.
+     */
+    void boundsChanged() {
+        if (graphStore != null) {
+            graphStore.brickMoved(this);
+        }
+        if (designer != null) {
+            designer.brickBoundsChanged(this);
+        }
+    }
+
     /**
      * Returns the underlying instance this brick is representing.
      * 
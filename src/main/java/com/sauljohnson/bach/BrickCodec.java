@@ -0,0 +1,34 @@
+package com.sauljohnson.bach;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Saves and restores the model objects of one type of {@link Brick} for a {@link DiagramFormat}, and recreates bricks
+ * of that type around them.
+ *
+ * @author  Saul Johnson
+ */
+public interface BrickCodec {
+
+    /**
+     * Writes the model object of a brick. The position and links of the brick are saved separately.
+     *
+     * @param brick the brick whose model object to write
+     * @param out   the output to write to
+     * @throws IOException if an I/O error occurs
+     */
+    void write(Brick<?> brick, DataOutput out) throws IOException;
+
+    /**
+     * Reads a model object written by {@link #write(Brick, DataOutput)} and creates a brick around it.
+     *
+     * @param in    the buffer to read from, positioned at the start of the model object and limited to its end
+     * @param x     the x-coordinate to create the brick at
+     * @param y     the y-coordinate to create the brick at
+     * @return      the brick created
+     * @throws IOException if the model object cannot be read
+     */
+    Brick<?> read(ByteBuffer in, int x, int y) throws IOException;
+}
@@ -1,22 +1,38 @@
 package com.sauljohnson.bach;
 
-import java.awt.*;
+import java.awt.Rectangle;
 import java.awt.event.MouseEvent;
 
 /**
- * Represents a state in which a {@link Brick} is currently being dragged in a {@link Designer}.
+ * Represents a state in which the selected {@link Brick}s are currently being dragged together in a {@link Designer}.
  *
  * @author  Saul Johnson, Alex Mullen, Lee Oliver
  */
 class BrickDraggingState extends BrickSelectedDesignerState {
 
     /**
-     * Initialises a new instance of a state in which a brick is currently being dragged in a designer.
+     * The smallest rectangle containing every brick being dragged, kept up to date as they move.
+     */
+    private final Rectangle groupBounds;
+
+    /**
+     * Whether the bricks have been moved since dragging began.
+     */
+    private boolean moved;
+
+    /**
+     * Whether the brick under the cursor becomes the only brick selected if released without being moved.
+     */
+    private boolean collapseOnRelease;
+
+    /**
+     * Initialises a new instance of a state in which the selected bricks are currently being dragged in a designer.
      *
      * @param designer  the designer this state relates to
      */
     BrickDraggingState(Designer designer) {
         super(designer);
+        groupBounds = new Rectangle();
     }
 
     @Override
@@ -24,12 +40,23 @@ class BrickDraggingState extends BrickSelectedDesignerState {
         return DesignerStateType.BRICK_DRAGGING;
     }
 
+    /**
+     * Prepares to drag the current selection, which should be done on entering the state.
+     *
+     * @param collapseOnRelease true to select only the brick under the cursor if it is released without being moved
+     */
+    void begin(boolean collapseOnRelease) {
+        designer.getSelectionBounds(groupBounds);
+        moved = false;
+        this.collapseOnRelease = collapseOnRelease;
+    }
+
     @Override
     void handleMouseDragged(MouseEvent e) {
 
-        // Compute new location.
-        int newX = e.getX() - designer.getSelectedComponentDragOffset().x;
-        int newY = e.getY() - designer.getSelectedComponentDragOffset().y;
+        // Compute new location of the brick under the cursor.
+        int newX = designer.viewToModelX(e.getX()) - designer.getSelectedComponentDragOffset().x;
+        int newY = designer.viewToModelY(e.getY()) - designer.getSelectedComponentDragOffset().y;
 
         // Snap to grid?
         if (designer.isShowGrid()) {
@@ -37,32 +64,34 @@ class BrickDraggingState extends BrickSelectedDesignerState {
             newY = newY - (newY % designer.getGridSpacing());
         }
 
-        // Do not proceed if brick moved outside top-left bounds.
-        if (newX < 0 && newY < 0) {
-            return;
+        // The rest of the selection follows, but not along an axis that would take it outside top-left bounds.
+        final Brick<?> selectedBrick = getSelectedBrick();
+        int dx = newX - selectedBrick.getX();
+        int dy = newY - selectedBrick.getY();
+        if (groupBounds.x + dx < 0) {
+            dx = 0;
         }
-
-        // Move to new position.
-        if (newX >= 0) {
-            getSelectedBrick().setX(newX);
+        if (groupBounds.y + dy < 0) {
+            dy = 0;
         }
-        if (newY >= 0) {
-            getSelectedBrick().setY(newY);
+        if (dx == 0 && dy == 0) {
+            return;
         }
 
-        // Move brick.
-        designer.repaint();
-
-        // Raise events with observers.
-        for (DesignerEventListener currentListener : designer.getDesignerEventListeners()) {
-            currentListener.brickMoved(getSelectedBrick(), new Point(newX, newY));
-        }
+        // Move in one pass. The designer repaints the old and new regions and informs observers once per frame.
+        designer.dragSelectedBricks(dx, dy);
+        groupBounds.translate(dx, dy);
+        moved = true;
     }
 
     @Override
     void handleMouseReleased(MouseEvent e) {
 
-        // Brick released, revert state.
-        designer.setState(new DefaultState(designer));
+        // Bricks released, revert state. A click on one of several selected bricks selects it alone.
+        final boolean collapse = collapseOnRelease && !moved;
+        designer.setState(designer.getDefaultState());
+        if (collapse) {
+            designer.setSelectedBrick(getSelectedBrick());
+        }
     }
 }
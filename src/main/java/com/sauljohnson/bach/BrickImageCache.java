@@ -0,0 +1,137 @@
+package com.sauljohnson.bach;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least-recently-used cache of brick images converted into a format compatible with the screen, so that drawing them
+ * takes the fastest (usually accelerated) path.
+ *
+ * Entries are keyed on the source image, so bricks that return the same image share a single converted copy.
+ *
+ * @author  Saul Johnson
+ */
+final class BrickImageCache {
+
+    /**
+     * The default maximum number of images held in the cache.
+     */
+    static final int DEFAULT_CAPACITY = 256;
+
+    /**
+     * The maximum number of images held in the cache.
+     */
+    private int capacity;
+
+    /**
+     * The graphics configuration that cached images are compatible with.
+     */
+    private GraphicsConfiguration configuration;
+
+    /**
+     * The converted images, keyed by source image, in least-recently-used order.
+     */
+    private final LinkedHashMap<Image, Image> images;
+
+    /**
+     * Initialises a new instance of a least-recently-used cache of compatible brick images.
+     *
+     * @param capacity  the maximum number of images held in the cache
+     */
+    BrickImageCache(int capacity) {
+        this.capacity = capacity;
+        images = new LinkedHashMap<Image, Image>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Image, Image> eldest) {
+                return size() > BrickImageCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Gets the maximum number of images held in the cache.
+     *
+     * @return  the maximum number of images
+     */
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets the maximum number of images held in the cache, evicting least recently used images if necessary.
+     *
+     * @param capacity  the maximum number of images
+     */
+    void setCapacity(int capacity) {
+        this.capacity = capacity;
+        while (images.size() > capacity) {
+            images.remove(images.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * Removes all images from the cache.
+     */
+    void clear() {
+        images.clear();
+    }
+
+    /**
+     * Gets the version of an image that is compatible with the given graphics configuration, converting and caching
+     * it if necessary. Images that cannot be converted yet (for example because they are still loading) are returned
+     * as-is.
+     *
+     * @param source        the source image
+     * @param configuration the graphics configuration to be compatible with, or null if unknown
+     * @return              the compatible image, or the source image if no conversion was possible
+     */
+    Image get(Image source, GraphicsConfiguration configuration) {
+
+        // Nothing to convert to, or nothing that can be converted.
+        if (source == null || configuration == null || capacity <= 0 || source instanceof VolatileImage) {
+            return source;
+        }
+
+        // Cached images are only compatible with the configuration they were created for.
+        if (configuration != this.configuration) {
+            images.clear();
+            this.configuration = configuration;
+        }
+
+        // Return cached copy if we have one.
+        final Image cached = images.get(source);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Image dimensions unknown until loaded.
+        final int width = source.getWidth(null);
+        final int height = source.getHeight(null);
+        if (width <= 0 || height <= 0) {
+            return source;
+        }
+
+        // Copy into compatible image.
+        final int transparency = source instanceof BufferedImage
+                ? ((BufferedImage) source).getTransparency() : Transparency.TRANSLUCENT;
+        final BufferedImage compatible = configuration.createCompatibleImage(width, height, transparency);
+        final Graphics2D g = compatible.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        final boolean complete = g.drawImage(source, 0, 0, null);
+        g.dispose();
+
+        // Only cache if the source was fully drawn.
+        if (!complete) {
+            return source;
+        }
+        images.put(source, compatible);
+        return compatible;
+    }
+}
@@ -0,0 +1,20 @@
+package com.sauljohnson.bach;
+
+/**
+ * Told when a {@link BrickImageLoader} fails to decode an image, so the failure can be logged or reported rather than
+ * the brick silently staying a placeholder. Called on the loader's background executor, never on the event dispatch
+ * thread.
+ *
+ * @author  Saul Johnson
+ */
+public interface BrickImageFailureListener {
+
+    /**
+     * Raised when an image could not be decoded. The source is not tried again until it is invalidated, the failures
+     * are cleared, or enough other sources fail that it is forgotten.
+     *
+     * @param source    the source of the image
+     * @param cause     the exception thrown while decoding, or null if the provider returned no image
+     */
+    void imageFailed(Object source, Exception cause);
+}
@@ -0,0 +1,365 @@
+package com.sauljohnson.bach;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import javax.swing.SwingUtilities;
+
+/**
+ * Loads the images that represent bricks in the background, so that slow decoding never holds up painting. Bricks
+ * return the result of {@link #getImage(Brick, Object)} from {@link Brick#getImage()}. Until their image is ready it
+ * returns null, the designer draws a placeholder in its place, and once the image has been decoded only the bricks
+ * that asked for it are repainted.
+ *
+ * Decoded images are kept in a least-recently-used cache keyed by source and bounded by the memory they take up, so a
+ * single loader can be shared between many bricks and designers. Sources are compared with
+ * {@link Object#equals(Object)}, so strings, files and URIs all make good sources.
+ *
+ * Sources that fail to decode are reported to the {@link BrickImageFailureListener}, if there is one, and stay
+ * placeholders until they are invalidated or the failures are cleared. Only the latest failures are remembered.
+ *
+ * @author  Saul Johnson
+ */
+public final class BrickImageLoader {
+
+    /**
+     * The most sources remembered as having failed to decode, beyond which the earliest failures are forgotten and
+     * tried again when next asked for.
+     */
+    private static final int MAXIMUM_FAILED = 1024;
+
+    /**
+     * The provider that decodes images.
+     */
+    private final BrickImageProvider provider;
+
+    /**
+     * The executor images are decoded on.
+     */
+    private final Executor executor;
+
+    /**
+     * The decoded images, from least to most recently used.
+     */
+    private final LinkedHashMap<Object, BufferedImage> images;
+
+    /**
+     * The bricks waiting for each image being decoded.
+     */
+    private final Map<Object, Set<Brick<?>>> pending;
+
+    /**
+     * The sources that could not be decoded, from earliest to latest, which are not tried again until invalidated.
+     */
+    private final Set<Object> failed;
+
+    /**
+     * The listener told when an image could not be decoded, or null if there is none.
+     */
+    private volatile BrickImageFailureListener failureListener;
+
+    /**
+     * The approximate memory taken up by the cached images, in bytes.
+     */
+    private long cachedBytes;
+
+    /**
+     * The approximate memory the cached images may take up before the least recently used are discarded, in bytes.
+     */
+    private long maximumBytes;
+
+    /**
+     * Initialises a new instance of a loader that decodes brick images in the background.
+     *
+     * @param provider      the provider that decodes images
+     * @param executor      the executor to decode images on
+     * @param maximumBytes  the approximate memory the cached images may take up, in bytes
+     * @throws IllegalArgumentException if the provider or executor is null, or the memory limit is negative
+     */
+    public BrickImageLoader(BrickImageProvider provider, Executor executor, long maximumBytes) {
+        if (provider == null || executor == null) {
+            throw new IllegalArgumentException("Provider and executor cannot be null.");
+        }
+        if (maximumBytes < 0) {
+            throw new IllegalArgumentException("Maximum cache size cannot be negative.");
+        }
+        this.provider = provider;
+        this.executor = executor;
+        this.maximumBytes = maximumBytes;
+        images = new LinkedHashMap<>(16, 0.75f, true);
+        pending = new HashMap<>();
+        failed = new LinkedHashSet<>();
+    }
+
+    /**
+     * Gets the image from a source for a brick, starting to decode it in the background if it is not cached. Once
+     * decoded, the brick is repainted if it is on a designer.
+     *
+     * @param brick     the brick the image represents, or null if nothing needs repainting once it is decoded
+     * @param source    the source of the image
+     * @return          the image, or null if it is not ready or could not be decoded
+     */
+    @SuppressWarnings("unused") // API method.
+    public synchronized Image getImage(Brick<?> brick, Object source) {
+        if (source == null) {
+            return null;
+        }
+        final BufferedImage image = images.get(source);
+        if (image != null || failed.contains(source)) {
+            return image;
+        }
+
+        // Start decoding if nothing else is waiting for this image already.
+        Set<Brick<?>> waiting = pending.get(source);
+        if (waiting == null) {
+            waiting = Collections.newSetFromMap(new IdentityHashMap<Brick<?>, Boolean>());
+            pending.put(source, waiting);
+            try {
+                executor.execute(new LoadTask(source));
+            } catch (RuntimeException e) {
+                pending.remove(source);
+                notifyAll();
+                throw e;
+            }
+
+            // An executor that runs tasks straight away will have finished already.
+            if (!pending.containsKey(source)) {
+                return images.get(source);
+            }
+        }
+        if (brick != null) {
+            waiting.add(brick);
+        }
+        return null;
+    }
+
+    /**
+     * Waits until no images are being decoded, for example so that bricks can be exported with their images rather
+     * than placeholders.
+     *
+     * @param timeout   the longest time to wait, in milliseconds
+     * @return          true if no images are being decoded, or false if the timeout elapsed first
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public synchronized boolean awaitIdle(long timeout) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (!pending.isEmpty()) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Gets the approximate memory the cached images may take up before the least recently used are discarded.
+     *
+     * @return  the memory limit in bytes
+     */
+    @SuppressWarnings("unused") // API method.
+    public synchronized long getMaximumBytes() {
+        return maximumBytes;
+    }
+
+    /**
+     * Sets the approximate memory the cached images may take up before the least recently used are discarded. The most
+     * recently used image is always kept, even if it is larger than the limit on its own.
+     *
+     * @param maximumBytes  the memory limit in bytes
+     * @throws IllegalArgumentException if the memory limit is negative
+     */
+    @SuppressWarnings("unused") // API method.
+    public synchronized void setMaximumBytes(long maximumBytes) {
+        if (maximumBytes < 0) {
+            throw new IllegalArgumentException("Maximum cache size cannot be negative.");
+        }
+        this.maximumBytes = maximumBytes;
+        trim();
+    }
+
+    /**
+     * Discards the cached image from a source, or the record that it could not be decoded, so that it is decoded
+     * again the next time it is asked for.
+     *
+     * @param source    the source of the image
+     */
+    @SuppressWarnings("unused") // API method.
+    public synchronized void invalidate(Object source) {
+        final BufferedImage image = images.remove(source);
+        if (image != null) {
+            cachedBytes -= getSize(image);
+        }
+        failed.remove(source);
+    }
+
+    /**
+     * Gets the listener told when an image could not be decoded.
+     *
+     * @return  the listener, or null if there is none
+     */
+    @SuppressWarnings("unused") // API method.
+    public BrickImageFailureListener getFailureListener() {
+        return failureListener;
+    }
+
+    /**
+     * Sets the listener told when an image could not be decoded, which is called on the executor.
+     *
+     * @param failureListener   the listener, or null to not be told
+     */
+    @SuppressWarnings("unused") // API method.
+    public void setFailureListener(BrickImageFailureListener failureListener) {
+        this.failureListener = failureListener;
+    }
+
+    /**
+     * Discards every record of an image that could not be decoded, so that each is decoded again the next time it is
+     * asked for. Cached images are kept.
+     */
+    @SuppressWarnings("unused") // API method.
+    public synchronized void clearFailures() {
+        failed.clear();
+    }
+
+    /**
+     * Discards every cached image and every record of an image that could not be decoded.
+     */
+    @SuppressWarnings("unused") // API method.
+    public synchronized void clear() {
+        images.clear();
+        failed.clear();
+        cachedBytes = 0;
+    }
+
+    /**
+     * Caches a decoded image and repaints the bricks waiting for it on the event dispatch thread.
+     *
+     * @param source    the source of the image
+     * @param image     the decoded image, or null if it could not be decoded
+     */
+    private void completed(Object source, BufferedImage image) {
+        final Set<Brick<?>> waiting;
+        synchronized (this) {
+            waiting = pending.remove(source);
+            notifyAll();
+            if (image == null) {
+                failed.add(source);
+                if (failed.size() > MAXIMUM_FAILED) {
+                    final Iterator<Object> iterator = failed.iterator();
+                    iterator.next();
+                    iterator.remove();
+                }
+                return;
+            }
+            images.put(source, image);
+            cachedBytes += getSize(image);
+            trim();
+        }
+        if (waiting != null && !waiting.isEmpty()) {
+            SwingUtilities.invokeLater(new RepaintTask(waiting));
+        }
+    }
+
+    /**
+     * Discards the least recently used images until the cache is within its memory limit, always keeping the most
+     * recently used.
+     */
+    private void trim() {
+        final Iterator<BufferedImage> iterator = images.values().iterator();
+        while (cachedBytes > maximumBytes && images.size() > 1) {
+            cachedBytes -= getSize(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Gets the approximate memory taken up by an image, assuming four bytes per pixel.
+     *
+     * @param image the image
+     * @return      the memory taken up in bytes
+     */
+    private static long getSize(BufferedImage image) {
+        return 4L * image.getWidth() * image.getHeight();
+    }
+
+    /**
+     * Decodes an image on the executor.
+     */
+    private final class LoadTask implements Runnable {
+
+        /**
+         * The source of the image.
+         */
+        private final Object source;
+
+        /**
+         * Initialises a new instance of a task that decodes an image.
+         *
+         * @param source    the source of the image
+         */
+        LoadTask(Object source) {
+            this.source = source;
+        }
+
+        @Override
+        public void run() {
+            BufferedImage image = null;
+            Exception cause = null;
+            try {
+                image = provider.loadImage(source);
+            } catch (Exception e) {
+
+                // Left as a placeholder, the same as an image that decodes to nothing, and reported below.
+                cause = e;
+            } finally {
+                completed(source, image);
+            }
+            final BrickImageFailureListener listener = failureListener;
+            if (image == null && listener != null) {
+                listener.imageFailed(source, cause);
+            }
+        }
+    }
+
+    /**
+     * Repaints the bricks that were waiting for an image, on the event dispatch thread.
+     */
+    private static final class RepaintTask implements Runnable {
+
+        /**
+         * The bricks to repaint.
+         */
+        private final Set<Brick<?>> bricks;
+
+        /**
+         * Initialises a new instance of a task that repaints bricks.
+         *
+         * @param bricks    the bricks to repaint
+         */
+        RepaintTask(Set<Brick<?>> bricks) {
+            this.bricks = bricks;
+        }
+
+        @Override
+        public void run() {
+            for (Brick<?> brick : bricks) {
+                final Designer designer = brick.designer;
+                if (designer != null) {
+                    designer.repaintModelRegion(brick.getX(), brick.getY(), brick.getWidth(), brick.getHeight());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.sauljohnson.bach;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Decodes the images that represent bricks from their sources, such as files, URLs or icon names, for a
+ * {@link BrickImageLoader}. Called on the loader's background executor, never on the event dispatch thread.
+ *
+ * @author  Saul Johnson
+ */
+public interface BrickImageProvider {
+
+    /**
+     * Decodes the image from a source.
+     *
+     * @param source    the source of the image, as passed to {@link BrickImageLoader#getImage(Brick, Object)}
+     * @return          the decoded image
+     * @throws IOException if the image cannot be read or decoded
+     */
+    BufferedImage loadImage(Object source) throws IOException;
+}
@@ -0,0 +1,84 @@
+package com.sauljohnson.bach;
+
+/**
+ * Represents an undirected link between two bricks, as indexed by a {@link Designer}.
+ *
+ * Two links are equal if they join the same two bricks (by identity) regardless of which end is which.
+ *
+ * @author  Saul Johnson
+ */
+final class BrickLink {
+
+    /**
+     * The first brick joined by the link.
+     */
+    private Brick<?> first;
+
+    /**
+     * The second brick joined by the link.
+     */
+    private Brick<?> second;
+
+    /**
+     * Initialises a new instance of an undirected link between two bricks.
+     *
+     * @param first     the first brick
+     * @param second    the second brick
+     */
+    BrickLink(Brick<?> first, Brick<?> second) {
+        set(first, second);
+    }
+
+    /**
+     * Sets the bricks joined by the link. Used to reuse a single instance as a lookup key.
+     *
+     * @param first     the first brick
+     * @param second    the second brick
+     */
+    void set(Brick<?> first, Brick<?> second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    /**
+     * Gets the first brick joined by the link.
+     *
+     * @return  the first brick
+     */
+    Brick<?> getFirst() {
+        return first;
+    }
+
+    /**
+     * Gets the second brick joined by the link.
+     *
+     * @return  the second brick
+     */
+    Brick<?> getSecond() {
+        return second;
+    }
+
+    /**
+     * Gets the brick at the opposite end of the link to the one given.
+     *
+     * @param brick the brick at one end of the link
+     * @return      the brick at the other end of the link
+     */
+    Brick<?> getOther(Brick<?> brick) {
+        return brick == first ? second : first;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof BrickLink)) {
+            return false;
+        }
+        final BrickLink other = (BrickLink) obj;
+        return (first == other.first && second == other.second) || (first == other.second && second == other.first);
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(first) ^ System.identityHashCode(second);
+    }
+}
@@ -7,7 +7,7 @@ import java.awt.event.MouseEvent;
  *
  * @author  Saul Johnson, Alex Mullen, Lee Oliver
  */
-class BrickLinkingState extends BrickSelectedDesignerState {
+class BrickLinkingState extends BrickRubberBandState {
 
     /**
      * Initialises a new instance of a state in which a brick is currently being linked to another in a designer.
@@ -23,16 +23,11 @@ class BrickLinkingState extends BrickSelectedDesignerState {
         return DesignerStateType.BRICK_LINKING;
     }
 
-    @Override
-    void handleMouseMoved(MouseEvent e) {
-        designer.repaint();
-    }
-
     @Override
     void handleMousePressed(MouseEvent e) {
 
         // If brick was clicked.
-        final Brick brickClicked = designer.getBrickAt(e.getPoint());
+        final Brick<?> brickClicked = designer.getOrMaterialiseBrickAt(designer.viewToModel(e.getPoint()));
         if (brickClicked != null) {
 
             // Make link if supported and does not exist already.
@@ -41,15 +36,11 @@ class BrickLinkingState extends BrickSelectedDesignerState {
                 getSelectedBrick().addConnection(brickClicked);
 
                 // Inform observers of linking event.
-                for (DesignerEventListener currentListener : designer.getDesignerEventListeners()) {
-                    currentListener.linkCreated(getSelectedBrick(), brickClicked);
-                }
+                designer.fireLinkCreated(getSelectedBrick(), brickClicked);
             } else {
 
                 // Inform observers of refusal event.
-                for (DesignerEventListener currentListener : designer.getDesignerEventListeners()) {
-                    currentListener.linkRefused(getSelectedBrick(), brickClicked);
-                }
+                designer.fireLinkRefused(getSelectedBrick(), brickClicked);
             }
             designer.setSelectedBrick(brickClicked);
         } else {
@@ -59,6 +50,6 @@ class BrickLinkingState extends BrickSelectedDesignerState {
         }
 
         // Revert state to default (i.e. leave linking state).
-        designer.setState(new DefaultState(designer));
+        designer.setState(designer.getDefaultState());
     }
 }
@@ -0,0 +1,20 @@
+package com.sauljohnson.bach;
+
+/**
+ * Creates {@link Brick} objects for nodes held in a {@link GraphStore}, at the point the user first interacts with
+ * them.
+ *
+ * @author  Saul Johnson
+ */
+public interface BrickMaterialiser {
+
+    /**
+     * Creates the brick that represents a node in a graph store. The brick should have the same size as the node type
+     * and will be moved to the position of the node before being added to the designer.
+     *
+     * @param store the graph store holding the node
+     * @param node  the index of the node
+     * @return      the brick that represents the node
+     */
+    Brick<?> materialise(GraphStore store, int node);
+}
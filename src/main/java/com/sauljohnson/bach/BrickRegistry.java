@@ -0,0 +1,235 @@
+package com.sauljohnson.bach;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Holds the bricks on a {@link Designer}, answering membership by identity in constant time and keeping them in
+ * z-order so that bricks can be added, removed and reordered in logarithmic time.
+ *
+ * @author  Saul Johnson
+ */
+final class BrickRegistry {
+
+    /**
+     * The bricks in the registry, by identity.
+     */
+    private final Set<Brick<?>> members;
+
+    /**
+     * The bricks in the registry from bottom-most to top-most.
+     */
+    private final TreeSet<Brick<?>> zOrdered;
+
+    /**
+     * The bricks in the registry from bottom-most to top-most as an array, or null if it needs rebuilding.
+     */
+    private Brick<?>[] orderedArray;
+
+    /**
+     * The read-only list view of the registry in z-order.
+     */
+    private final ListView listView;
+
+    /**
+     * The last sequence number given to a brick placed on top of others with the same z-index.
+     */
+    private long frontSequence;
+
+    /**
+     * The last sequence number given to a brick placed beneath others with the same z-index.
+     */
+    private long backSequence;
+
+    /**
+     * Initialises a new instance of an empty brick registry.
+     */
+    BrickRegistry() {
+        members = Collections.newSetFromMap(new IdentityHashMap<Brick<?>, Boolean>());
+        zOrdered = new TreeSet<>(Designer.Z_ORDER_COMPARATOR);
+        listView = new ListView();
+    }
+
+    /**
+     * Gets the number of bricks in the registry.
+     *
+     * @return  the number of bricks
+     */
+    int size() {
+        return members.size();
+    }
+
+    /**
+     * Returns true if the registry contains the given brick, otherwise returns false.
+     *
+     * @param brick the brick to check
+     * @return      true if the registry contains the brick, otherwise false
+     */
+    boolean contains(Brick<?> brick) {
+        return members.contains(brick);
+    }
+
+    /**
+     * Adds a brick to the registry on top of all others, giving it the same z-index as the current top-most brick (or
+     * zero if there is none).
+     *
+     * @param brick the brick to add
+     * @throws IllegalArgumentException if the brick is already in the registry
+     */
+    void add(Brick<?> brick) {
+        if (!members.add(brick)) {
+            throw new IllegalArgumentException("Brick is already registered.");
+        }
+        brick.zIndex = zOrdered.isEmpty() ? 0 : zOrdered.last().zIndex;
+        brick.zSequence = ++frontSequence;
+        zOrdered.add(brick);
+        orderedArray = null;
+        listView.changed();
+    }
+
+    /**
+     * Removes a brick from the registry.
+     *
+     * @param brick the brick to remove
+     * @return      true if the brick was removed, false if it was not in the registry
+     */
+    boolean remove(Brick<?> brick) {
+        if (!members.remove(brick)) {
+            return false;
+        }
+        zOrdered.remove(brick);
+        orderedArray = null;
+        listView.changed();
+        return true;
+    }
+
+    /**
+     * Changes the z-index of a brick in the registry, placing it on top of any others with the same z-index.
+     *
+     * @param brick     the brick to reorder
+     * @param zIndex    the new z-index
+     */
+    void setZIndex(Brick<?> brick, int zIndex) {
+        place(brick, zIndex, ++frontSequence);
+    }
+
+    /**
+     * Moves a brick in the registry on top of all others, taking on the z-index of the current top-most brick.
+     *
+     * @param brick the brick to move
+     * @return      true if the z-order changed, false if the brick was already top-most
+     */
+    boolean bringToFront(Brick<?> brick) {
+        final Brick<?> topMost = zOrdered.last();
+        if (topMost == brick) {
+            return false;
+        }
+        place(brick, topMost.zIndex, ++frontSequence);
+        return true;
+    }
+
+    /**
+     * Moves a brick in the registry beneath all others, taking on the z-index of the current bottom-most brick.
+     *
+     * @param brick the brick to move
+     * @return      true if the z-order changed, false if the brick was already bottom-most
+     */
+    boolean sendToBack(Brick<?> brick) {
+        final Brick<?> bottomMost = zOrdered.first();
+        if (bottomMost == brick) {
+            return false;
+        }
+        place(brick, bottomMost.zIndex, --backSequence);
+        return true;
+    }
+
+    /**
+     * Moves a brick in the registry to a new place in the z-order.
+     *
+     * @param brick     the brick to move
+     * @param zIndex    the new z-index of the brick
+     * @param zSequence the new position of the brick among those with the same z-index
+     */
+    private void place(Brick<?> brick, int zIndex, long zSequence) {
+        zOrdered.remove(brick);
+        brick.zIndex = zIndex;
+        brick.zSequence = zSequence;
+        zOrdered.add(brick);
+        orderedArray = null;
+        listView.changed();
+    }
+
+    /**
+     * Gets the bottom-most brick in the registry.
+     *
+     * @return  the bottom-most brick, or null if the registry is empty
+     */
+    Brick<?> getBottomMost() {
+        return zOrdered.isEmpty() ? null : zOrdered.first();
+    }
+
+    /**
+     * Gets the top-most brick in the registry.
+     *
+     * @return  the top-most brick, or null if the registry is empty
+     */
+    Brick<?> getTopMost() {
+        return zOrdered.isEmpty() ? null : zOrdered.last();
+    }
+
+    /**
+     * Gets a read-only list view of the registry from bottom-most to top-most brick, which reflects later changes.
+     * Iterators over the view fail fast with a {@link java.util.ConcurrentModificationException} if bricks are added,
+     * removed or reordered while they are in use.
+     *
+     * @return  the list view
+     */
+    List<Brick<?>> asList() {
+        return listView;
+    }
+
+    /**
+     * Gets the bricks in the registry from bottom-most to top-most as an array, rebuilding it if the registry has
+     * changed since it was last built.
+     *
+     * @return  the bricks in z-order
+     */
+    private Brick<?>[] getOrderedArray() {
+        if (orderedArray == null) {
+            orderedArray = zOrdered.toArray(new Brick<?>[zOrdered.size()]);
+        }
+        return orderedArray;
+    }
+
+    /**
+     * A read-only list view of the registry in z-order.
+     */
+    private final class ListView extends AbstractList<Brick<?>> {
+
+        @Override
+        public Brick<?> get(int index) {
+            return getOrderedArray()[index];
+        }
+
+        @Override
+        public int size() {
+            return members.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return members.contains(o);
+        }
+
+        /**
+         * Records that bricks have been added, removed or reordered, so iterators in use fail fast.
+         */
+        void changed() {
+            modCount++;
+        }
+    }
+}
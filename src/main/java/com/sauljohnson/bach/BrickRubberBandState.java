@@ -0,0 +1,68 @@
+package com.sauljohnson.bach;
+
+import java.awt.Point;
+import java.awt.event.MouseEvent;
+
+/**
+ * Represents an abstract state in which a line is drawn from the selected {@link Brick} to the cursor in a
+ * {@link Designer}, as when linking or unlinking bricks.
+ *
+ * @author  Saul Johnson
+ */
+abstract class BrickRubberBandState extends BrickSelectedDesignerState {
+
+    /**
+     * The last known position of the cursor in view coordinates.
+     */
+    private final Point cursorPosition;
+
+    /**
+     * Initialises a new instance of an abstract state in which a line is drawn from the selected brick to the cursor
+     * in a designer.
+     *
+     * @param designer  the designer this state relates to
+     */
+    BrickRubberBandState(Designer designer) {
+        super(designer);
+        cursorPosition = new Point();
+    }
+
+    /**
+     * Gets the last known position of the cursor in view coordinates, which is where the line is drawn to.
+     *
+     * @return  the position of the cursor
+     */
+    Point getCursorPosition() {
+        return cursorPosition;
+    }
+
+    /**
+     * Sets the position of the cursor in view coordinates, which should be done on entering the state.
+     *
+     * @param x the x-coordinate of the cursor
+     * @param y the y-coordinate of the cursor
+     */
+    void setCursorPosition(int x, int y) {
+        cursorPosition.setLocation(x, y);
+    }
+
+    @Override
+    void handleMouseMoved(MouseEvent e) {
+
+        // Repaint where the line was and where it now is.
+        repaintLine();
+        cursorPosition.setLocation(e.getX(), e.getY());
+        repaintLine();
+    }
+
+    /**
+     * Repaints the region covered by the line from the centre of the selected brick to the cursor.
+     */
+    private void repaintLine() {
+        final Brick<?> selectedBrick = getSelectedBrick();
+        final int x = designer.modelToViewX(selectedBrick.getCenterX());
+        final int y = designer.modelToViewY(selectedBrick.getCenterY());
+        designer.repaintOverlay(Math.min(x, cursorPosition.x), Math.min(y, cursorPosition.y),
+                Math.abs(cursorPosition.x - x) + 1, Math.abs(cursorPosition.y - y) + 1);
+    }
+}
@@ -7,7 +7,7 @@ import java.awt.event.MouseEvent;
  *
  * @author  Saul Johnson, Alex Mullen, Lee Oliver
  */
-class BrickUnlinkingState extends BrickSelectedDesignerState {
+class BrickUnlinkingState extends BrickRubberBandState {
 
     /**
      * Initialises a new instance of a state in which a brick is currently being unlinked from another in a designer.
@@ -23,25 +23,18 @@ class BrickUnlinkingState extends BrickSelectedDesignerState {
         return DesignerStateType.BRICK_UNLINKING;
     }
 
-    @Override
-    void handleMouseMoved(MouseEvent e) {
-        designer.repaint();
-    }
-
     @Override
     void handleMousePressed(MouseEvent e) {
 
         // If a connected brick was clicked.
-        final Brick brickClicked = designer.getBrickAt(e.getPoint());
+        final Brick<?> brickClicked = designer.getOrMaterialiseBrickAt(designer.viewToModel(e.getPoint()));
         if (brickClicked != null && getSelectedBrick().hasConnection(brickClicked)) {
 
             // Remove link.
             getSelectedBrick().removeConnection(brickClicked);
 
             // Inform observers of unlink event.
-            for (DesignerEventListener currentListener : designer.getDesignerEventListeners()) {
-                currentListener.linkDeleted(getSelectedBrick(), brickClicked);
-            }
+            designer.fireLinkDeleted(getSelectedBrick(), brickClicked);
 
             // Select brick that was clicked.
             designer.setSelectedBrick(brickClicked);
@@ -52,6 +45,6 @@ class BrickUnlinkingState extends BrickSelectedDesignerState {
         }
 
         // Revert state to default (i.e. leave linking state).
-        designer.setState(new DefaultState(designer));
+        designer.setState(designer.getDefaultState());
     }
 }
@@ -0,0 +1,118 @@
+package com.sauljohnson.bach;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Compiles the connection capacities of each brick class into a lookup table the first time they are needed, so that
+ * checking whether two bricks can connect does not call {@link Brick#getConnectionCapacities()} or search its result.
+ *
+ * Only classes whose bricks declare that their capacities depend on nothing but their class, by overriding
+ * {@link Brick#hasFixedConnectionCapacities()}, are compiled here. If their capacities change, call {@link #clear()}
+ * so that they are compiled again. The registry may be used from any thread, so diagrams can be loaded in parallel.
+ *
+ * @author  Saul Johnson
+ */
+public final class ConnectionRuleRegistry {
+
+    /**
+     * The registry used by all bricks.
+     */
+    private static final ConnectionRuleRegistry DEFAULT = new ConnectionRuleRegistry();
+
+    /**
+     * The compiled tables keyed by brick class.
+     */
+    private final ConcurrentMap<Class<?>, ConnectionRuleTable> tables;
+
+    /**
+     * Whether capacities declared for a superclass or interface apply to bricks of its subclasses.
+     */
+    private volatile boolean resolveSupertypes;
+
+    /**
+     * Incremented whenever compiled tables are discarded, so that bricks know to look them up again.
+     */
+    private volatile int version;
+
+    /**
+     * Initialises a new instance of a connection rule registry.
+     */
+    private ConnectionRuleRegistry() {
+        tables = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Gets the connection rule registry used by all bricks.
+     *
+     * @return  the connection rule registry
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public static ConnectionRuleRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Gets whether capacities declared for a superclass or interface apply to bricks of its subclasses. If not, a
+     * capacity applies only to bricks of exactly the class it was declared for.
+     *
+     * @return  true if supertypes are resolved, otherwise false
+     */
+    @SuppressWarnings("unused") // API method.
+    public boolean isResolveSupertypes() {
+        return resolveSupertypes;
+    }
+
+    /**
+     * Sets whether capacities declared for a superclass or interface apply to bricks of its subclasses. If not, a
+     * capacity applies only to bricks of exactly the class it was declared for.
+     *
+     * @param resolveSupertypes true to resolve supertypes, false to match exact classes only
+     */
+    @SuppressWarnings("unused") // API method.
+    public synchronized void setResolveSupertypes(boolean resolveSupertypes) {
+        if (this.resolveSupertypes != resolveSupertypes) {
+            this.resolveSupertypes = resolveSupertypes;
+            clear();
+        }
+    }
+
+    /**
+     * Discards all compiled tables, so that connection capacities are compiled again the next time they are needed.
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public synchronized void clear() {
+        tables.clear();
+        version++;
+    }
+
+    /**
+     * Gets the number of times compiled tables have been discarded.
+     *
+     * @return  the version of the registry
+     */
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the compiled table for the class of a brick with fixed connection capacities, compiling it from the brick's
+     * connection capacities if this is the first brick of its class to be looked up.
+     *
+     * @param brick the brick to get the table for
+     * @return      the compiled table
+     */
+    ConnectionRuleTable getTable(Brick<?> brick) {
+        final Class<?> type = brick.getClass();
+        final ConnectionRuleTable table = tables.get(type);
+        if (table != null) {
+            return table;
+        }
+
+        // Another thread may compile the same class at the same time, in which case the first table stored is kept.
+        final ConnectionRuleTable compiled = new ConnectionRuleTable(brick.getConnectionCapacities(),
+                resolveSupertypes);
+        final ConnectionRuleTable existing = tables.putIfAbsent(type, compiled);
+        return existing == null ? compiled : existing;
+    }
+}
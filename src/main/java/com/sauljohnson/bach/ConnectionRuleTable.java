@@ -0,0 +1,116 @@
+package com.sauljohnson.bach;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The connection capacities of a single brick class, compiled into a lookup table keyed by the class of brick being
+ * connected to. Tables may be shared between threads.
+ *
+ * @author  Saul Johnson
+ */
+final class ConnectionRuleTable {
+
+    /**
+     * Marks a class as resolved to no connection capacity.
+     */
+    private static final ConnectionCapacity UNSUPPORTED = new ConnectionCapacity(0, null);
+
+    /**
+     * The declared connection capacities keyed by type, where the first declared for a type takes precedence.
+     */
+    private final Map<Class<?>, ConnectionCapacity> declared;
+
+    /**
+     * The connection capacities resolved through superclasses and interfaces so far, keyed by the class looked up.
+     */
+    private final Map<Class<?>, ConnectionCapacity> resolved;
+
+    /**
+     * Whether capacities declared for a superclass or interface apply to bricks of its subclasses.
+     */
+    private final boolean resolveSupertypes;
+
+    /**
+     * Initialises a new instance of a connection rule table compiled from a list of connection capacities.
+     *
+     * @param capacities        the connection capacities to compile
+     * @param resolveSupertypes true if capacities declared for a superclass or interface apply to its subclasses
+     */
+    ConnectionRuleTable(List<ConnectionCapacity> capacities, boolean resolveSupertypes) {
+        this.resolveSupertypes = resolveSupertypes;
+        declared = new HashMap<>();
+        resolved = new ConcurrentHashMap<>();
+        for (ConnectionCapacity capacity : capacities) {
+            if (!declared.containsKey(capacity.getType())) {
+                declared.put(capacity.getType(), capacity);
+            }
+        }
+    }
+
+    /**
+     * Gets the connection capacity that applies to connections to bricks of the given class.
+     *
+     * @param type  the class of brick being connected to
+     * @return      the connection capacity that applies, or null if connections to the class are not supported
+     */
+    ConnectionCapacity get(Class<?> type) {
+        if (!resolveSupertypes) {
+            return declared.get(type);
+        }
+
+        // Resolve once, then look up. Threads resolving the same class at once arrive at the same capacity.
+        ConnectionCapacity capacity = resolved.get(type);
+        if (capacity == null) {
+            capacity = resolve(type);
+            resolved.put(type, capacity);
+        }
+        return capacity == UNSUPPORTED ? null : capacity;
+    }
+
+    /**
+     * Finds the connection capacity declared for the nearest supertype of a class, looking first at the class itself,
+     * then at its superclasses, then at the interfaces they implement breadth-first.
+     *
+     * @param type  the class to resolve
+     * @return      the connection capacity found, or the unsupported marker if none
+     */
+    private ConnectionCapacity resolve(Class<?> type) {
+
+        // Class itself, then superclasses from nearest.
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            final ConnectionCapacity capacity = declared.get(current);
+            if (capacity != null) {
+                return capacity;
+            }
+        }
+
+        // Interfaces, nearest first.
+        final Queue<Class<?>> queue = new ArrayDeque<>();
+        final Set<Class<?>> visited = new HashSet<>();
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            for (Class<?> implemented : current.getInterfaces()) {
+                queue.add(implemented);
+            }
+        }
+        while (!queue.isEmpty()) {
+            final Class<?> current = queue.remove();
+            if (visited.add(current)) {
+                final ConnectionCapacity capacity = declared.get(current);
+                if (capacity != null) {
+                    return capacity;
+                }
+                for (Class<?> implemented : current.getInterfaces()) {
+                    queue.add(implemented);
+                }
+            }
+        }
+        return UNSUPPORTED;
+    }
+}
@@ -30,40 +30,69 @@ public class DefaultState extends DesignerState {
     protected void handleMousePressed(MouseEvent e) {
 
         // Linking tag left-clicked, enter linking mode.
-        if (designer.isInLinkingTagBounds(e.getPoint())) {
+        final Point point = designer.viewToModel(e.getPoint());
+        if (designer.isInLinkingTagBounds(point)) {
             if (SwingUtilities.isLeftMouseButton(e)) {
-                designer.setState(new BrickLinkingState(designer));
+                final BrickLinkingState linkingState = designer.getBrickLinkingState();
+                linkingState.setCursorPosition(e.getX(), e.getY());
+                designer.setState(linkingState);
             } else if (SwingUtilities.isRightMouseButton(e)) {
-                designer.setState(new BrickUnlinkingState(designer));
+                final BrickUnlinkingState unlinkingState = designer.getBrickUnlinkingState();
+                unlinkingState.setCursorPosition(e.getX(), e.getY());
+                designer.setState(unlinkingState);
             }
             return;
         }
 
-        final Brick brickClicked = designer.getBrickAt(e.getPoint());
+        final Brick<?> brickClicked = designer.getOrMaterialiseBrickAt(point);
         if (brickClicked != null) {
-            designer.setSelectedBrick(brickClicked); // Brick clicked, select it.
-            designer.setSelectedComponentDragOffset(new Point(e.getX() - brickClicked.getX(),
-                    e.getY() - brickClicked.getY()));
+
+            // Shift-clicking a selected brick deselects it.
+            final boolean wasSelected = designer.isSelected(brickClicked);
+            if (e.isShiftDown() && wasSelected && SwingUtilities.isLeftMouseButton(e)) {
+                designer.removeFromSelection(brickClicked);
+                return;
+            }
+
+            // Brick clicked, select it. Shift-clicking or clicking an already selected brick keeps the rest selected.
+            if (e.isShiftDown() || wasSelected) {
+                designer.addToSelection(brickClicked);
+            } else {
+                designer.setSelectedBrick(brickClicked);
+            }
+            designer.setSelectedComponentDragOffset(new Point(point.x - brickClicked.getX(),
+                    point.y - brickClicked.getY()));
 
             // Which mouse button?
             if (SwingUtilities.isLeftMouseButton(e)) {
 
-                // Left-click enters dragging mode.
-                designer.setState(new BrickDraggingState(designer));
+                // Left-click enters dragging mode, taking the rest of the selection along.
+                final BrickDraggingState draggingState = designer.getBrickDraggingState();
+                draggingState.begin(wasSelected && !e.isShiftDown() && designer.getSelectedBricks().size() > 1);
+                designer.setState(draggingState);
             } else if (SwingUtilities.isRightMouseButton(e) && brickClicked.hasContextMenu()) {
 
                 // Brick right-clicked, show its context menu.
-                designer.setLastMenuClickPosition(e.getPoint());
+                designer.setLastMenuClickPosition(point);
                 brickClicked.getContextMenu().show(e.getComponent(), e.getX(), e.getY());
             }
         } else {
 
-            // Deselect all bricks.
-            designer.clearSelection();
+            // Deselect all bricks, unless extending the selection with a marquee.
+            if (!e.isShiftDown() || !SwingUtilities.isLeftMouseButton(e)) {
+                designer.clearSelection();
+            }
+
+            // Empty space left-clicked, start dragging out a marquee.
+            if (SwingUtilities.isLeftMouseButton(e)) {
+                final MarqueeSelectingState marqueeState = designer.getMarqueeSelectingState();
+                marqueeState.begin(e.getX(), e.getY(), e.isShiftDown());
+                designer.setState(marqueeState);
+            }
 
             // Empty space right-clicked, show context menu for designer.
             if (SwingUtilities.isRightMouseButton(e) && designer.hasEmptySpacePopup()) {
-                designer.setLastMenuClickPosition(e.getPoint());
+                designer.setLastMenuClickPosition(point);
                 designer.getEmptySpacePopup().show(e.getComponent(), e.getX(), e.getY());
             }
         }
@@ -1,19 +1,33 @@
 package com.sauljohnson.bach;
 
+import java.awt.AlphaComposite;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Point;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
 import java.awt.Rectangle;
+import java.awt.Transparency;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
 import javax.swing.JComponent;
 import javax.swing.JPopupMenu;
+import javax.swing.SwingUtilities;
 
 /**
  * A generic drag-and-drop designer.
@@ -28,7 +42,8 @@ public class Designer extends JComponent {
     private final float[] selectionBoundingBoxDash = new float[] {2.0f};
 
     /**
-     * The stroke to use for rendering the selection box around a selected brick.
+     * The stroke to use for rendering the selection box around a selected brick. Java2D allocates afresh to rasterise
+     * every outline drawn with a dashed stroke, which is the only allocation left when painting while dragging.
      */
     private final BasicStroke selectionBoundingBoxStroke = new BasicStroke(1.0f,
             BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND, 10.0f, selectionBoundingBoxDash, 0.0f);
@@ -79,9 +94,14 @@ public class Designer extends JComponent {
     private int linkingTagSize;
 
     /**
-     * The bounding box of the linking tag attached to the selected control.
+     * A reusable rectangle holding the bounding box of the linking tag attached to the selected control.
      */
-    private Rectangle linkingTagBounds;
+    private final Rectangle linkingTagBounds;
+
+    /**
+     * The cached tile holding a single grid cell, or null if it needs rebuilding.
+     */
+    private BufferedImage gridTile;
 
     /**
      * The pop-up menu that appears when some empty space is right-clicked on. 
@@ -94,19 +114,275 @@ public class Designer extends JComponent {
     private boolean showGrid = true;
 
     /**
-     * The list of Brick instances currently on this designer.
+     * The Brick instances currently on this designer, in z-order.
+     */
+    private final BrickRegistry bricks;
+
+    /**
+     * The read-only view of the bricks on this designer returned by {@link #getBricks()}.
+     */
+    private final List<Brick> bricksView;
+
+    /**
+     * The spatial index over the bounds of bricks currently on this designer.
+     */
+    private final QuadTree<Brick<?>> brickIndex;
+
+    /**
+     * A reusable list for collecting candidate bricks during hit-testing.
+     */
+    private final List<Brick<?>> hitTestResults;
+
+    /**
+     * The links between bricks currently on this designer, each stored once regardless of direction.
+     */
+    private final Map<BrickLink, BrickLink> links;
+
+    /**
+     * The spatial index over the bounding boxes of links between bricks currently on this designer.
+     */
+    private final QuadTree<BrickLink> linkIndex;
+
+    /**
+     * A reusable key for looking up links between two bricks.
+     */
+    private final BrickLink linkProbe;
+
+    /**
+     * A reusable rectangle holding the clip region currently being painted.
+     */
+    private final Rectangle clipBounds;
+
+    /**
+     * A reusable rectangle for computing regions of the designer to repaint.
+     */
+    private final Rectangle repaintBounds;
+
+    /**
+     * A reusable rectangle holding the visible region of the designer while painting.
+     */
+    private final Rectangle visibleBounds;
+
+    /**
+     * Whether or not the static scene is cached in a layer so that only the overlay is redrawn on interaction.
+     */
+    private boolean layeredRendering = true;
+
+    /**
+     * The cached layer holding the static scene (background, grid, links and bricks) for the visible region.
+     */
+    private BufferedImage sceneLayer;
+
+    /**
+     * The region of the designer covered by the cached scene layer.
+     */
+    private final Rectangle sceneLayerBounds;
+
+    /**
+     * The region of the cached scene layer that is out of date, or an empty rectangle if none. Guarded by the repaint
+     * lock.
+     */
+    private final Rectangle sceneLayerDirty;
+
+    /**
+     * A reusable rectangle for the regions of the scene layer being re-rendered.
+     */
+    private final Rectangle sceneLayerStrip;
+
+    /**
+     * The lock guarding the regions recorded by {@link #repaint(long, int, int, int, int)}, which like any other
+     * component's may be called from any thread.
+     */
+    private final Object repaintLock = new Object();
+
+    /**
+     * The cache of brick images converted to a format compatible with the screen.
+     */
+    private final BrickImageCache imageCache;
+
+    /**
+     * The renderer that paints the static scene through the current view.
+     */
+    private final SceneRenderer sceneRenderer;
+
+    /**
+     * The scale at which the designer is drawn, where 1.0 is actual size.
+     */
+    private double zoom = 1.0;
+
+    /**
+     * The horizontal offset in pixels of the model origin from the top-left of the designer.
+     */
+    private double panX;
+
+    /**
+     * The vertical offset in pixels of the model origin from the top-left of the designer.
+     */
+    private double panY;
+
+    /**
+     * The zoom level below which bricks are drawn as placeholders and links as hairlines.
+     */
+    private double levelOfDetailThreshold = 0.5;
+
+    /**
+     * The colour of the placeholder rectangles drawn in place of bricks below the level of detail threshold.
+     */
+    private Color lowDetailBrickColor;
+
+
+    /**
+     * The graph store whose nodes are shown beneath the bricks on this designer, or null if there is none.
+     */
+    private GraphStore graphStore;
+
+    /**
+     * The brick most recently selected, which carries the linking tag, or null if none are selected.
+     */
+    private Brick<?> selectedBrick;
+
+    /**
+     * The selected bricks, in the order they were selected.
+     */
+    private final LinkedIdentitySet<Brick<?>> selection;
+
+    /**
+     * The read-only view of the selected bricks.
+     */
+    private final List<Brick<?>> selectionView;
+
+    /**
+     * The selected bricks from bottom-most to top-most while they are being dragged in the overlay, otherwise empty.
+     */
+    private final List<Brick<?>> dragBricks;
+
+    /**
+     * The results of the last query for bricks to select, reused to avoid allocation.
      */
-    private final List<Brick> bricks;
+    private final List<Brick<?>> selectionQueryResults;
 
     /**
-     * The current brick that is selected or null if none are selected.
+     * The region whose selection decorations have changed, in model coordinates, reused to avoid allocation.
      */
-    private Brick selectedBrick;
+    private final Rectangle selectionRepaintBounds;
     
     /**
-     * The list of DesignerEventListeners that are observing this designer.
+     * The dispatcher that delivers events to the DesignerEventListeners observing this designer.
+     */
+    private final DesignerEventDispatcher eventDispatcher;
+
+    /**
+     * The listeners told synchronously of every link made or broken, however it came about.
+     */
+    private final List<DesignerLinkListener> linkListeners;
+
+    /**
+     * The number of batches currently in progress, counting nested ones. Only changed on the event dispatch thread,
+     * while holding the repaint lock.
+     */
+    private int batchDepth;
+
+    /**
+     * The changes made during the batch in progress, or null if there is none.
+     */
+    private DesignerBatch batch;
+
+    /**
+     * The region of the designer to repaint once the batch in progress completes, in view coordinates. Guarded by the
+     * repaint lock.
+     */
+    private final Rectangle batchRepaintBounds;
+
+    /**
+     * The bricks moved since changes were last flushed, in the order they were first moved.
+     */
+    private final List<Brick<?>> movedBricks;
+
+    /**
+     * The region each moved brick occupied before it was first moved, in model coordinates.
+     */
+    private final Map<Brick<?>, Rectangle> movedBrickRegions;
+
+    /**
+     * Rectangles no longer holding the previous region of a moved brick, kept for reuse.
+     */
+    private final List<Rectangle> spareRegions;
+
+    /**
+     * Whether a flush of moved bricks has been scheduled and has not yet run.
+     */
+    private boolean movesFlushScheduled;
+
+    /**
+     * Whether moved bricks are about to be flushed straight away, so that no flush needs scheduling.
+     */
+    private boolean flushingMovesNow;
+
+    /**
+     * The task that flushes moved bricks.
+     */
+    private final Runnable flushMovesTask;
+
+    /**
+     * The bricks moved off the event dispatch thread that are waiting to be indexed by the next flush, which also
+     * serves as the lock for queueing them.
+     */
+    private final LinkedIdentitySet<Brick<?>> queuedMoves;
+
+    /**
+     * Whether a flush has been scheduled for bricks moved off the event dispatch thread. Guarded by the queued moves.
+     */
+    private boolean queuedMovesScheduled;
+
+    /**
+     * The bricks moved off the event dispatch thread being indexed by a flush, reused to avoid allocation.
+     */
+    private final List<Brick<?>> dequeuedMoves;
+
+    /**
+     * The region covered by bricks moved in the overlay since the last flush, reused to avoid allocation.
+     */
+    private final Rectangle movedOverlayBounds;
+
+    /**
+     * The region covered by bricks moved in the static scene since the last flush, reused to avoid allocation.
+     */
+    private final Rectangle movedSceneBounds;
+
+    /**
+     * A reusable array for reading the indexed bounds of a brick.
+     */
+    private final int[] indexedBounds;
+
+    /**
+     * The state the designer is in when it is not being interacted with.
+     */
+    private final DefaultState defaultState;
+
+    /**
+     * The state the designer is in while a brick is being dragged.
+     */
+    private final BrickDraggingState brickDraggingState;
+
+    /**
+     * The state the designer is in while a marquee is being dragged out to select bricks.
+     */
+    private final MarqueeSelectingState marqueeSelectingState;
+
+    /**
+     * The state the designer is in while a brick is being linked to another.
+     */
+    private final BrickLinkingState brickLinkingState;
+
+    /**
+     * The state the designer is in while a brick is being unlinked from another.
+     */
+    private final BrickUnlinkingState brickUnlinkingState;
+
+    /**
+     * The state the designer is in while locked.
      */
-    private final List<DesignerEventListener> designerEventListeners;
+    private final LockedState lockedState;
 
     /**
      * The current state this designer is in.
@@ -123,6 +399,17 @@ public class Designer extends JComponent {
      */
     private Point selectedComponentDragOffset;
 
+    /**
+     * Orders bricks from bottom-most to top-most.
+     */
+    static final Comparator<Brick<?>> Z_ORDER_COMPARATOR = new Comparator<Brick<?>>() {
+        @Override
+        public int compare(Brick<?> o1, Brick<?> o2) {
+            final int result = Integer.compare(o1.zIndex, o2.zIndex);
+            return result != 0 ? result : Long.compare(o1.zSequence, o2.zSequence);
+        }
+    };
+
     /**
      * Creates a new Designer instance for designing and configuring a network of bricks.
      *
@@ -143,16 +430,59 @@ public class Designer extends JComponent {
         brickUnlinkingColor = Color.RED;
         linkingTagBorderColor = Color.BLACK;
         linkingTagBackgroundColor = Color.WHITE;
+        lowDetailBrickColor = Color.GRAY;
 
         // Initialise collections.
-        bricks = new ArrayList<>();
-        designerEventListeners = new ArrayList<>();
+        bricks = new BrickRegistry();
+        bricksView = Collections.<Brick>unmodifiableList(bricks.asList());
+        brickIndex = new QuadTree<>();
+        hitTestResults = new ArrayList<>();
+        links = new HashMap<>();
+        linkIndex = new QuadTree<>();
+        linkProbe = new BrickLink(null, null);
+        clipBounds = new Rectangle();
+        repaintBounds = new Rectangle();
+        visibleBounds = new Rectangle();
+        sceneLayerBounds = new Rectangle();
+        sceneLayerDirty = new Rectangle(0, 0, -1, -1);
+        sceneLayerStrip = new Rectangle();
+        imageCache = new BrickImageCache(BrickImageCache.DEFAULT_CAPACITY);
+        sceneRenderer = new SceneRenderer(this, true);
+        eventDispatcher = new DesignerEventDispatcher();
+        linkListeners = new ArrayList<>();
+        linkingTagBounds = new Rectangle();
+        batchRepaintBounds = new Rectangle(0, 0, -1, -1);
+        movedBricks = new ArrayList<>();
+        movedBrickRegions = new IdentityHashMap<>();
+        spareRegions = new ArrayList<>();
+        queuedMoves = new LinkedIdentitySet<>();
+        dequeuedMoves = new ArrayList<>();
+        movedOverlayBounds = new Rectangle(0, 0, -1, -1);
+        movedSceneBounds = new Rectangle(0, 0, -1, -1);
+        indexedBounds = new int[4];
+        selection = new LinkedIdentitySet<>();
+        selectionView = Collections.unmodifiableList(selection.asList());
+        dragBricks = new ArrayList<>();
+        selectionQueryResults = new ArrayList<>();
+        selectionRepaintBounds = new Rectangle(0, 0, -1, -1);
+        flushMovesTask = new Runnable() {
+            @Override
+            public void run() {
+                flushMoves();
+            }
+        };
 
         // Set empty space popup.
         this.emptySpacePopup = emptySpacePopup;
 
-        // Default state by default.
-        state = new DefaultState(this);
+        // States are reused rather than created on each transition. Default state by default.
+        defaultState = new DefaultState(this);
+        brickDraggingState = new BrickDraggingState(this);
+        marqueeSelectingState = new MarqueeSelectingState(this);
+        brickLinkingState = new BrickLinkingState(this);
+        brickUnlinkingState = new BrickUnlinkingState(this);
+        lockedState = new LockedState(this);
+        state = defaultState;
 
         // Delegate mouse events to state.
         this.addMouseListener(new MouseListener() {
@@ -214,6 +544,7 @@ public class Designer extends JComponent {
     @SuppressWarnings("unused") // API method.
     public void setGridSpacing(int gridSpacing) {
         this.gridSpacing = gridSpacing;
+        gridTile = null;
         repaint();
     }
 
@@ -235,6 +566,8 @@ public class Designer extends JComponent {
     @SuppressWarnings("unused") // API method.
     public void setBackgroundColor(Color backgroundColor) {
         this.backgroundColor = backgroundColor;
+        gridTile = null;
+        repaint();
     }
 
     /**
@@ -255,6 +588,7 @@ public class Designer extends JComponent {
     @SuppressWarnings("unused") // API method.
     public void setGridLineColor(Color gridLineColor) {
         this.gridLineColor = gridLineColor;
+        gridTile = null;
         repaint();
     }
 
@@ -268,6 +602,15 @@ public class Designer extends JComponent {
         return selectionBoundingBoxColor;
     }
 
+    /**
+     * Gets the dashed stroke the selection box that appears around the selected brick is drawn with.
+     *
+     * @return  the stroke
+     */
+    BasicStroke getSelectionBoundingBoxStroke() {
+        return selectionBoundingBoxStroke;
+    }
+
     /**
      * Sets the colour of the selection box that appears around the selected brick.
      *
@@ -276,7 +619,7 @@ public class Designer extends JComponent {
     @SuppressWarnings("unused") // API method.
     public void setSelectionBoundingBoxColor(Color selectionBoundingBoxColor) {
         this.selectionBoundingBoxColor = selectionBoundingBoxColor;
-        repaint();
+        repaintOverlay();
     }
 
     /**
@@ -297,6 +640,7 @@ public class Designer extends JComponent {
     @SuppressWarnings("unused") // API method.
     public void setBrickLinkColor(Color brickLinkColor) {
         this.brickLinkColor = brickLinkColor;
+        repaint();
     }
 
     /**
@@ -362,11 +706,23 @@ public class Designer extends JComponent {
     /**
      * Checks whether or not the given point lies within the linking tag bounding box.
      *
-     * @param point the point to check
+     * @param point the point to check in model coordinates
      * @return  true if the point is inside the bounding box of the linking tag, otherwise false
      */
     boolean isInLinkingTagBounds(Point point) {
-        return linkingTagBounds != null && linkingTagBounds.contains(point);
+        return selectedBrick != null && getLinkingTagBounds(selectedBrick).contains(point);
+    }
+
+    /**
+     * Computes the bounding box of the linking tag attached to a brick into a reusable rectangle.
+     *
+     * @param brick the brick the linking tag is attached to
+     * @return      the bounding box of the linking tag in model coordinates, valid until this method is next called
+     */
+    private Rectangle getLinkingTagBounds(Brick<?> brick) {
+        linkingTagBounds.setBounds(brick.getX() - linkingTagSize - 1, brick.getY() - linkingTagSize - 1,
+                linkingTagSize, linkingTagSize);
+        return linkingTagBounds;
     }
 
     /**
@@ -420,28 +776,86 @@ public class Designer extends JComponent {
     }
 
     /**
-     * Returns the unmodifiable list of Brick objects that visually represent the bricks in the designer.
+     * Returns the unmodifiable list of Brick objects that visually represent the bricks in the designer, ordered from
+     * bottom-most to top-most.
      *
      * @return  the unmodifiable list of Brick objects
      */
-    @SuppressWarnings("unused") // API method.
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
     public List<Brick> getBricks() {
-        return Collections.unmodifiableList(bricks);
+        return bricksView;
+    }
+
+    /**
+     * Gets the same read-only list of bricks as {@link #getBricks()}, typed for walking their connections.
+     *
+     * @return  the read-only list of bricks, ordered from bottom-most to top-most
+     */
+    List<Brick<?>> getBrickList() {
+        return bricks.asList();
     }
 
     /**
      * Adds a brick to the designer.
      *
      * @param brick the brick to add
+     * @throws IllegalArgumentException if the specified brick is already present in a designer
      */
     @SuppressWarnings("unused") // API method.
     public void addBrick(Brick brick) {
+
+        // Check that brick is not already in a designer.
+        if (brick.designer != null) {
+            throw new IllegalArgumentException("Specified brick is already present in a designer so cannot be added.");
+        }
+
+        // Add brick on top of all others.
+        brick.designer = this;
         bricks.add(brick);
-        repaint();
+        brickIndex.insert(brick, brick.getX(), brick.getY(), brick.getWidth(), brick.getHeight());
+
+        // Index any links the brick already has.
+        for (Object connection : brick.getConnections()) {
+            linkAdded(brick, (Brick<?>) connection);
+        }
+        repaintBrick(brick);
 
         // Inform observers of addition event.
-        for (DesignerEventListener currentListener : designerEventListeners) {
-            currentListener.brickAdded(brick);
+        fireBrickAdded(brick);
+    }
+
+    /**
+     * Adds several bricks to the designer as a single batch, repainting once and informing batch listeners once. No
+     * bricks are added if any cannot be.
+     *
+     * @param bricksToAdd   the bricks to add, which are placed on top of one another in the order given
+     * @throws IllegalArgumentException if any of the specified bricks is null, is already present in a designer or is
+     *                                  given more than once
+     */
+    @SuppressWarnings("unused") // API method.
+    public void addBricks(Collection<? extends Brick> bricksToAdd) {
+
+        // Check everything before changing anything.
+        final Set<Brick<?>> seen = Collections.newSetFromMap(new IdentityHashMap<Brick<?>, Boolean>());
+        for (Brick<?> brick : bricksToAdd) {
+            if (brick == null) {
+                throw new IllegalArgumentException("Bricks to add cannot include null.");
+            }
+            if (brick.designer != null) {
+                throw new IllegalArgumentException("Specified brick is already present in a designer so cannot be "
+                        + "added.");
+            }
+            if (!seen.add(brick)) {
+                throw new IllegalArgumentException("Specified brick is given more than once so cannot be added.");
+            }
+        }
+        beginBatch();
+        try {
+            for (Brick<?> brick : bricksToAdd) {
+                addBrick(brick);
+            }
+        } finally {
+            endBatch();
         }
     }
 
@@ -455,135 +869,1336 @@ public class Designer extends JComponent {
     public void removeBrick(Brick brick) {
 
         // Check that brick is in the designer.
-        if (!bricks.contains(brick)) {
-            throw new IllegalArgumentException("Specified brick is not present in the designer so cannot be removed.");
-        }
+        checkContains(brick, "removed");
+
+        // Invalidate region occupied by brick and its links before they disappear.
+        repaintBrick(brick);
 
         // Remove all connections from brick and delete from designer.
         brick.removeAllConnections();
         bricks.remove(brick);
+        brickIndex.remove(brick);
+        brick.designer = null;
 
-        // Clear selection if the selected brick is being deleted.
-        if (selectedBrick == brick) {
-            clearSelection();
+        // A brick materialised from a graph store takes its node with it.
+        if (brick.graphStore != null) {
+            brick.graphStore.brickRemoved(brick);
         }
 
-        // Repaint control.
-        repaint();
+        // Deselect the brick if it is being deleted.
+        if (selection.contains(brick)) {
+            removeFromSelection(brick);
+        }
 
         // Inform observers of deletion event.
-        for (DesignerEventListener currentListener : designerEventListeners) {
-            currentListener.brickRemoved(brick);
-        }
+        fireBrickRemoved(brick);
     }
 
     /**
-     * Gets the current brick that is selected or null if none are selected.
+     * Removes several bricks from the designer as a single batch, repainting once and informing batch listeners once.
+     * No bricks are removed if any cannot be.
      *
-     * @return  the selected brick or null if none are selected
+     * @param bricksToRemove    the bricks to remove
+     * @throws IllegalArgumentException if any of the specified bricks is not present in the designer or is given more
+     *                                  than once
      */
-    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
-    public Brick getSelectedBrick() {
-        return selectedBrick;
+    @SuppressWarnings("unused") // API method.
+    public void removeBricks(Collection<? extends Brick> bricksToRemove) {
+
+        // Check everything before changing anything.
+        final Set<Brick<?>> seen = Collections.newSetFromMap(new IdentityHashMap<Brick<?>, Boolean>());
+        for (Brick<?> brick : bricksToRemove) {
+            checkContains(brick, "removed");
+            if (!seen.add(brick)) {
+                throw new IllegalArgumentException("Specified brick is given more than once so cannot be removed.");
+            }
+        }
+        beginBatch();
+        try {
+            for (Brick<?> brick : bricksToRemove) {
+                removeBrick(brick);
+            }
+        } finally {
+            endBatch();
+        }
     }
 
     /**
-     * Removes the currently selected brick if one is selected.
+     * Links a brick to each of several others as a single batch, repainting once and informing batch listeners once.
+     * No links are made if any cannot be.
+     *
+     * @param brick     the brick to link from
+     * @param others    the bricks to link to
+     * @throws IllegalArgumentException if any of the specified bricks is not present in the designer, or any of the
+     *                                  links is not permitted or already exists
      */
     @SuppressWarnings("unused") // API method.
-    public void removeSelectedBrickIfAny() {
+    public void connectAll(Brick<?> brick, Collection<? extends Brick> others) {
+        checkContains(brick, "linked");
+        for (Brick<?> other : others) {
+            checkContains(other, "linked");
+        }
+        beginBatch();
+        try {
+
+            // Capacities are checked as each link is made, so undo those already made if one is refused.
+            int linked = 0;
+            try {
+                for (Brick<?> other : others) {
+                    brick.addConnection(other);
+                    linked++;
+                }
+            } catch (IllegalArgumentException e) {
+                for (Brick<?> other : others) {
+                    if (linked-- == 0) {
+                        break;
+                    }
+                    brick.removeConnection(other);
+                }
+                throw e;
+            }
 
-        // Remove selected brick if there is one.
-        if (selectedBrick != null) {
-            removeBrick(selectedBrick);
+            // Links all run from the brick, so its region covers them. Inform observers only once all are in place.
+            repaintBrick(brick);
+            for (Brick<?> other : others) {
+                fireLinkCreated(brick, other);
+            }
+        } finally {
+            endBatch();
         }
     }
 
     /**
-     * Sets the current brick that is selected.
+     * Runs a set of operations on the designer as a single batch. The designer is repainted once when the batch
+     * completes rather than after each change, and each {@link DesignerBatchListener} is told about all bricks and
+     * links added and removed at once. Batches may be nested, in which case they complete with the outermost one.
      *
-     * @param selectedBrick the brick
-     * @throws IllegalArgumentException if the specified brick is not present in the designer
+     * @param operations    the operations to run
+     * @throws IllegalArgumentException if the operations are null
      */
-    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
-    public void setSelectedBrick(Brick selectedBrick) {
-
-        // Check that brick is in the designer.
-        if (!bricks.contains(selectedBrick)) {
-            throw new IllegalArgumentException("Specified brick is not present in the designer so cannot be selected.");
+    @SuppressWarnings("unused") // API method.
+    public void batch(Runnable operations) {
+        if (operations == null) {
+            throw new IllegalArgumentException("Batch operations must not be null.");
         }
-
-        // Select brick.
-        this.selectedBrick = selectedBrick;
-        repaint();
-
-        // Inform observers of selection event.
-        for (DesignerEventListener currentListener : designerEventListeners) {
-            currentListener.brickSelected(selectedBrick);
+        beginBatch();
+        try {
+            operations.run();
+        } finally {
+            endBatch();
         }
     }
 
     /**
-     * Clears the current selected brick so that nothing is selected.
+     * Starts a batch, or a nested batch if one is already in progress.
      */
-    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
-    public void clearSelection() {
-
-        // Deselect selected brick.
-        selectedBrick = null;
-        repaint();
-
-        // Inform observers of selection clear event.
-        for (DesignerEventListener currentListener : designerEventListeners) {
-            currentListener.selectionCleared();
+    private void beginBatch() {
+        if (batchDepth == 0) {
+            batch = new DesignerBatch();
+        }
+        synchronized (repaintLock) {
+            batchDepth++;
         }
     }
 
     /**
-     * Returns the top-most brick (if any) at a particular position.
-     *
-     * @param point the position to check
-     * @return      the brick at a that position or null if there is no brick at that position
+     * Ends a batch, and if it is the outermost one repaints the region changed during it and informs batch listeners.
      */
-    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
-    public Brick getBrickAt(Point point) {
-
-        // Start at the end of the array since the bricks at the end will be the ones that are rendered last (on top).
-        for (int i = (bricks.size() - 1); i >= 0; i--) {
-            if (bricks.get(i).getBounds().contains(point)) {
-                return bricks.get(i);
+    private void endBatch() {
+        final int x;
+        final int y;
+        final int width;
+        final int height;
+        synchronized (repaintLock) {
+            if (--batchDepth > 0) {
+                return;
             }
+            x = batchRepaintBounds.x;
+            y = batchRepaintBounds.y;
+            width = batchRepaintBounds.width;
+            height = batchRepaintBounds.height;
+            batchRepaintBounds.setBounds(0, 0, -1, -1);
+        }
+        final DesignerBatch completed = batch;
+        batch = null;
+        if (width > 0 && height > 0) {
+            super.repaint(0, x, y, width, height);
+        }
+
+        // Inform batch-aware observers of everything at once.
+        if (!completed.isEmpty()) {
+            eventDispatcher.batchCompleted(completed);
         }
-        return null;
     }
 
     /**
-     * Gets all currently registered designer event listeners.
+     * Informs observers that a brick has been added, deferring the event for batch listeners if a batch is in
+     * progress.
      *
-     * @return  an unmodifiable list of designer event listeners
+     * @param brick the brick added
      */
-    List<DesignerEventListener> getDesignerEventListeners() {
-        return Collections.unmodifiableList(designerEventListeners);
+    private void fireBrickAdded(Brick<?> brick) {
+        eventDispatcher.brickAdded(brick, batch != null);
+        if (batch != null) {
+            batch.brickAdded(brick);
+        }
     }
 
     /**
-     * Registers a listener class to the designer, which receives all design events triggered by the user.
+     * Informs observers that a brick has been removed, deferring the event for batch listeners if a batch is in
+     * progress.
      *
-     * @param listener  the listener to add
+     * @param brick the brick removed
      */
-    @SuppressWarnings("unused") // API method.
-    public void registerDesignerEventListener(DesignerEventListener listener) {
-        designerEventListeners.add(listener);
+    private void fireBrickRemoved(Brick<?> brick) {
+        eventDispatcher.brickRemoved(brick, batch != null);
+        if (batch != null) {
+            batch.brickRemoved(brick);
+        }
     }
 
     /**
-     * Unregisters a listener class from the designer.
+     * Informs observers that two bricks have been linked, deferring the event for batch listeners if a batch is in
+     * progress.
+     *
+     * @param first     the first brick
+     * @param second    the second brick
+     */
+    void fireLinkCreated(Brick<?> first, Brick<?> second) {
+        eventDispatcher.linkCreated(first, second, batch != null);
+        if (batch != null) {
+            batch.linkCreated(first, second);
+        }
+    }
+
+    /**
+     * Informs observers that two bricks could not be linked.
+     *
+     * @param first     the first brick
+     * @param second    the second brick
+     */
+    void fireLinkRefused(Brick<?> first, Brick<?> second) {
+        eventDispatcher.linkRefused(first, second);
+    }
+
+    /**
+     * Informs observers that a brick has been moved. If events are delivered asynchronously, successive moves of the
+     * same brick that have not yet been delivered are merged into one.
+     *
+     * @param brick the brick moved
+     * @param x     the new x-coordinate of the brick
+     * @param y     the new y-coordinate of the brick
+     */
+    void fireBrickMoved(Brick<?> brick, int x, int y) {
+        eventDispatcher.brickMoved(brick, x, y);
+    }
+
+    /**
+     * Informs observers that two bricks have been unlinked, deferring the event for batch listeners if a batch is in
+     * progress.
+     *
+     * @param first     the first brick
+     * @param second    the second brick
+     */
+    void fireLinkDeleted(Brick<?> first, Brick<?> second) {
+        eventDispatcher.linkDeleted(first, second, batch != null);
+        if (batch != null) {
+            batch.linkDeleted(first, second);
+        }
+    }
+
+    /**
+     * Brings a brick in front of all others on the designer. It takes on the z-index of the brick that was previously
+     * top-most.
+     *
+     * @param brick the brick to bring to the front
+     * @throws IllegalArgumentException if the specified brick is not present in the designer
+     */
+    @SuppressWarnings("unused") // API method.
+    public void bringToFront(Brick<?> brick) {
+        checkContains(brick, "reordered");
+        if (bricks.bringToFront(brick)) {
+            repaintZOrderChange(brick);
+        }
+    }
+
+    /**
+     * Sends a brick behind all others on the designer. It takes on the z-index of the brick that was previously
+     * bottom-most.
+     *
+     * @param brick the brick to send to the back
+     * @throws IllegalArgumentException if the specified brick is not present in the designer
+     */
+    @SuppressWarnings("unused") // API method.
+    public void sendToBack(Brick<?> brick) {
+        checkContains(brick, "reordered");
+        if (bricks.sendToBack(brick)) {
+            repaintZOrderChange(brick);
+        }
+    }
+
+    /**
+     * Gets the z-index of a brick on the designer. Bricks with higher z-indices are drawn on top of those with lower
+     * ones, and bricks with the same z-index are drawn in the order they were added or given that z-index.
+     *
+     * @param brick the brick to get the z-index of
+     * @return      the z-index of the brick
+     * @throws IllegalArgumentException if the specified brick is not present in the designer
+     */
+    @SuppressWarnings("unused") // API method.
+    public int getZIndex(Brick<?> brick) {
+        checkContains(brick, "queried");
+        return brick.zIndex;
+    }
+
+    /**
+     * Sets the z-index of a brick on the designer, placing it on top of any other bricks with the same z-index. Bricks
+     * with higher z-indices are drawn on top of those with lower ones.
+     *
+     * @param brick     the brick to set the z-index of
+     * @param zIndex    the new z-index
+     * @throws IllegalArgumentException if the specified brick is not present in the designer
+     */
+    @SuppressWarnings("unused") // API method.
+    public void setZIndex(Brick<?> brick, int zIndex) {
+        checkContains(brick, "reordered");
+        bricks.setZIndex(brick, zIndex);
+        repaintZOrderChange(brick);
+    }
+
+    /**
+     * Gets the amount to add to the saved z-indices of bricks being imported so that they stack on top of every brick
+     * already on the designer, in the same order among themselves.
+     *
+     * @param lowest    the lowest saved z-index of the bricks being imported
+     * @param highest   the highest saved z-index of the bricks being imported
+     * @return          the amount to add, which is zero if there are no bricks on the designer
+     * @throws IllegalArgumentException if the offset z-indices would be too large
+     */
+    int getImportZOffset(int lowest, int highest) {
+        final Brick<?> topMost = bricks.getTopMost();
+        if (topMost == null) {
+            return 0;
+        }
+        final long offset = (long) topMost.zIndex - lowest;
+        if (highest + offset > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Imported bricks cannot be stacked on top of those on the designer.");
+        }
+        return (int) offset;
+    }
+
+    /**
+     * Throws an exception if a brick is not present in the designer.
+     *
+     * @param brick     the brick to check
+     * @param action    the past participle of the action being attempted, for the exception message
+     * @throws IllegalArgumentException if the specified brick is not present in the designer
+     */
+    private void checkContains(Brick<?> brick, String action) {
+        if (!bricks.contains(brick)) {
+            throw new IllegalArgumentException("Specified brick is not present in the designer so cannot be "
+                    + action + ".");
+        }
+    }
+
+    /**
+     * Repaints the region affected by a brick moving within the z-order, which is just the area it covers since links
+     * are always drawn beneath bricks.
+     *
+     * @param brick the brick that has moved within the z-order
+     */
+    private void repaintZOrderChange(Brick<?> brick) {
+        repaintBounds.setBounds(brick.getX(), brick.getY(), brick.getWidth(), brick.getHeight());
+        repaint(sceneRenderer.modelToView(repaintBounds));
+    }
+
+    /**
+     * Gets the brick most recently selected, which carries the linking tag, or null if none are selected.
+     *
+     * @return  the selected brick or null if none are selected
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public Brick getSelectedBrick() {
+        return selectedBrick;
+    }
+
+    /**
+     * Gets the selected bricks, in the order they were selected.
+     *
+     * @return  an unmodifiable list of the selected bricks, which reflects later changes to the selection
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public List<Brick<?>> getSelectedBricks() {
+        return selectionView;
+    }
+
+    /**
+     * Returns true if a brick is selected, otherwise returns false.
+     *
+     * @param brick the brick to check
+     * @return      true if the brick is selected, otherwise false
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public boolean isSelected(Brick<?> brick) {
+        return selection.contains(brick);
+    }
+
+    /**
+     * Computes the smallest rectangle containing every selected brick, in model coordinates.
+     *
+     * @param rv    the rectangle to write the bounds into
+     * @return      the rectangle given, containing the bounds, or empty if no bricks are selected
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public Rectangle getSelectionBounds(Rectangle rv) {
+        rv.setBounds(0, 0, -1, -1);
+        for (LinkedIdentitySet.Node<Brick<?>> node = selection.getHead(); node != null; node = node.getNext()) {
+            final Brick<?> brick = node.getItem();
+            rv.add(brick.getBounds(repaintBounds));
+        }
+        return rv;
+    }
+
+    /**
+     * Removes the currently selected bricks, if any, as a single batch.
+     */
+    @SuppressWarnings("unused") // API method.
+    public void removeSelectedBrickIfAny() {
+
+        // Remove selected bricks if there are any.
+        if (selection.size() == 1) {
+            removeBrick(selectedBrick);
+        } else if (!selection.isEmpty()) {
+            removeBricks(new ArrayList<>(selection));
+        }
+    }
+
+    /**
+     * Sets the current brick that is selected, deselecting any others.
+     *
+     * @param selectedBrick the brick
+     * @throws IllegalArgumentException if the specified brick is not present in the designer
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public void setSelectedBrick(Brick selectedBrick) {
+
+        // Check that brick is in the designer.
+        checkContains(selectedBrick, "selected");
+        endDrag();
+
+        // Select brick alone, moving selection decorations.
+        addSelectionToRepaint();
+        selection.clear();
+        selection.add(selectedBrick);
+        this.selectedBrick = selectedBrick;
+        selectionRepaintBounds.add(getBrickRepaintBounds(selectedBrick, repaintBounds));
+        repaintSelectionDecorations();
+
+        // Inform observers of selection event.
+        eventDispatcher.brickSelected(selectedBrick);
+    }
+
+    /**
+     * Adds a brick to the selection, keeping any others selected. The brick takes the linking tag, even if it was
+     * already selected.
+     *
+     * @param brick the brick
+     * @throws IllegalArgumentException if the specified brick is not present in the designer
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public void addToSelection(Brick<?> brick) {
+
+        // Check that brick is in the designer.
+        checkContains(brick, "selected");
+        endDrag();
+
+        // Brick becomes the most recently selected, moving the linking tag from the previous one.
+        if (selectedBrick != null) {
+            selectionRepaintBounds.add(getBrickRepaintBounds(selectedBrick, repaintBounds));
+        }
+        selection.remove(brick);
+        selection.add(brick);
+        selectedBrick = brick;
+        selectionRepaintBounds.add(getBrickRepaintBounds(brick, repaintBounds));
+        repaintSelectionDecorations();
+
+        // Inform observers of selection event.
+        eventDispatcher.brickSelected(brick);
+    }
+
+    /**
+     * Removes a brick from the selection, if selected. If it carried the linking tag, the tag passes to the brick
+     * selected most recently before it.
+     *
+     * @param brick the brick
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public void removeFromSelection(Brick<?> brick) {
+        if (!selection.contains(brick)) {
+            return;
+        }
+        endDrag();
+
+        // Deselect brick, moving the linking tag if need be.
+        selection.remove(brick);
+        selectionRepaintBounds.add(getBrickRepaintBounds(brick, repaintBounds));
+        if (selectedBrick == brick) {
+            selectedBrick = selection.isEmpty() ? null : selection.getLast();
+            if (selectedBrick != null) {
+                selectionRepaintBounds.add(getBrickRepaintBounds(selectedBrick, repaintBounds));
+            }
+        }
+        repaintSelectionDecorations();
+
+        // Inform observers if nothing is left selected.
+        if (selection.isEmpty()) {
+            eventDispatcher.selectionCleared();
+        }
+    }
+
+    /**
+     * Selects every brick lying wholly inside an area, found with a single query on the spatial index. The top-most
+     * brick newly selected takes the linking tag, and observers are informed of each newly selected brick from
+     * bottom-most to top-most.
+     *
+     * @param area      the area in model coordinates
+     * @param extend    true to add the bricks to the existing selection, false to replace it
+     * @throws IllegalArgumentException if the area is null
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public void selectBricksIn(Rectangle area, boolean extend) {
+        if (area == null) {
+            throw new IllegalArgumentException("Area to select bricks in cannot be null.");
+        }
+        endDrag();
+
+        // Replace selection unless extending it.
+        if (!extend) {
+            addSelectionToRepaint();
+            selection.clear();
+            selectedBrick = null;
+        }
+
+        // Select bricks inside the area, keeping those newly selected at the front of the results.
+        brickIndex.query(area.x, area.y, area.width, area.height, selectionQueryResults);
+        Collections.sort(selectionQueryResults, Z_ORDER_COMPARATOR);
+        int selected = 0;
+        for (int i = 0; i < selectionQueryResults.size(); i++) {
+            final Brick<?> brick = selectionQueryResults.get(i);
+            if (area.contains(brick.getX(), brick.getY(), brick.getWidth(), brick.getHeight())
+                    && selection.add(brick)) {
+                selectionRepaintBounds.add(getBrickRepaintBounds(brick, repaintBounds));
+                selectionQueryResults.set(selected++, brick);
+            }
+        }
+
+        // Linking tag moves to the top-most brick newly selected.
+        if (selected > 0) {
+            if (selectedBrick != null) {
+                selectionRepaintBounds.add(getBrickRepaintBounds(selectedBrick, repaintBounds));
+            }
+            selectedBrick = selectionQueryResults.get(selected - 1);
+        }
+        repaintSelectionDecorations();
+
+        // Inform observers once the selection is complete.
+        for (int i = 0; i < selected; i++) {
+            eventDispatcher.brickSelected(selectionQueryResults.get(i));
+        }
+        selectionQueryResults.clear();
+        if (selection.isEmpty() && !extend) {
+            eventDispatcher.selectionCleared();
+        }
+    }
+
+    /**
+     * Clears the selection so that nothing is selected.
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public void clearSelection() {
+        endDrag();
+
+        // Deselect selected bricks.
+        addSelectionToRepaint();
+        selection.clear();
+        selectedBrick = null;
+        repaintSelectionDecorations();
+
+        // Inform observers of selection clear event.
+        eventDispatcher.selectionCleared();
+    }
+
+    /**
+     * Moves every selected brick by the same offset in a single pass. Their old and new regions are repainted together
+     * and observers informed once per pass of the event queue. A {@link DesignerMoveListener} hears about every moved
+     * brick in a single event, but any other listener still receives one brickMoved event per brick.
+     *
+     * @param dx    the distance to move in the x-direction in pixels
+     * @param dy    the distance to move in the y-direction in pixels
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public void moveSelectedBricks(int dx, int dy) {
+        for (LinkedIdentitySet.Node<Brick<?>> node = selection.getHead(); node != null; node = node.getNext()) {
+            final Brick<?> brick = node.getItem();
+            brick.setLocation(brick.getX() + dx, brick.getY() + dy);
+        }
+    }
+
+    /**
+     * Moves every selected brick by the same offset while they are being dragged, then repaints them and informs
+     * observers straight away. Each drag event has a pass of the event queue to itself, so this is no more often than
+     * a scheduled flush, and saves posting a task to the queue every frame.
+     *
+     * Only listeners that implement {@link DesignerMoveListener} are told about the whole group in one event. Every
+     * other {@link DesignerEventListener} still receives one
+     * {@link DesignerEventListener#brickMoved(Brick, Point) brickMoved} event per selected brick for each drag event,
+     * so dragging a large selection costs such listeners as many events per frame as there are bricks selected.
+     *
+     * @param dx    the distance to move in the x-direction in pixels
+     * @param dy    the distance to move in the y-direction in pixels
+     */
+    void dragSelectedBricks(int dx, int dy) {
+        flushingMovesNow = true;
+        try {
+            moveSelectedBricks(dx, dy);
+        } finally {
+            flushingMovesNow = false;
+        }
+        flushMoves();
+    }
+
+    /**
+     * Adds the regions of every selected brick to the region whose selection decorations have changed.
+     */
+    private void addSelectionToRepaint() {
+        for (LinkedIdentitySet.Node<Brick<?>> node = selection.getHead(); node != null; node = node.getNext()) {
+            selectionRepaintBounds.add(getBrickRepaintBounds(node.getItem(), repaintBounds));
+        }
+    }
+
+    /**
+     * Repaints the region whose selection decorations have changed in one go, then resets it.
+     */
+    private void repaintSelectionDecorations() {
+        if (!selectionRepaintBounds.isEmpty()) {
+            repaintOverlay(selectionRepaintBounds);
+        }
+        selectionRepaintBounds.setBounds(0, 0, -1, -1);
+    }
+
+    /**
+     * Stops dragging the selected bricks if they are being dragged, as the selection is about to change.
+     */
+    private void endDrag() {
+        if (state == brickDraggingState) {
+            setState(defaultState);
+        }
+    }
+
+    /**
+     * Gets the graph store whose nodes are shown beneath the bricks on this designer.
+     *
+     * @return  the graph store, or null if there is none
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public GraphStore getGraphStore() {
+        return graphStore;
+    }
+
+    /**
+     * Sets the graph store whose nodes are shown beneath the bricks on this designer. Bricks already materialised
+     * from a previous store remain on the designer.
+     *
+     * @param graphStore    the graph store, or null for none
+     * @throws IllegalArgumentException if the graph store is already attached to another designer
+     */
+    @SuppressWarnings("unused") // API method.
+    public void setGraphStore(GraphStore graphStore) {
+        if (graphStore != null && graphStore.designer != null && graphStore.designer != this) {
+            throw new IllegalArgumentException("Specified graph store is already attached to another designer.");
+        }
+        if (this.graphStore != null) {
+            this.graphStore.designer = null;
+        }
+        this.graphStore = graphStore;
+        if (graphStore != null) {
+            graphStore.designer = this;
+        }
+        repaint();
+    }
+
+    /**
+     * Returns the top-most brick (if any) at a particular position. Nodes of the graph store that have not been
+     * materialised are not bricks, so are never returned; see {@link #getOrMaterialiseBrickAt(Point)}.
+     *
+     * @param point the position to check in model coordinates
+     * @return      the brick at a that position or null if there is no brick at that position
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public Brick getBrickAt(Point point) {
+
+        // Of all bricks under the point, the one with the highest z-order is rendered last (on top).
+        Brick<?> topMost = null;
+        brickIndex.queryPoint(point.x, point.y, hitTestResults);
+        for (int i = 0; i < hitTestResults.size(); i++) {
+            final Brick<?> candidate = hitTestResults.get(i);
+            if (topMost == null || Z_ORDER_COMPARATOR.compare(candidate, topMost) > 0) {
+                topMost = candidate;
+            }
+        }
+        hitTestResults.clear();
+        return topMost;
+    }
+
+    /**
+     * Returns the top-most brick (if any) at a particular position. If there is no brick there but there is a node of
+     * the graph store, the node is materialised into a brick, which is added to the designer and returned.
+     *
+     * @param point the position to check in model coordinates
+     * @return      the brick at that position or null if there is neither a brick nor a node at that position
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public Brick<?> getOrMaterialiseBrickAt(Point point) {
+        final Brick<?> brick = getBrickAt(point);
+        if (brick != null || graphStore == null) {
+            return brick;
+        }
+
+        // Graph store nodes lie beneath all bricks.
+        final int node = graphStore.getNodeAt(point.x, point.y);
+        return node >= 0 ? graphStore.materialise(node) : null;
+    }
+
+    /**
+     * Returns all bricks whose bounds intersect a particular area, ordered from bottom-most to top-most.
+     *
+     * @param area  the area to check
+     * @return      the list of bricks intersecting that area
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method.
+    public List<Brick<?>> getBricksIn(Rectangle area) {
+        final List<Brick<?>> results = new ArrayList<>();
+        brickIndex.query(area.x, area.y, area.width, area.height, results);
+        Collections.sort(results, Z_ORDER_COMPARATOR);
+        return results;
+    }
+
+    /**
+     * Repaints only the region of the designer occupied by a brick, its links and its selection decorations.
+     *
+     * Call this both before and after changing the appearance or position of a brick to invalidate its old and new
+     * regions, which are coalesced into a single repaint.
+     *
+     * @param brick the brick to repaint
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public void repaintBrick(Brick<?> brick) {
+        repaint(sceneRenderer.modelToView(getBrickRepaintBounds(brick, repaintBounds)));
+    }
+
+    /**
+     * Computes the region of the designer occupied by a brick, its links and its selection decorations, in model
+     * coordinates.
+     *
+     * @param brick the brick to compute the region for
+     * @param rv    the rectangle to write the region into
+     * @return      the rectangle given, containing the region
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public Rectangle getBrickRepaintBounds(Brick<?> brick, Rectangle rv) {
+        return getBrickRepaintBounds(brick, brick.getX(), brick.getY(), brick.getWidth(), brick.getHeight(), rv);
+    }
+
+    /**
+     * Computes the region of the designer that would be occupied by a brick, its links and its selection decorations
+     * if it had the given bounds, in model coordinates.
+     *
+     * @param brick     the brick to compute the region for
+     * @param x         the x-coordinate of the brick
+     * @param y         the y-coordinate of the brick
+     * @param width     the width of the brick
+     * @param height    the height of the brick
+     * @param rv        the rectangle to write the region into
+     * @return          the rectangle given, containing the region
+     */
+    private Rectangle getBrickRepaintBounds(Brick<?> brick, int x, int y, int width, int height, Rectangle rv) {
+
+        // Brick itself plus linking tag (top-left) and selection box.
+        final int decorationSize = linkingTagSize + 2;
+        rv.setBounds(x - decorationSize, y - decorationSize, width + decorationSize + 2,
+                height + decorationSize + 2);
+
+        // Links run from the centre of this brick (already covered) to the centre of each connected brick.
+        for (LinkedIdentitySet.Node<Brick<?>> node = brick.getFirstConnection(); node != null; node = node.getNext()) {
+            rv.add(node.getItem().getCenterX(), node.getItem().getCenterY());
+        }
+        if (brick.graphStore != null) {
+            brick.graphStore.addConnectionCentres(brick.graphStoreNode, rv);
+        }
+        rv.grow(1, 1);
+        return rv;
+    }
+
+    /**
+     * Gets the scale at which the designer is drawn, where 1.0 is actual size.
+     *
+     * @return  the scale
+     */
+    @SuppressWarnings("unused") // API method.
+    public double getZoom() {
+        return zoom;
+    }
+
+    /**
+     * Sets the scale at which the designer is drawn, where 1.0 is actual size. The pan offset is left unchanged.
+     *
+     * @param zoom  the scale
+     * @throws IllegalArgumentException if the scale is not a positive number
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public void setZoom(double zoom) {
+        if (!(zoom > 0) || Double.isInfinite(zoom)) {
+            throw new IllegalArgumentException("Zoom must be a positive number.");
+        }
+        this.zoom = zoom;
+        sceneRenderer.setView(zoom, panX, panY);
+        repaint();
+    }
+
+    /**
+     * Sets the scale at which the designer is drawn while keeping the same point in the model under the given point
+     * in the view, as when zooming with the mouse wheel.
+     *
+     * @param zoom      the scale
+     * @param viewPoint the point in the view to zoom around
+     * @throws IllegalArgumentException if the scale is not a positive number
+     */
+    @SuppressWarnings("unused") // API method.
+    public void zoomAt(double zoom, Point viewPoint) {
+        final double modelX = (viewPoint.x - panX) / this.zoom;
+        final double modelY = (viewPoint.y - panY) / this.zoom;
+        setZoom(zoom);
+        setPan(viewPoint.x - modelX * zoom, viewPoint.y - modelY * zoom);
+    }
+
+    /**
+     * Gets the horizontal offset in pixels of the model origin from the top-left of the designer.
+     *
+     * @return  the horizontal offset
+     */
+    @SuppressWarnings("unused") // API method.
+    public double getPanX() {
+        return panX;
+    }
+
+    /**
+     * Gets the vertical offset in pixels of the model origin from the top-left of the designer.
+     *
+     * @return  the vertical offset
+     */
+    @SuppressWarnings("unused") // API method.
+    public double getPanY() {
+        return panY;
+    }
+
+    /**
+     * Sets the offset in pixels of the model origin from the top-left of the designer.
+     *
+     * @param panX  the horizontal offset
+     * @param panY  the vertical offset
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public void setPan(double panX, double panY) {
+        this.panX = panX;
+        this.panY = panY;
+        sceneRenderer.setView(zoom, panX, panY);
+        repaint();
+    }
+
+    /**
+     * Gets the transform from model coordinates (those of bricks) to view coordinates (those of the component).
+     *
+     * @return  the transform
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public AffineTransform getViewTransform() {
+        return sceneRenderer.getViewTransform();
+    }
+
+    /**
+     * Converts a point in view coordinates (such as those of a mouse event) to model coordinates.
+     *
+     * @param viewPoint the point in view coordinates
+     * @return          the point in model coordinates
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public Point viewToModel(Point viewPoint) {
+        return new Point(viewToModelX(viewPoint.x), viewToModelY(viewPoint.y));
+    }
+
+    /**
+     * Converts a point in model coordinates (such as the position of a brick) to view coordinates.
+     *
+     * @param modelPoint    the point in model coordinates
+     * @return              the point in view coordinates
+     */
+    @SuppressWarnings("unused") // API method.
+    public Point modelToView(Point modelPoint) {
+        return new Point((int) Math.floor(modelPoint.x * zoom + panX), (int) Math.floor(modelPoint.y * zoom + panY));
+    }
+
+    /**
+     * Gets the zoom level below which bricks are drawn as placeholders and links as hairlines.
+     *
+     * @return  the zoom level
+     */
+    @SuppressWarnings("unused") // API method.
+    public double getLevelOfDetailThreshold() {
+        return levelOfDetailThreshold;
+    }
+
+    /**
+     * Sets the zoom level below which bricks are drawn as placeholders and links as hairlines.
+     *
+     * @param levelOfDetailThreshold    the zoom level
+     */
+    @SuppressWarnings("unused") // API method.
+    public void setLevelOfDetailThreshold(double levelOfDetailThreshold) {
+        this.levelOfDetailThreshold = levelOfDetailThreshold;
+        repaint();
+    }
+
+    /**
+     * Gets the colour of the placeholder rectangles drawn in place of bricks below the level of detail threshold, or
+     * whose images are not available yet.
+     *
+     * @return  the colour
+     */
+    @SuppressWarnings("unused") // API method.
+    public Color getLowDetailBrickColor() {
+        return lowDetailBrickColor;
+    }
+
+    /**
+     * Sets the colour of the placeholder rectangles drawn in place of bricks below the level of detail threshold, or
+     * whose images are not available yet.
+     *
+     * @param lowDetailBrickColor   the colour
+     */
+    @SuppressWarnings("unused") // API method.
+    public void setLowDetailBrickColor(Color lowDetailBrickColor) {
+        this.lowDetailBrickColor = lowDetailBrickColor;
+        repaint();
+    }
+
+    /**
+     * Gets whether or not the static scene is cached in a layer so that only the overlay (the brick being dragged,
+     * the linking line and selection decorations) is redrawn while interacting with the designer.
+     *
+     * @return  true if layered rendering is enabled, otherwise false
+     */
+    @SuppressWarnings("unused") // API method.
+    public boolean isLayeredRendering() {
+        return layeredRendering;
+    }
+
+    /**
+     * Sets whether or not the static scene is cached in a layer so that only the overlay (the brick being dragged,
+     * the linking line and selection decorations) is redrawn while interacting with the designer.
+     *
+     * @param layeredRendering  true to enable layered rendering, false to disable
+     */
+    @SuppressWarnings("unused") // API method.
+    public void setLayeredRendering(boolean layeredRendering) {
+        this.layeredRendering = layeredRendering;
+        sceneLayer = null;
+        repaint();
+    }
+
+    /**
+     * Gets the maximum number of distinct brick images kept converted to a screen-compatible format.
+     *
+     * @return  the maximum number of images
+     */
+    @SuppressWarnings("unused") // API method.
+    public int getImageCacheCapacity() {
+        return imageCache.getCapacity();
+    }
+
+    /**
+     * Sets the maximum number of distinct brick images kept converted to a screen-compatible format, with the least
+     * recently drawn evicted first. Set to zero to draw brick images as-is.
+     *
+     * @param imageCacheCapacity    the maximum number of images
+     */
+    @SuppressWarnings("unused") // API method.
+    public void setImageCacheCapacity(int imageCacheCapacity) {
+        imageCache.setCapacity(imageCacheCapacity);
+        repaint();
+    }
+
+    /**
+     * Discards all brick images kept converted to a screen-compatible format. Call this after modifying the contents
+     * of an image returned by {@link Brick#getImage()}, as cached copies are not otherwise refreshed.
+     */
+    @SuppressWarnings("unused") // API method.
+    public void clearImageCache() {
+        imageCache.clear();
+        repaint();
+    }
+
+    /**
+     * Repaints a region of the designer, marking the same region of the cached scene layer as out of date. Like that of
+     * any other component, this may be called from any thread.
+     *
+     * @param tm        the maximum time in milliseconds before update
+     * @param x         the x-coordinate of the region
+     * @param y         the y-coordinate of the region
+     * @param width     the width of the region
+     * @param height    the height of the region
+     */
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height) {
+
+        // Called during superclass construction, before fields are initialised.
+        if (repaintLock == null) {
+            super.repaint(tm, x, y, width, height);
+            return;
+        }
+        synchronized (repaintLock) {
+            if (width > 0 && height > 0) {
+                sceneLayerDirty.add(x, y);
+                sceneLayerDirty.add(x + width, y + height);
+            }
+            if (batchDepth > 0) {
+                deferRepaint(x, y, width, height);
+                return;
+            }
+        }
+        super.repaint(tm, x, y, width, height);
+    }
+
+    /**
+     * Adds a region to the region to be repainted once the batch in progress completes.
+     *
+     * @param x         the x-coordinate of the region in view coordinates
+     * @param y         the y-coordinate of the region in view coordinates
+     * @param width     the width of the region
+     * @param height    the height of the region
+     */
+    private void deferRepaint(int x, int y, int width, int height) {
+        if (width > 0 && height > 0) {
+            synchronized (repaintLock) {
+                batchRepaintBounds.add(x, y);
+                batchRepaintBounds.add(x + width, y + height);
+            }
+        }
+    }
+
+    /**
+     * Repaints a region of the designer given in model coordinates.
+     *
+     * @param x         the x-coordinate of the region in model coordinates
+     * @param y         the y-coordinate of the region in model coordinates
+     * @param width     the width of the region
+     * @param height    the height of the region
+     */
+    void repaintModelRegion(int x, int y, int width, int height) {
+        repaintBounds.setBounds(x, y, width, height);
+        repaint(sceneRenderer.modelToView(repaintBounds));
+    }
+
+    /**
+     * Repaints the whole designer without invalidating the cached scene layer, for changes that only affect the
+     * overlay.
+     */
+    void repaintOverlay() {
+        repaintOverlay(0, 0, getWidth(), getHeight());
+    }
+
+    /**
+     * Repaints a region of the designer without invalidating the cached scene layer, for changes that only affect the
+     * overlay.
+     *
+     * @param region    the region to repaint in model coordinates, which will be converted to view coordinates
+     */
+    void repaintOverlay(Rectangle region) {
+        sceneRenderer.modelToView(region);
+        repaintOverlay(region.x, region.y, region.width, region.height);
+    }
+
+    /**
+     * Repaints a region of the designer without invalidating the cached scene layer, for changes that only affect the
+     * overlay.
+     *
+     * @param x         the x-coordinate of the region in view coordinates
+     * @param y         the y-coordinate of the region in view coordinates
+     * @param width     the width of the region
+     * @param height    the height of the region
+     */
+    void repaintOverlay(int x, int y, int width, int height) {
+        if (batchDepth > 0) {
+            deferRepaint(x, y, width, height);
+        } else {
+            super.repaint(0, x, y, width, height);
+        }
+    }
+
+    /**
+     * Updates the spatial index after the bounds of a brick on this designer have changed, and records the region it
+     * previously occupied so that it can be repainted along with the new one when moves are next flushed.
+     *
+     * @param brick the brick whose bounds have changed
+     */
+    void brickBoundsChanged(Brick<?> brick) {
+
+        // Only the region from before the first change since the last flush needs repainting.
+        if (!movedBrickRegions.containsKey(brick) && brickIndex.getBounds(brick, indexedBounds)) {
+            final Rectangle region = spareRegions.isEmpty() ? new Rectangle()
+                    : spareRegions.remove(spareRegions.size() - 1);
+            getBrickRepaintBounds(brick, indexedBounds[0], indexedBounds[1], indexedBounds[2], indexedBounds[3],
+                    region);
+            movedBrickRegions.put(brick, region);
+            movedBricks.add(brick);
+            if (!movesFlushScheduled && !flushingMovesNow) {
+                movesFlushScheduled = true;
+                SwingUtilities.invokeLater(flushMovesTask);
+            }
+        }
+        brickIndex.update(brick, brick.getX(), brick.getY(), brick.getWidth(), brick.getHeight());
+
+        // Links attached to the brick have moved too.
+        for (LinkedIdentitySet.Node<Brick<?>> node = brick.getFirstConnection(); node != null; node = node.getNext()) {
+            linkProbe.set(brick, node.getItem());
+            final BrickLink link = links.get(linkProbe);
+            if (link != null) {
+                indexLink(link, false);
+            }
+        }
+        linkProbe.set(null, null);
+    }
+
+    /**
+     * Hands a brick moved off the event dispatch thread over to the next flush, which updates the indexes and graph
+     * store for it on the event dispatch thread, so that they never change while they are being painted from.
+     *
+     * @param brick the brick whose bounds have changed
+     */
+    void queueBrickBoundsChanged(Brick<?> brick) {
+        synchronized (queuedMoves) {
+            queuedMoves.add(brick);
+            if (queuedMovesScheduled) {
+                return;
+            }
+            queuedMovesScheduled = true;
+        }
+        SwingUtilities.invokeLater(flushMovesTask);
+    }
+
+    /**
+     * Repaints the previous and current regions of every brick moved since the last flush and informs observers of
+     * their new positions. Runs once per pass of the event queue, so a brick moved many times in between is repainted
+     * and reported only once, and bricks moved together are repainted as a single region and reported to move
+     * listeners in a single event.
+     */
+    private void flushMoves() {
+        movesFlushScheduled = false;
+
+        // Index bricks moved off the event dispatch thread first, so that they are flushed along with the rest.
+        synchronized (queuedMoves) {
+            for (LinkedIdentitySet.Node<Brick<?>> node = queuedMoves.getHead(); node != null; node = node.getNext()) {
+                dequeuedMoves.add(node.getItem());
+            }
+            queuedMoves.clear();
+            queuedMovesScheduled = false;
+        }
+        if (!dequeuedMoves.isEmpty()) {
+            flushingMovesNow = true;
+            try {
+                for (int i = 0; i < dequeuedMoves.size(); i++) {
+                    final Brick<?> brick = dequeuedMoves.get(i);
+                    if (brick.designer == this) {
+                        brick.boundsChanged();
+                    }
+                }
+            } finally {
+                flushingMovesNow = false;
+                dequeuedMoves.clear();
+            }
+        }
+        final boolean dragging = state.getType() == DesignerStateType.BRICK_DRAGGING;
+        final List<Brick<?>> moved = eventDispatcher.hasMoveListeners()
+                ? new ArrayList<Brick<?>>(movedBricks.size()) : null;
+        for (int i = 0; i < movedBricks.size(); i++) {
+            final Brick<?> brick = movedBricks.get(i);
+            final Rectangle region = movedBrickRegions.remove(brick);
+
+            // Bricks dragged in the overlay leave the cached scene beneath them untouched.
+            final Rectangle bounds = dragging && selection.contains(brick) ? movedOverlayBounds : movedSceneBounds;
+            bounds.add(region);
+            if (brick.designer == this) {
+                bounds.add(getBrickRepaintBounds(brick, repaintBounds));
+                fireBrickMoved(brick, brick.getX(), brick.getY());
+                if (moved != null) {
+                    moved.add(brick);
+                }
+            }
+            spareRegions.add(region);
+        }
+        movedBricks.clear();
+
+        // Invalidate everything moved at once.
+        if (!movedOverlayBounds.isEmpty()) {
+            repaintOverlay(movedOverlayBounds);
+        }
+        if (!movedSceneBounds.isEmpty()) {
+            repaint(sceneRenderer.modelToView(movedSceneBounds));
+        }
+        movedOverlayBounds.setBounds(0, 0, -1, -1);
+        movedSceneBounds.setBounds(0, 0, -1, -1);
+        if (moved != null && !moved.isEmpty()) {
+            eventDispatcher.bricksMoved(Collections.unmodifiableList(moved));
+        }
+    }
+
+    /**
+     * Indexes a newly created link between two bricks, at least one of which is on this designer.
+     *
+     * @param first     the first brick
+     * @param second    the second brick
+     */
+    void linkAdded(Brick<?> first, Brick<?> second) {
+        linkProbe.set(first, second);
+        if (!links.containsKey(linkProbe)) {
+            final BrickLink link = new BrickLink(first, second);
+            links.put(link, link);
+            indexLink(link, true);
+        }
+        linkProbe.set(null, null);
+        repaintLink(first, second);
+        for (int i = 0; i < linkListeners.size(); i++) {
+            linkListeners.get(i).linkAdded(first, second);
+        }
+    }
+
+    /**
+     * Removes a deleted link between two bricks, at least one of which is on this designer, from the index.
+     *
+     * @param first     the first brick
+     * @param second    the second brick
+     */
+    void linkRemoved(Brick<?> first, Brick<?> second) {
+        linkProbe.set(first, second);
+        final BrickLink link = links.remove(linkProbe);
+        if (link != null) {
+            linkIndex.remove(link);
+        }
+        linkProbe.set(null, null);
+        repaintLink(first, second);
+        for (int i = 0; i < linkListeners.size(); i++) {
+            linkListeners.get(i).linkRemoved(first, second);
+        }
+    }
+
+    /**
+     * Repaints the region covered by the link between two bricks, marking the same region of the cached scene layer
+     * as out of date so that the link appears or disappears.
+     *
+     * @param first     the first brick
+     * @param second    the second brick
+     */
+    private void repaintLink(Brick<?> first, Brick<?> second) {
+        repaintBounds.setBounds(Math.min(first.getCenterX(), second.getCenterX()),
+                Math.min(first.getCenterY(), second.getCenterY()),
+                Math.abs(first.getCenterX() - second.getCenterX()) + 1,
+                Math.abs(first.getCenterY() - second.getCenterY()) + 1);
+
+        // Grow by a pixel either side, as links are drawn in view coordinates.
+        sceneRenderer.modelToView(repaintBounds).grow(1, 1);
+        repaint(repaintBounds);
+    }
+
+    /**
+     * Inserts or updates the bounding box of a link in the link index.
+     *
+     * @param link      the link to index
+     * @param isNew     true if the link is not yet in the index, otherwise false
+     */
+    private void indexLink(BrickLink link, boolean isNew) {
+        final int firstX = link.getFirst().getCenterX();
+        final int firstY = link.getFirst().getCenterY();
+        final int secondX = link.getSecond().getCenterX();
+        final int secondY = link.getSecond().getCenterY();
+        final int x = Math.min(firstX, secondX);
+        final int y = Math.min(firstY, secondY);
+        final int width = Math.abs(firstX - secondX) + 1;
+        final int height = Math.abs(firstY - secondY) + 1;
+        if (isNew) {
+            linkIndex.insert(link, x, y, width, height);
+        } else {
+            linkIndex.update(link, x, y, width, height);
+        }
+    }
+
+    /**
+     * Gets the executor that designer events are delivered on.
+     *
+     * @return  the executor, or null if events are delivered synchronously on the event dispatch thread
+     */
+    @SuppressWarnings("unused") // API method.
+    public Executor getEventExecutor() {
+        return eventDispatcher.getExecutor();
+    }
+
+    /**
+     * Sets the executor that designer events are delivered on, so that slow listeners do not hold up interaction with
+     * the designer. Events are still delivered one at a time and in the order they were raised, but listeners will be
+     * called off the event dispatch thread and successive moves of the same brick may be merged into one carrying its
+     * latest position. Events already queued are delivered on the previous executor.
+     *
+     * @param executor  the executor, or null to deliver events synchronously on the event dispatch thread
+     */
+    @SuppressWarnings("unused") // API method.
+    public void setEventExecutor(Executor executor) {
+        eventDispatcher.setExecutor(executor);
+    }
+
+    /**
+     * Registers a listener class to the designer, which receives all design events triggered by the user.
+     *
+     * @param listener  the listener to add
+     */
+    @SuppressWarnings("unused") // API method.
+    public void registerDesignerEventListener(DesignerEventListener listener) {
+        eventDispatcher.addListener(listener);
+    }
+
+    /**
+     * Unregisters a listener class from the designer.
      *
      * @param listener  the listener to remove
      */
     @SuppressWarnings("unused") // API method.
     public void unregisterDesignerEventListener(DesignerEventListener listener) {
-        designerEventListeners.remove(listener);
+        eventDispatcher.removeListener(listener);
+    }
+
+    /**
+     * Registers a listener to be told synchronously of every link made or broken on the designer.
+     *
+     * @param listener  the listener to add
+     */
+    void registerLinkListener(DesignerLinkListener listener) {
+        linkListeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener told of every link made or broken on the designer.
+     *
+     * @param listener  the listener to remove
+     */
+    void unregisterLinkListener(DesignerLinkListener listener) {
+        linkListeners.remove(listener);
     }
 
     /**
@@ -592,12 +2207,32 @@ public class Designer extends JComponent {
      * @param state the designer state
      */
     void setState(DesignerState state) {
+
+        // Selected bricks move between the cached scene layer and the overlay as dragging starts and stops.
+        final boolean dragging = state == brickDraggingState;
+        if ((this.state == brickDraggingState) != dragging) {
+            if (dragging) {
+                dragBricks.addAll(selection);
+                Collections.sort(dragBricks, Z_ORDER_COMPARATOR);
+            }
+            selectionRepaintBounds.setBounds(0, 0, -1, -1);
+            for (int i = 0; i < dragBricks.size(); i++) {
+                selectionRepaintBounds.add(getBrickRepaintBounds(dragBricks.get(i), repaintBounds));
+            }
+            if (!selectionRepaintBounds.isEmpty()) {
+                repaint(sceneRenderer.modelToView(selectionRepaintBounds));
+            }
+            selectionRepaintBounds.setBounds(0, 0, -1, -1);
+            if (!dragging) {
+                dragBricks.clear();
+            }
+        }
         this.state = state;
-        repaint();
+        repaintOverlay();
     }
 
     /**
-     * Gets the last menu click position for the designer.
+     * Gets the last menu click position for the designer, in model coordinates.
      *
      * @return  the position
      */
@@ -650,8 +2285,7 @@ public class Designer extends JComponent {
      */
     @SuppressWarnings("unused") // API method.
     public void setLocked(boolean locked) {
-        state = locked ? new LockedState(this) : new DefaultState(this);
-        repaint();
+        setState(locked ? lockedState : defaultState);
     }
 
     /**
@@ -661,72 +2295,367 @@ public class Designer extends JComponent {
      */
     private void paintComponent(Graphics2D g) {
 
-        // Fill in background.
-        g.setColor(backgroundColor);
-        g.fillRect(0, 0, getWidth(), getHeight());
-
-        // Draw grid.
-        if (showGrid) {
-            g.setColor(gridLineColor);
-
-            // Draw vertical grid lines.
-            for (int x = 0; x < getWidth(); x += gridSpacing) {
-                g.drawLine(x, 0, x, getHeight());
-            }
+        // Only the clip region needs painting, which is the whole component if there is no clip.
+        clipBounds.setBounds(0, 0, getWidth(), getHeight());
+        g.getClipBounds(clipBounds);
+
+        // The bricks being dragged (if any) live in the overlay rather than the static scene.
+        final boolean dragging = state.getType() == DesignerStateType.BRICK_DRAGGING;
+
+        // Paint static scene, from cached layer if possible.
+        computeVisibleRect(visibleBounds);
+        final boolean useSceneLayer = layeredRendering && visibleBounds.contains(clipBounds);
+        if (useSceneLayer) {
+            updateSceneLayer(dragging);
+            g.drawImage(sceneLayer, sceneLayerBounds.x, sceneLayerBounds.y, null);
+        } else {
+            sceneRenderer.paintUnderlay(g, clipBounds, dragging);
+        }
 
-            // Draw horizontal grid lines.
-            for (int y = 0; y < getHeight(); y += gridSpacing) {
-                g.drawLine(0, y, getWidth(), y);
+        // Grow clip by a pixel so that lines running along its edge are not culled.
+        clipBounds.grow(1, 1);
+
+        // Overlay the links of the bricks being dragged, each once.
+        if (dragging) {
+            g.setColor(brickLinkColor);
+            for (int i = 0; i < dragBricks.size(); i++) {
+                final Brick<?> brick = dragBricks.get(i);
+                for (LinkedIdentitySet.Node<Brick<?>> node = brick.getFirstConnection(); node != null;
+                        node = node.getNext()) {
+                    final Brick<?> other = node.getItem();
+                    if (!selection.contains(other) || Z_ORDER_COMPARATOR.compare(brick, other) < 0) {
+                        sceneRenderer.paintLink(g, clipBounds, brick, other);
+                    }
+                }
+                if (brick.graphStore != null) {
+                    sceneRenderer.paintGraphStoreLinks(g, clipBounds, brick);
+                }
             }
         }
 
         // Are we dragging a linking/unlinking line around? If so, draw link to cursor.
-        if (state.getType() == DesignerStateType.BRICK_LINKING
-                || state.getType() == DesignerStateType.BRICK_UNLINKING) {
-            final int x = selectedBrick.getBounds().x + (selectedBrick.getBounds().width / 2);
-            final int y = selectedBrick.getBounds().y + (selectedBrick.getBounds().height / 2);
+        if (state instanceof BrickRubberBandState) {
+            final Point cursorPosition = ((BrickRubberBandState) state).getCursorPosition();
+            final int x = modelToViewX(selectedBrick.getCenterX());
+            final int y = modelToViewY(selectedBrick.getCenterY());
             g.setColor(state.getType() == DesignerStateType.BRICK_LINKING ? brickLinkColor : brickUnlinkingColor);
-            g.drawLine(x, y, getMousePosition().x, getMousePosition().y);
+            g.drawLine(x, y, cursorPosition.x, cursorPosition.y);
         }
 
-        // Render brick links.
-        for (Brick currentBrick : bricks) {
-            final int sourceX = (currentBrick.getBounds().x + (currentBrick.getBounds().width / 2));
-            final int sourceY = (currentBrick.getBounds().y + (currentBrick.getBounds().height / 2));
-            for (Object otherBrick : currentBrick.getConnections()) {
-                Brick connectedBrick = (Brick) otherBrick;
-                final int destX = (connectedBrick.getBounds().x + (connectedBrick.getBounds().width / 2));
-                final int destY = (connectedBrick.getBounds().y + (connectedBrick.getBounds().height / 2));
-                g.setColor(brickLinkColor);
-                g.drawLine(sourceX, sourceY, destX, destY);
-            }
+        // Everything else is drawn in model coordinates, apart from the marquee drawn on top of it all.
+        clipBounds.grow(-1, -1);
+        final AffineTransform viewTransform = state == marqueeSelectingState ? g.getTransform() : null;
+        sceneRenderer.applyViewTransform(g);
+        sceneRenderer.viewToModel(clipBounds);
+        final boolean lowDetail = sceneRenderer.isLowDetail();
+        if (!useSceneLayer) {
+            sceneRenderer.paintBricks(g, clipBounds, dragging);
         }
 
-        // Render brick images.
-        for (Brick currentBrick : bricks) {
-            g.drawImage(currentBrick.getImage(), currentBrick.getX(), currentBrick.getY(), null);
+        // Overlay the bricks being dragged on top of the static scene, bottom-most first.
+        if (dragging) {
+            g.setColor(lowDetailBrickColor);
+            for (int i = 0; i < dragBricks.size(); i++) {
+                final Brick<?> brick = dragBricks.get(i);
+                if (clipBounds.intersects(brick.getX(), brick.getY(), brick.getWidth(), brick.getHeight())) {
+                    sceneRenderer.paintBrick(g, brick, lowDetail);
+                }
+            }
         }
 
         // Is a brick selected?
         if (selectedBrick != null) {
-            final Rectangle brickBounds = selectedBrick.getBounds();
 
-            // Link tag on selected brick.
+            // Link tag on most recently selected brick.
+            final Rectangle tagBounds = getLinkingTagBounds(selectedBrick);
             g.setColor(linkingTagBackgroundColor);
-            linkingTagBounds = new Rectangle((int) brickBounds.getX() - linkingTagSize - 1,
-                    (int) brickBounds.getY() - linkingTagSize - 1, linkingTagSize, linkingTagSize);
-            g.fillRect(linkingTagBounds.x, linkingTagBounds.y, linkingTagBounds.width, linkingTagBounds.height);
+            g.fillRect(tagBounds.x, tagBounds.y, tagBounds.width, tagBounds.height);
             g.setColor(linkingTagBorderColor);
-            g.drawRect(linkingTagBounds.x, linkingTagBounds.y, linkingTagBounds.width, linkingTagBounds.height);
+            g.drawRect(tagBounds.x, tagBounds.y, tagBounds.width, tagBounds.height);
+
+            // Dotted bounding box on every selected brick in the clip, stroked once each.
+            g.setColor(selectionBoundingBoxColor);
+            g.setStroke(selectionBoundingBoxStroke);
+            for (LinkedIdentitySet.Node<Brick<?>> node = selection.getHead(); node != null; node = node.getNext()) {
+                final Brick<?> brick = node.getItem();
+                if (clipBounds.intersects(brick.getX() - 1, brick.getY() - 1, brick.getWidth() + 2,
+                        brick.getHeight() + 2)) {
+                    g.drawRect(brick.getX() - 1, brick.getY() - 1, brick.getWidth() + 1, brick.getHeight() + 1);
+                }
+            }
+        }
 
-            // Dotted bounding box on selected brick.
+        // Are we dragging out a marquee? If so, draw its outline.
+        if (state == marqueeSelectingState) {
+            final Rectangle marqueeBounds = marqueeSelectingState.getMarqueeBounds(repaintBounds);
+            g.setTransform(viewTransform);
             g.setColor(selectionBoundingBoxColor);
             g.setStroke(selectionBoundingBoxStroke);
-            g.drawRect((int) brickBounds.getX() - 1, (int) brickBounds.getY() - 1, (int) brickBounds.getWidth() + 1,
-                    (int) brickBounds.getHeight() + 1);
+            g.drawRect(marqueeBounds.x, marqueeBounds.y, marqueeBounds.width, marqueeBounds.height);
         }
     }
-    
+
+    /**
+     * Brings the cached static scene layer up to date with the visible region of the designer, re-rendering only
+     * those parts that have been invalidated since it was last painted.
+     *
+     * @param dragging  true to leave the selected bricks out of the layer because they are painted in the overlay
+     */
+    private void updateSceneLayer(boolean dragging) {
+
+        // Layer must be the size of the visible region, otherwise start again.
+        if (sceneLayer == null || sceneLayer.getWidth() != visibleBounds.width
+                || sceneLayer.getHeight() != visibleBounds.height) {
+            final GraphicsConfiguration configuration = getGraphicsConfiguration();
+            sceneLayer = configuration != null
+                    ? configuration.createCompatibleImage(visibleBounds.width, visibleBounds.height,
+                            Transparency.TRANSLUCENT)
+                    : new BufferedImage(visibleBounds.width, visibleBounds.height, BufferedImage.TYPE_INT_ARGB);
+            sceneLayerBounds.setBounds(visibleBounds);
+            synchronized (repaintLock) {
+                sceneLayerDirty.setBounds(visibleBounds);
+            }
+        } else if (!sceneLayerBounds.equals(visibleBounds)) {
+            scrollSceneLayer(dragging);
+        }
+
+        // Re-render dirty part of layer, leaving regions marked dirty while rendering for next time.
+        synchronized (repaintLock) {
+            Rectangle.intersect(sceneLayerDirty, sceneLayerBounds, sceneLayerStrip);
+            sceneLayerDirty.setBounds(0, 0, -1, -1);
+        }
+        if (!sceneLayerStrip.isEmpty()) {
+            renderSceneLayer(sceneLayerStrip, dragging);
+        }
+    }
+
+    /**
+     * Moves the cached static scene layer to the visible region of the designer after scrolling, keeping the part of
+     * the scene still in view and re-rendering only the strips newly exposed.
+     *
+     * @param dragging  true to leave the selected bricks out of the layer because they are painted in the overlay
+     */
+    private void scrollSceneLayer(boolean dragging) {
+
+        // Nothing can be kept if the layer has scrolled out of view entirely.
+        Rectangle.intersect(sceneLayerBounds, visibleBounds, sceneLayerStrip);
+        if (sceneLayerStrip.isEmpty()) {
+            sceneLayerBounds.setBounds(visibleBounds);
+            synchronized (repaintLock) {
+                sceneLayerDirty.setBounds(visibleBounds);
+            }
+            return;
+        }
+
+        // Shift the part still in view into place.
+        final int keptX = sceneLayerStrip.x;
+        final int keptY = sceneLayerStrip.y;
+        final int keptRight = keptX + sceneLayerStrip.width;
+        final int keptBottom = keptY + sceneLayerStrip.height;
+        final Graphics2D g = sceneLayer.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.copyArea(keptX - sceneLayerBounds.x, keptY - sceneLayerBounds.y, sceneLayerStrip.width,
+                sceneLayerStrip.height, sceneLayerBounds.x - visibleBounds.x, sceneLayerBounds.y - visibleBounds.y);
+        g.dispose();
+        sceneLayerBounds.setBounds(visibleBounds);
+
+        // Render the strips above and below the part kept, then those either side of it.
+        final int right = visibleBounds.x + visibleBounds.width;
+        final int bottom = visibleBounds.y + visibleBounds.height;
+        renderSceneLayerStrip(visibleBounds.x, visibleBounds.y, visibleBounds.width, keptY - visibleBounds.y,
+                dragging);
+        renderSceneLayerStrip(visibleBounds.x, keptBottom, visibleBounds.width, bottom - keptBottom, dragging);
+        renderSceneLayerStrip(visibleBounds.x, keptY, keptX - visibleBounds.x, keptBottom - keptY, dragging);
+        renderSceneLayerStrip(keptRight, keptY, right - keptRight, keptBottom - keptY, dragging);
+    }
+
+    /**
+     * Re-renders a strip of the cached static scene layer, if it is not empty.
+     *
+     * @param x         the x-coordinate of the strip
+     * @param y         the y-coordinate of the strip
+     * @param width     the width of the strip
+     * @param height    the height of the strip
+     * @param dragging  true to leave the selected bricks out of the layer because they are painted in the overlay
+     */
+    private void renderSceneLayerStrip(int x, int y, int width, int height, boolean dragging) {
+        if (width > 0 && height > 0) {
+            sceneLayerStrip.setBounds(x, y, width, height);
+            renderSceneLayer(sceneLayerStrip, dragging);
+        }
+    }
+
+    /**
+     * Re-renders a region of the cached static scene layer.
+     *
+     * @param region    the region to render, which is left in model coordinates afterwards
+     * @param dragging  true to leave the selected bricks out of the layer because they are painted in the overlay
+     */
+    private void renderSceneLayer(Rectangle region, boolean dragging) {
+        final Graphics2D g = sceneLayer.createGraphics();
+        g.translate(-sceneLayerBounds.x, -sceneLayerBounds.y);
+        g.clip(region);
+        g.setComposite(AlphaComposite.Src);
+        sceneRenderer.paintUnderlay(g, region, dragging);
+        sceneRenderer.applyViewTransform(g);
+        sceneRenderer.paintBricks(g, sceneRenderer.viewToModel(region), dragging);
+        g.dispose();
+    }
+
+    /**
+     * Converts an x-coordinate in view coordinates to model coordinates.
+     *
+     * @param x the x-coordinate in view coordinates
+     * @return  the x-coordinate in model coordinates
+     */
+    int viewToModelX(int x) {
+        return (int) Math.floor((x - panX) / zoom);
+    }
+
+    /**
+     * Converts a y-coordinate in view coordinates to model coordinates.
+     *
+     * @param y the y-coordinate in view coordinates
+     * @return  the y-coordinate in model coordinates
+     */
+    int viewToModelY(int y) {
+        return (int) Math.floor((y - panY) / zoom);
+    }
+
+    /**
+     * Converts an x-coordinate in model coordinates to view coordinates.
+     *
+     * @param x the x-coordinate in model coordinates
+     * @return  the x-coordinate in view coordinates
+     */
+    int modelToViewX(int x) {
+        return sceneRenderer.modelToViewX(x);
+    }
+
+    /**
+     * Converts a y-coordinate in model coordinates to view coordinates.
+     *
+     * @param y the y-coordinate in model coordinates
+     * @return  the y-coordinate in view coordinates
+     */
+    int modelToViewY(int y) {
+        return sceneRenderer.modelToViewY(y);
+    }
+
+    /**
+     * Gets the state the designer is in when it is not being interacted with.
+     *
+     * @return  the default state
+     */
+    DefaultState getDefaultState() {
+        return defaultState;
+    }
+
+    /**
+     * Gets the state the designer is in while a brick is being dragged.
+     *
+     * @return  the brick dragging state
+     */
+    BrickDraggingState getBrickDraggingState() {
+        return brickDraggingState;
+    }
+
+    /**
+     * Gets the state the designer is in while a marquee is being dragged out to select bricks.
+     *
+     * @return  the marquee selecting state
+     */
+    MarqueeSelectingState getMarqueeSelectingState() {
+        return marqueeSelectingState;
+    }
+
+    /**
+     * Gets the state the designer is in while a brick is being linked to another.
+     *
+     * @return  the brick linking state
+     */
+    BrickLinkingState getBrickLinkingState() {
+        return brickLinkingState;
+    }
+
+    /**
+     * Gets the state the designer is in while a brick is being unlinked from another.
+     *
+     * @return  the brick unlinking state
+     */
+    BrickUnlinkingState getBrickUnlinkingState() {
+        return brickUnlinkingState;
+    }
+
+    /**
+     * Gets the index of bricks on this designer by bounds.
+     *
+     * @return  the brick index
+     */
+    QuadTree<Brick<?>> getBrickIndex() {
+        return brickIndex;
+    }
+
+    /**
+     * Gets the index of links between bricks on this designer by the bounding boxes of their centres.
+     *
+     * @return  the link index
+     */
+    QuadTree<BrickLink> getLinkIndex() {
+        return linkIndex;
+    }
+
+    /**
+     * Gets an image in a format compatible with the screen, from the image cache where possible. Must only be called on
+     * the event dispatch thread.
+     *
+     * @param image the image to convert
+     * @return      the compatible image, or the image itself if it could not be converted
+     */
+    Image getCompatibleImage(Image image) {
+        return imageCache.get(image, getGraphicsConfiguration());
+    }
+
+    /**
+     * Gets the tile holding a single grid cell that is repeated to fill the background and grid, building it if it is
+     * out of date.
+     *
+     * @return  the grid tile
+     */
+    BufferedImage getGridTile() {
+        if (gridTile == null) {
+            gridTile = createGridTile();
+        }
+        return gridTile;
+    }
+
+    /**
+     * Renders a single grid cell (background plus one vertical and one horizontal grid line) into a tile that can be
+     * repeated across the designer.
+     *
+     * @return  the tile
+     */
+    private BufferedImage createGridTile() {
+
+        // Use an image compatible with the screen if possible for fast blitting.
+        final int transparency = backgroundColor.getAlpha() == 255 ? Transparency.OPAQUE : Transparency.TRANSLUCENT;
+        final GraphicsConfiguration configuration = getGraphicsConfiguration();
+        final BufferedImage tile = configuration != null
+                ? configuration.createCompatibleImage(gridSpacing, gridSpacing, transparency)
+                : new BufferedImage(gridSpacing, gridSpacing, transparency == Transparency.OPAQUE
+                        ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+
+        // Background, then grid lines along the top and left edges.
+        final Graphics2D g = tile.createGraphics();
+        g.setColor(backgroundColor);
+        g.fillRect(0, 0, gridSpacing, gridSpacing);
+        g.setColor(gridLineColor);
+        g.drawLine(0, 0, 0, gridSpacing);
+        g.drawLine(0, 0, gridSpacing, 0);
+        g.dispose();
+        return tile;
+    }
+
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
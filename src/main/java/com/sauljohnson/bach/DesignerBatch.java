@@ -0,0 +1,133 @@
+package com.sauljohnson.bach;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The bricks and links added to and removed from a {@link Designer} during a batch, in the order the changes were made.
+ *
+ * @author  Saul Johnson
+ */
+public final class DesignerBatch {
+
+    /**
+     * The bricks added during the batch.
+     */
+    private final List<Brick<?>> addedBricks;
+
+    /**
+     * The bricks removed during the batch.
+     */
+    private final List<Brick<?>> removedBricks;
+
+    /**
+     * The pairs of bricks linked during the batch, one after the other.
+     */
+    private final List<Brick<?>> createdLinks;
+
+    /**
+     * The pairs of bricks unlinked during the batch, one after the other.
+     */
+    private final List<Brick<?>> deletedLinks;
+
+    /**
+     * Initialises a new instance of an empty record of changes made to a designer during a batch.
+     */
+    DesignerBatch() {
+        addedBricks = new ArrayList<>();
+        removedBricks = new ArrayList<>();
+        createdLinks = new ArrayList<>();
+        deletedLinks = new ArrayList<>();
+    }
+
+    /**
+     * Gets the bricks added during the batch.
+     *
+     * @return  an unmodifiable list of the bricks added
+     */
+    @SuppressWarnings("unused") // API method.
+    public List<Brick<?>> getAddedBricks() {
+        return Collections.unmodifiableList(addedBricks);
+    }
+
+    /**
+     * Gets the bricks removed during the batch.
+     *
+     * @return  an unmodifiable list of the bricks removed
+     */
+    @SuppressWarnings("unused") // API method.
+    public List<Brick<?>> getRemovedBricks() {
+        return Collections.unmodifiableList(removedBricks);
+    }
+
+    /**
+     * Gets the pairs of bricks linked during the batch. The bricks at indices 2n and 2n + 1 form the nth link.
+     *
+     * @return  an unmodifiable list of the pairs of bricks linked
+     */
+    @SuppressWarnings("unused") // API method.
+    public List<Brick<?>> getCreatedLinks() {
+        return Collections.unmodifiableList(createdLinks);
+    }
+
+    /**
+     * Gets the pairs of bricks unlinked during the batch. The bricks at indices 2n and 2n + 1 form the nth link.
+     *
+     * @return  an unmodifiable list of the pairs of bricks unlinked
+     */
+    @SuppressWarnings("unused") // API method.
+    public List<Brick<?>> getDeletedLinks() {
+        return Collections.unmodifiableList(deletedLinks);
+    }
+
+    /**
+     * Returns true if no bricks or links were added or removed during the batch, otherwise returns false.
+     *
+     * @return  true if nothing changed, otherwise false
+     */
+    @SuppressWarnings("unused") // API method.
+    public boolean isEmpty() {
+        return addedBricks.isEmpty() && removedBricks.isEmpty() && createdLinks.isEmpty() && deletedLinks.isEmpty();
+    }
+
+    /**
+     * Records the addition of a brick.
+     *
+     * @param brick the brick added
+     */
+    void brickAdded(Brick<?> brick) {
+        addedBricks.add(brick);
+    }
+
+    /**
+     * Records the removal of a brick.
+     *
+     * @param brick the brick removed
+     */
+    void brickRemoved(Brick<?> brick) {
+        removedBricks.add(brick);
+    }
+
+    /**
+     * Records the creation of a link.
+     *
+     * @param first     the first brick
+     * @param second    the second brick
+     */
+    void linkCreated(Brick<?> first, Brick<?> second) {
+        createdLinks.add(first);
+        createdLinks.add(second);
+    }
+
+    /**
+     * Records the deletion of a link.
+     *
+     * @param first     the first brick
+     * @param second    the second brick
+     */
+    void linkDeleted(Brick<?> first, Brick<?> second) {
+        deletedLinks.add(first);
+        deletedLinks.add(second);
+    }
+}
@@ -0,0 +1,21 @@
+package com.sauljohnson.bach;
+
+/**
+ * A {@link DesignerEventListener} that is told about changes made during a batch (see {@link Designer#batch(Runnable)})
+ * all at once when the batch completes, rather than one event at a time.
+ *
+ * While a batch is in progress, listeners of this type do not receive {@link #brickAdded(Brick)},
+ * {@link #brickRemoved(Brick)}, {@link #linkCreated(Brick, Brick)} or {@link #linkDeleted(Brick, Brick)}. All other
+ * events are raised as usual.
+ *
+ * @author  Saul Johnson
+ */
+public interface DesignerBatchListener extends DesignerEventListener {
+
+    /**
+     * Raised when a batch of changes to the designer has completed, if any bricks or links were added or removed.
+     *
+     * @param batch the changes made during the batch
+     */
+    void batchCompleted(DesignerBatch batch);
+}
@@ -0,0 +1,462 @@
+package com.sauljohnson.bach;
+
+import java.awt.Point;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Delivers events raised by a {@link Designer} to its {@link DesignerEventListener}s, either immediately on the calling
+ * thread or later on an executor.
+ *
+ * When an executor is set, events are queued and delivered one at a time in the order they were raised, whatever the
+ * executor. Successive moves of the same brick that have not yet been delivered are merged into one carrying the
+ * latest position, up until any other event is raised.
+ *
+ * @author  Saul Johnson
+ */
+final class DesignerEventDispatcher {
+
+    /**
+     * The kinds of event raised by a designer.
+     */
+    private enum EventType {
+        BRICK_ADDED,
+        BRICK_REMOVED,
+        BRICK_SELECTED,
+        BRICK_MOVED,
+        BRICKS_MOVED,
+        SELECTION_CLEARED,
+        LINK_CREATED,
+        LINK_REFUSED,
+        LINK_DELETED,
+        BATCH_COMPLETED
+    }
+
+    /**
+     * The listener array used when there are no listeners.
+     */
+    private static final DesignerEventListener[] NO_LISTENERS = new DesignerEventListener[0];
+
+    /**
+     * The registered listeners. The array is replaced rather than modified, so it can be iterated over without copying
+     * even while listeners are registered or unregistered.
+     */
+    private volatile DesignerEventListener[] listeners;
+
+    /**
+     * The executor events are delivered on, or null to deliver them immediately on the calling thread.
+     */
+    private volatile Executor executor;
+
+    /**
+     * The events waiting to be delivered on the executor, which also serves as the lock for queueing.
+     */
+    private final ArrayDeque<Event> queue;
+
+    /**
+     * The move events waiting to be delivered on the executor that later moves of the same brick may be merged into.
+     */
+    private final Map<Brick<?>, Event> pendingMoves;
+
+    /**
+     * Whether a task to deliver queued events has been given to the executor and has not yet finished.
+     */
+    private boolean draining;
+
+    /**
+     * The task that delivers queued events.
+     */
+    private final Runnable drainTask;
+
+    /**
+     * Initialises a new instance of a dispatcher that delivers events immediately to no listeners.
+     */
+    DesignerEventDispatcher() {
+        listeners = NO_LISTENERS;
+        queue = new ArrayDeque<>();
+        pendingMoves = new IdentityHashMap<>();
+        drainTask = new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        };
+    }
+
+    /**
+     * Registers a listener.
+     *
+     * @param listener  the listener to add
+     */
+    synchronized void addListener(DesignerEventListener listener) {
+        final DesignerEventListener[] current = listeners;
+        final DesignerEventListener[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = listener;
+        listeners = updated;
+    }
+
+    /**
+     * Unregisters a listener, if registered.
+     *
+     * @param listener  the listener to remove
+     */
+    synchronized void removeListener(DesignerEventListener listener) {
+        final DesignerEventListener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].equals(listener)) {
+                final DesignerEventListener[] updated = new DesignerEventListener[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                listeners = updated;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets the executor events are delivered on.
+     *
+     * @return  the executor, or null if events are delivered immediately
+     */
+    Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor events are delivered on. Events already queued are still delivered on the previous executor.
+     *
+     * @param executor  the executor, or null to deliver events immediately on the thread that raises them
+     */
+    void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Raises an event informing listeners that a brick has been added.
+     *
+     * @param brick                 the brick added
+     * @param skipBatchListeners    true to leave out batch listeners because a batch is in progress
+     */
+    void brickAdded(Brick<?> brick, boolean skipBatchListeners) {
+        raise(EventType.BRICK_ADDED, brick, null, 0, 0, null, skipBatchListeners);
+    }
+
+    /**
+     * Raises an event informing listeners that a brick has been removed.
+     *
+     * @param brick                 the brick removed
+     * @param skipBatchListeners    true to leave out batch listeners because a batch is in progress
+     */
+    void brickRemoved(Brick<?> brick, boolean skipBatchListeners) {
+        raise(EventType.BRICK_REMOVED, brick, null, 0, 0, null, skipBatchListeners);
+    }
+
+    /**
+     * Raises an event informing listeners that a brick has been selected.
+     *
+     * @param brick the brick selected
+     */
+    void brickSelected(Brick<?> brick) {
+        raise(EventType.BRICK_SELECTED, brick, null, 0, 0, null, false);
+    }
+
+    /**
+     * Raises an event informing listeners that a brick has been moved.
+     *
+     * @param brick the brick moved
+     * @param x     the new x-coordinate of the brick
+     * @param y     the new y-coordinate of the brick
+     */
+    void brickMoved(Brick<?> brick, int x, int y) {
+        raise(EventType.BRICK_MOVED, brick, null, x, y, null, false);
+    }
+
+    /**
+     * Returns true if any registered listener is told about moves all at once, otherwise returns false.
+     *
+     * @return  true if a {@link DesignerMoveListener} is registered, otherwise false
+     */
+    boolean hasMoveListeners() {
+        for (DesignerEventListener listener : listeners) {
+            if (listener instanceof DesignerMoveListener) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Raises an event informing move listeners that several bricks have been moved.
+     *
+     * @param bricks    the bricks moved, which must not be modified afterwards
+     */
+    void bricksMoved(List<Brick<?>> bricks) {
+        raise(EventType.BRICKS_MOVED, null, null, 0, 0, bricks, false);
+    }
+
+    /**
+     * Raises an event informing listeners that the selection has been cleared.
+     */
+    void selectionCleared() {
+        raise(EventType.SELECTION_CLEARED, null, null, 0, 0, null, false);
+    }
+
+    /**
+     * Raises an event informing listeners that two bricks have been linked.
+     *
+     * @param first                 the first brick
+     * @param second                the second brick
+     * @param skipBatchListeners    true to leave out batch listeners because a batch is in progress
+     */
+    void linkCreated(Brick<?> first, Brick<?> second, boolean skipBatchListeners) {
+        raise(EventType.LINK_CREATED, first, second, 0, 0, null, skipBatchListeners);
+    }
+
+    /**
+     * Raises an event informing listeners that two bricks could not be linked.
+     *
+     * @param first     the first brick
+     * @param second    the second brick
+     */
+    void linkRefused(Brick<?> first, Brick<?> second) {
+        raise(EventType.LINK_REFUSED, first, second, 0, 0, null, false);
+    }
+
+    /**
+     * Raises an event informing listeners that two bricks have been unlinked.
+     *
+     * @param first                 the first brick
+     * @param second                the second brick
+     * @param skipBatchListeners    true to leave out batch listeners because a batch is in progress
+     */
+    void linkDeleted(Brick<?> first, Brick<?> second, boolean skipBatchListeners) {
+        raise(EventType.LINK_DELETED, first, second, 0, 0, null, skipBatchListeners);
+    }
+
+    /**
+     * Raises an event informing batch listeners that a batch has completed.
+     *
+     * @param batch the changes made during the batch
+     */
+    void batchCompleted(DesignerBatch batch) {
+        raise(EventType.BATCH_COMPLETED, null, null, 0, 0, batch, false);
+    }
+
+    /**
+     * Delivers an event immediately if there is no executor, otherwise queues it for delivery on the executor.
+     *
+     * @param type                  the kind of event
+     * @param first                 the first brick involved, if any
+     * @param second                the second brick involved, if any
+     * @param x                     the x-coordinate of a moved brick
+     * @param y                     the y-coordinate of a moved brick
+     * @param payload               the changes made during a completed batch or the bricks moved together, if any
+     * @param skipBatchListeners    true to leave out batch listeners
+     */
+    private void raise(EventType type, Brick<?> first, Brick<?> second, int x, int y, Object payload,
+                       boolean skipBatchListeners) {
+        final Executor currentExecutor = executor;
+        if (currentExecutor == null) {
+            deliver(type, first, second, x, y, payload, skipBatchListeners);
+            return;
+        }
+        synchronized (queue) {
+            if (type == EventType.BRICK_MOVED) {
+
+                // Merge into a move of the same brick that has not been delivered yet.
+                final Event pending = pendingMoves.get(first);
+                if (pending != null) {
+                    pending.x = x;
+                    pending.y = y;
+                    return;
+                }
+                final Event event = new Event(type, first, null, x, y, null, false);
+                pendingMoves.put(first, event);
+                queue.add(event);
+            } else {
+
+                // Moves raised after this event must be delivered after it too. Listeners are told about moves either
+                // one brick at a time or all at once, never both, so the two kinds can be delivered in any order.
+                if (type != EventType.BRICKS_MOVED) {
+                    pendingMoves.clear();
+                }
+                queue.add(new Event(type, first, second, x, y, payload, skipBatchListeners));
+            }
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        try {
+            currentExecutor.execute(drainTask);
+        } catch (RuntimeException e) {
+            synchronized (queue) {
+                draining = false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Delivers queued events one at a time until the queue is empty.
+     */
+    private void drain() {
+        boolean completed = false;
+        try {
+            while (true) {
+                final Event event;
+                final int x;
+                final int y;
+                synchronized (queue) {
+                    event = queue.poll();
+                    if (event == null) {
+                        draining = false;
+                        completed = true;
+                        return;
+                    }
+                    if (pendingMoves.get(event.first) == event) {
+                        pendingMoves.remove(event.first);
+                    }
+                    x = event.x;
+                    y = event.y;
+                }
+                deliver(event.type, event.first, event.second, x, y, event.payload, event.skipBatchListeners);
+            }
+        } finally {
+
+            // A listener threw, so carry on with the remaining events in a fresh task.
+            if (!completed) {
+                final Executor currentExecutor = executor;
+                synchronized (queue) {
+                    draining = !queue.isEmpty() && currentExecutor != null;
+                }
+                if (draining) {
+                    currentExecutor.execute(drainTask);
+                }
+            }
+        }
+    }
+
+    /**
+     * Delivers an event to every registered listener.
+     *
+     * @param type                  the kind of event
+     * @param first                 the first brick involved, if any
+     * @param second                the second brick involved, if any
+     * @param x                     the x-coordinate of a moved brick
+     * @param y                     the y-coordinate of a moved brick
+     * @param payload               the changes made during a completed batch or the bricks moved together, if any
+     * @param skipBatchListeners    true to leave out batch listeners
+     */
+    @SuppressWarnings("unchecked") // Payload type is determined by event type.
+    private void deliver(EventType type, Brick<?> first, Brick<?> second, int x, int y, Object payload,
+                         boolean skipBatchListeners) {
+        for (DesignerEventListener listener : listeners) {
+            if (skipBatchListeners && listener instanceof DesignerBatchListener) {
+                continue;
+            }
+            switch (type) {
+                case BRICK_ADDED:
+                    listener.brickAdded(first);
+                    break;
+                case BRICK_REMOVED:
+                    listener.brickRemoved(first);
+                    break;
+                case BRICK_SELECTED:
+                    listener.brickSelected(first);
+                    break;
+                case BRICK_MOVED:
+
+                    // Each listener gets a point of its own, which it may keep.
+                    if (!(listener instanceof DesignerMoveListener)) {
+                        listener.brickMoved(first, new Point(x, y));
+                    }
+                    break;
+                case BRICKS_MOVED:
+                    if (listener instanceof DesignerMoveListener) {
+                        ((DesignerMoveListener) listener).bricksMoved((List<Brick<?>>) payload);
+                    }
+                    break;
+                case SELECTION_CLEARED:
+                    listener.selectionCleared();
+                    break;
+                case LINK_CREATED:
+                    listener.linkCreated(first, second);
+                    break;
+                case LINK_REFUSED:
+                    listener.linkRefused(first, second);
+                    break;
+                case LINK_DELETED:
+                    listener.linkDeleted(first, second);
+                    break;
+                case BATCH_COMPLETED:
+                    if (listener instanceof DesignerBatchListener) {
+                        ((DesignerBatchListener) listener).batchCompleted((DesignerBatch) payload);
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * An event waiting to be delivered on the executor.
+     */
+    private static final class Event {
+
+        /**
+         * The kind of event.
+         */
+        private final EventType type;
+
+        /**
+         * The first brick involved, if any.
+         */
+        private final Brick<?> first;
+
+        /**
+         * The second brick involved, if any.
+         */
+        private final Brick<?> second;
+
+        /**
+         * The latest position of a moved brick, updated when later moves are merged in.
+         */
+        private int x, y;
+
+        /**
+         * The changes made during a completed batch or the bricks moved together, if any.
+         */
+        private final Object payload;
+
+        /**
+         * Whether to leave out batch listeners.
+         */
+        private final boolean skipBatchListeners;
+
+        /**
+         * Initialises a new instance of an event waiting to be delivered.
+         *
+         * @param type                  the kind of event
+         * @param first                 the first brick involved, if any
+         * @param second                the second brick involved, if any
+         * @param x                     the x-coordinate of a moved brick
+         * @param y                     the y-coordinate of a moved brick
+         * @param payload               the changes made during a completed batch or the bricks moved together, if any
+         * @param skipBatchListeners    true to leave out batch listeners
+         */
+        Event(EventType type, Brick<?> first, Brick<?> second, int x, int y, Object payload,
+              boolean skipBatchListeners) {
+            this.type = type;
+            this.first = first;
+            this.second = second;
+            this.x = x;
+            this.y = y;
+            this.payload = payload;
+            this.skipBatchListeners = skipBatchListeners;
+        }
+    }
+}
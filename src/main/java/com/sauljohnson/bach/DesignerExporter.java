@@ -0,0 +1,567 @@
+package com.sauljohnson.bach;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exports the contents of a {@link Designer} to a PNG image off-screen, so it works without a display (for example with
+ * {@code java.awt.headless=true}).
+ *
+ * The image is rendered in bands of square tiles, with the tiles of each band rendered in parallel on a fork-join pool
+ * while the previous band is compressed and written out. Only two bands are ever held in memory, so diagrams far larger
+ * than the screen can be exported.
+ *
+ * Bricks are read from worker threads while exporting, so the designer must not be modified until the export has
+ * finished and {@link Brick#getImage()} must be safe to call from any thread. Bricks with no image are exported as
+ * placeholders. If their images come from a {@link BrickImageLoader}, give it to the exporter and it will wait for
+ * them to be decoded first; either way, {@link #exportPng(OutputStream)} reports whether any placeholders were drawn.
+ *
+ * @author  Saul Johnson
+ */
+public class DesignerExporter {
+
+    /**
+     * The designer to export.
+     */
+    private final Designer designer;
+
+    /**
+     * The scale at which the designer is exported, where 1.0 is actual size.
+     */
+    private double scale;
+
+    /**
+     * The width and height of each rendered tile in pixels.
+     */
+    private int tileSize;
+
+    /**
+     * The margin left around the bricks in the exported image, in model pixels.
+     */
+    private int margin;
+
+    /**
+     * The pool tiles are rendered on, or null to use a temporary pool for each export.
+     */
+    private ForkJoinPool pool;
+
+    /**
+     * The loader to wait on for brick images that are still being decoded, or null to not wait.
+     */
+    private BrickImageLoader imageLoader;
+
+    /**
+     * The longest time to wait for brick images to be decoded, in milliseconds.
+     */
+    private long imageTimeout;
+
+    /**
+     * Initialises a new instance of an exporter for the contents of a designer.
+     *
+     * @param designer  the designer to export
+     */
+    public DesignerExporter(Designer designer) {
+        if (designer == null) {
+            throw new IllegalArgumentException("Designer to export cannot be null.");
+        }
+        this.designer = designer;
+        scale = 1.0;
+        tileSize = 256;
+        margin = 0;
+        imageTimeout = 30000;
+    }
+
+    /**
+     * Gets the scale at which the designer is exported, where 1.0 is actual size.
+     *
+     * @return  the scale
+     */
+    @SuppressWarnings("unused") // API method.
+    public double getScale() {
+        return scale;
+    }
+
+    /**
+     * Sets the scale at which the designer is exported, where 1.0 is actual size.
+     *
+     * @param scale the scale
+     * @throws IllegalArgumentException if the scale is not a positive number
+     */
+    @SuppressWarnings("unused") // API method.
+    public void setScale(double scale) {
+        if (!(scale > 0) || Double.isInfinite(scale)) {
+            throw new IllegalArgumentException("Scale must be a positive number.");
+        }
+        this.scale = scale;
+    }
+
+    /**
+     * Gets the width and height of each tile rendered in parallel, in pixels.
+     *
+     * @return  the tile size
+     */
+    @SuppressWarnings("unused") // API method.
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Sets the width and height of each tile rendered in parallel, in pixels.
+     *
+     * @param tileSize  the tile size
+     * @throws IllegalArgumentException if the tile size is not positive
+     */
+    @SuppressWarnings("unused") // API method.
+    public void setTileSize(int tileSize) {
+        if (tileSize <= 0) {
+            throw new IllegalArgumentException("Tile size must be positive.");
+        }
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * Gets the margin left around the bricks in the exported image, in model pixels.
+     *
+     * @return  the margin
+     */
+    @SuppressWarnings("unused") // API method.
+    public int getMargin() {
+        return margin;
+    }
+
+    /**
+     * Sets the margin left around the bricks in the exported image, in model pixels.
+     *
+     * @param margin    the margin
+     * @throws IllegalArgumentException if the margin is negative
+     */
+    @SuppressWarnings("unused") // API method.
+    public void setMargin(int margin) {
+        if (margin < 0) {
+            throw new IllegalArgumentException("Margin cannot be negative.");
+        }
+        this.margin = margin;
+    }
+
+    /**
+     * Gets the fork-join pool tiles are rendered on.
+     *
+     * @return  the pool, or null if a temporary pool is created for each export
+     */
+    @SuppressWarnings("unused") // API method.
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Sets the fork-join pool tiles are rendered on.
+     *
+     * @param pool  the pool, or null to create a temporary pool for each export
+     */
+    @SuppressWarnings("unused") // API method.
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Gets the loader the export waits on for brick images that are still being decoded.
+     *
+     * @return  the loader, or null if the export does not wait for images
+     */
+    @SuppressWarnings("unused") // API method.
+    public BrickImageLoader getImageLoader() {
+        return imageLoader;
+    }
+
+    /**
+     * Sets the loader the export waits on for brick images that are still being decoded. Before rendering, every brick
+     * is asked for its image so that any not yet cached start decoding.
+     *
+     * @param imageLoader   the loader, or null to export bricks whose images are not ready as placeholders
+     */
+    @SuppressWarnings("unused") // API method.
+    public void setImageLoader(BrickImageLoader imageLoader) {
+        this.imageLoader = imageLoader;
+    }
+
+    /**
+     * Gets the longest time the export waits for brick images to be decoded.
+     *
+     * @return  the timeout in milliseconds
+     */
+    @SuppressWarnings("unused") // API method.
+    public long getImageTimeout() {
+        return imageTimeout;
+    }
+
+    /**
+     * Sets the longest time the export waits for brick images to be decoded, after which bricks whose images are still
+     * not ready are exported as placeholders.
+     *
+     * @param imageTimeout  the timeout in milliseconds
+     * @throws IllegalArgumentException if the timeout is negative
+     */
+    @SuppressWarnings("unused") // API method.
+    public void setImageTimeout(long imageTimeout) {
+        if (imageTimeout < 0) {
+            throw new IllegalArgumentException("Image timeout cannot be negative.");
+        }
+        this.imageTimeout = imageTimeout;
+    }
+
+    /**
+     * Gets the region of the designer that will be exported in model coordinates, which is the smallest rectangle
+     * containing every brick and graph store node, plus the margin.
+     *
+     * @return  the region that will be exported
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public Rectangle getExportBounds() {
+        final List<Brick<?>> bricks = designer.getBrickList();
+        final Rectangle bounds = new Rectangle();
+        for (int i = 0; i < bricks.size(); i++) {
+            final Brick<?> brick = bricks.get(i);
+            if (i == 0) {
+                bounds.setBounds(brick.getX(), brick.getY(), brick.getWidth(), brick.getHeight());
+            } else {
+                bounds.add(brick.getX(), brick.getY());
+                bounds.add(brick.getX() + brick.getWidth(), brick.getY() + brick.getHeight());
+            }
+        }
+
+        // Include graph store nodes, if any.
+        final GraphStore graphStore = designer.getGraphStore();
+        if (graphStore != null && graphStore.getNodeCount() > 0) {
+            if (bricks.isEmpty()) {
+                bounds.setBounds(graphStore.getBounds());
+            } else {
+                bounds.add(graphStore.getBounds());
+            }
+        }
+        bounds.grow(margin, margin);
+        return bounds;
+    }
+
+    /**
+     * Exports the designer as a PNG image to a file.
+     *
+     * @param file  the file to write to
+     * @return      true if every brick was exported with its image, or false if some were exported as placeholders
+     * @throws IOException if an I/O error occurs, or the thread is interrupted while waiting for brick images
+     */
+    @SuppressWarnings("unused") // API method.
+    public boolean exportPng(File file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            return exportPng(out);
+        }
+    }
+
+    /**
+     * Exports the designer as a PNG image to a stream, which is flushed but not closed. Bricks whose images could not
+     * be decoded, or were not ready in time, are exported as placeholders.
+     *
+     * @param out   the stream to write to
+     * @return      true if every brick was exported with its image, or false if some were exported as placeholders
+     * @throws IOException if an I/O error occurs, or the thread is interrupted while waiting for brick images
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public boolean exportPng(OutputStream out) throws IOException {
+
+        // Work out size of image, which must be at least a pixel.
+        final Rectangle bounds = getExportBounds();
+        final long width = Math.max(1, (long) Math.ceil(bounds.width * scale));
+        final long height = Math.max(1, (long) Math.ceil(bounds.height * scale));
+        if (width > Integer.MAX_VALUE / 4 || height > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Exported image would be too large.");
+        }
+        final Export export = new Export((int) width, (int) height, scale, -bounds.x * scale, -bounds.y * scale,
+                tileSize);
+
+        // Grid tile is built lazily, so make sure that happens here rather than racing on worker threads.
+        designer.getGridTile();
+        if (imageLoader != null) {
+            awaitImages();
+        }
+
+        // Render the first band, then render each subsequent band while writing out the one before it.
+        final ForkJoinPool exportPool = pool != null ? pool : new ForkJoinPool();
+        try {
+            final PngStreamWriter writer = new PngStreamWriter(out, export.width, export.height);
+            try {
+                final int bandCount = (export.height + export.tileSize - 1) / export.tileSize;
+                final BufferedImage[][] bands = new BufferedImage[][] {export.createBand(), export.createBand()};
+                ForkJoinTask<Void> pending = exportPool.submit(new BandTask(export, 0, bands[0]));
+                for (int band = 0; band < bandCount; band++) {
+                    pending.join();
+                    pending = band + 1 < bandCount
+                            ? exportPool.submit(new BandTask(export, band + 1, bands[(band + 1) % 2])) : null;
+                    export.writeBand(writer, band, bands[band % 2]);
+                }
+                writer.finish();
+                return export.missingImages.get() == 0;
+            } finally {
+
+                // Release the native memory of the compressor even if the export fails part way through.
+                writer.close();
+            }
+        } finally {
+            if (exportPool != pool) {
+                exportPool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Asks every brick for its image so that any not yet cached start decoding, then waits for the image loader to
+     * finish decoding them or for the timeout to elapse.
+     *
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    private void awaitImages() throws InterruptedIOException {
+        final List<Brick<?>> bricks = designer.getBrickList();
+        for (int i = 0; i < bricks.size(); i++) {
+            bricks.get(i).getImage();
+        }
+        try {
+            imageLoader.awaitIdle(imageTimeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for brick images to be decoded.");
+        }
+    }
+
+    /**
+     * Holds the dimensions and view of a single export in progress.
+     */
+    private final class Export {
+
+        /**
+         * The width of the exported image in pixels.
+         */
+        final int width;
+
+        /**
+         * The height of the exported image in pixels.
+         */
+        final int height;
+
+        /**
+         * The scale of the exported view.
+         */
+        final double scale;
+
+        /**
+         * The horizontal pan offset of the exported view.
+         */
+        final double panX;
+
+        /**
+         * The vertical pan offset of the exported view.
+         */
+        final double panY;
+
+        /**
+         * The width and height of each tile in pixels.
+         */
+        final int tileSize;
+
+        /**
+         * The number of tiles across a band.
+         */
+        final int columns;
+
+        /**
+         * The reusable buffer holding a row being written out.
+         */
+        final int[] row;
+
+        /**
+         * The number of bricks exported as placeholders because their images were not ready.
+         */
+        final AtomicInteger missingImages;
+
+        /**
+         * Initialises a new instance of an export in progress.
+         *
+         * @param width     the width of the exported image in pixels
+         * @param height    the height of the exported image in pixels
+         * @param scale     the scale of the exported view
+         * @param panX      the horizontal pan offset of the exported view
+         * @param panY      the vertical pan offset of the exported view
+         * @param tileSize  the width and height of each tile in pixels
+         */
+        Export(int width, int height, double scale, double panX, double panY, int tileSize) {
+            this.width = width;
+            this.height = height;
+            this.scale = scale;
+            this.panX = panX;
+            this.panY = panY;
+            this.tileSize = tileSize;
+            columns = (width + tileSize - 1) / tileSize;
+            row = new int[width];
+            missingImages = new AtomicInteger();
+        }
+
+        /**
+         * Creates the tile images making up a single band.
+         *
+         * @return  the tile images, left to right
+         */
+        BufferedImage[] createBand() {
+            final BufferedImage[] tiles = new BufferedImage[columns];
+            for (int i = 0; i < columns; i++) {
+                tiles[i] = new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_INT_ARGB);
+            }
+            return tiles;
+        }
+
+        /**
+         * Renders a single tile of the exported image with a renderer of its own, so tiles can be rendered in parallel.
+         *
+         * @param tile      the image to render into
+         * @param column    the column of the tile within its band
+         * @param band      the index of the band the tile belongs to
+         */
+        void renderTile(BufferedImage tile, int column, int band) {
+            final SceneRenderer renderer = new SceneRenderer(designer, false);
+            renderer.setView(scale, panX, panY);
+            final int x = column * tileSize;
+            final int y = band * tileSize;
+            final Rectangle region = new Rectangle(x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y));
+            final Graphics2D g = tile.createGraphics();
+            g.translate(-x, -y);
+            g.clip(region);
+            g.setComposite(AlphaComposite.Src);
+            renderer.paintUnderlay(g, region, false);
+            renderer.applyViewTransform(g);
+            renderer.paintBricks(g, renderer.viewToModel(region), false);
+            g.dispose();
+            missingImages.addAndGet(renderer.getMissingImageCount());
+        }
+
+        /**
+         * Writes out the rows of a rendered band.
+         *
+         * @param writer    the writer to write rows to
+         * @param band      the index of the band
+         * @param tiles     the rendered tile images of the band
+         * @throws IOException if an I/O error occurs
+         */
+        void writeBand(PngStreamWriter writer, int band, BufferedImage[] tiles) throws IOException {
+            final int rows = Math.min(tileSize, height - band * tileSize);
+            for (int y = 0; y < rows; y++) {
+                for (int i = 0; i < columns; i++) {
+                    final int[] pixels = ((DataBufferInt) tiles[i].getRaster().getDataBuffer()).getData();
+                    System.arraycopy(pixels, y * tileSize, row, i * tileSize, Math.min(tileSize, width - i * tileSize));
+                }
+                writer.writeRow(row, 0);
+            }
+        }
+    }
+
+    /**
+     * Renders the tiles of a band in parallel.
+     */
+    @SuppressWarnings("serial") // Never serialised.
+    private static final class BandTask extends RecursiveAction {
+
+        /**
+         * The export in progress.
+         */
+        private final Export export;
+
+        /**
+         * The index of the band to render.
+         */
+        private final int band;
+
+        /**
+         * The tile images to render into.
+         */
+        private final BufferedImage[] tiles;
+
+        /**
+         * Initialises a new instance of a task that renders the tiles of a band in parallel.
+         *
+         * @param export    the export in progress
+         * @param band      the index of the band to render
+         * @param tiles     the tile images to render into
+         */
+        BandTask(Export export, int band, BufferedImage[] tiles) {
+            this.export = export;
+            this.band = band;
+            this.tiles = tiles;
+        }
+
+        @Override
+        protected void compute() {
+            final List<TileTask> tasks = new ArrayList<>(tiles.length);
+            for (int i = 0; i < tiles.length; i++) {
+                tasks.add(new TileTask(export, tiles[i], i, band));
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    /**
+     * Renders a single tile.
+     */
+    @SuppressWarnings("serial") // Never serialised.
+    private static final class TileTask extends RecursiveAction {
+
+        /**
+         * The export in progress.
+         */
+        private final Export export;
+
+        /**
+         * The tile image to render into.
+         */
+        private final BufferedImage tile;
+
+        /**
+         * The column of the tile within its band.
+         */
+        private final int column;
+
+        /**
+         * The index of the band the tile belongs to.
+         */
+        private final int band;
+
+        /**
+         * Initialises a new instance of a task that renders a single tile.
+         *
+         * @param export    the export in progress
+         * @param tile      the tile image to render into
+         * @param column    the column of the tile within its band
+         * @param band      the index of the band the tile belongs to
+         */
+        TileTask(Export export, BufferedImage tile, int column, int band) {
+            this.export = export;
+            this.tile = tile;
+            this.column = column;
+            this.band = band;
+        }
+
+        @Override
+        protected void compute() {
+            export.renderTile(tile, column, band);
+        }
+    }
+}
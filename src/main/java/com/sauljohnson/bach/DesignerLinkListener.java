@@ -0,0 +1,27 @@
+package com.sauljohnson.bach;
+
+/**
+ * Observes every link made or broken on a {@link Designer}, however it came about. Unlike
+ * {@link DesignerEventListener#linkCreated(Brick, Brick)}, this includes links made by calling
+ * {@link Brick#addConnection(Brick)} directly, and it is always told synchronously as the link changes.
+ *
+ * @author  Saul Johnson
+ */
+interface DesignerLinkListener {
+
+    /**
+     * Called once a link between two bricks, at least one of which is on the designer, has been made.
+     *
+     * @param first     the first brick
+     * @param second    the second brick
+     */
+    void linkAdded(Brick<?> first, Brick<?> second);
+
+    /**
+     * Called once a link between two bricks, at least one of which is on the designer, has been broken.
+     *
+     * @param first     the first brick
+     * @param second    the second brick
+     */
+    void linkRemoved(Brick<?> first, Brick<?> second);
+}
@@ -0,0 +1,22 @@
+package com.sauljohnson.bach;
+
+import java.util.List;
+
+/**
+ * A {@link DesignerEventListener} that is told about moved bricks all at once, rather than one event per brick. This
+ * suits listeners that react to whole groups of bricks being dragged together.
+ *
+ * Listeners of this type never receive {@link #brickMoved(Brick, java.awt.Point)}. All other events are raised as
+ * usual.
+ *
+ * @author  Saul Johnson
+ */
+public interface DesignerMoveListener extends DesignerEventListener {
+
+    /**
+     * Raised once per pass of the event queue with every brick on the designer that was moved during that pass.
+     *
+     * @param bricks    an unmodifiable list of the bricks moved, each of which may be read for its new position
+     */
+    void bricksMoved(List<Brick<?>> bricks);
+}
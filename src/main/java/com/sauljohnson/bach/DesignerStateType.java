@@ -13,7 +13,7 @@ public enum DesignerStateType {
     DEFAULT,
 
     /**
-     * Represents the designer state in which a brick is being dragged.
+     * Represents the designer state in which the selected bricks are being dragged.
      */
     BRICK_DRAGGING,
 
@@ -30,5 +30,10 @@ public enum DesignerStateType {
     /**
      * Represents a locked designer state in which no changes can be made.
      */
-    LOCKED
+    LOCKED,
+
+    /**
+     * Represents the designer state in which a marquee is being dragged out to select the bricks inside it.
+     */
+    MARQUEE_SELECTING
 }
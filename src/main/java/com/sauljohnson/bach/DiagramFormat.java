@@ -0,0 +1,381 @@
+package com.sauljohnson.bach;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves the bricks on a {@link Designer} to a compact, versioned binary file and loads them back again. The model
+ * object of each brick is written and read by the {@link BrickCodec} registered for its type.
+ *
+ * A file holds a header, a table of brick type names, then each brick as its type, position, z-index and model object,
+ * from bottom-most to top-most, followed by the links between them with each link written once. All values are
+ * big-endian. Files are loaded by mapping them into memory, so the only objects created while loading are the bricks
+ * themselves and whatever their codecs create.
+ *
+ * Bricks in a {@link GraphStore} are not saved unless they have been materialised onto the designer.
+ *
+ * @author  Saul Johnson
+ */
+public class DiagramFormat {
+
+    /**
+     * The value every diagram file starts with, which spells "BACH" in ASCII.
+     */
+    private static final int MAGIC = 0x42414348;
+
+    /**
+     * The version of the format written by this class. Files written with later versions cannot be loaded.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The codecs used to save and restore model objects, keyed by brick type name.
+     */
+    private final Map<String, BrickCodec> codecs;
+
+    /**
+     * Initialises a new instance of a diagram format with no codecs registered.
+     */
+    public DiagramFormat() {
+        codecs = new HashMap<>();
+    }
+
+    /**
+     * Registers the codec used to save and restore bricks of a type, replacing any already registered for it.
+     *
+     * @param typeName  the type name of the bricks, as returned by {@link Brick#getTypeName()}
+     * @param codec     the codec to use
+     * @throws IllegalArgumentException if the type name or codec is null
+     */
+    @SuppressWarnings("unused") // API method.
+    public void registerCodec(String typeName, BrickCodec codec) {
+        if (typeName == null || codec == null) {
+            throw new IllegalArgumentException("Type name and codec cannot be null.");
+        }
+        codecs.put(typeName, codec);
+    }
+
+    /**
+     * Saves every brick on a designer to a file.
+     *
+     * @param designer  the designer to save
+     * @param file      the file to write to
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if no codec is registered for the type of a brick on the designer
+     */
+    @SuppressWarnings("unused") // API method.
+    public void save(Designer designer, File file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            save(designer.getBricks(), out);
+        }
+    }
+
+    /**
+     * Saves bricks to a stream, which is flushed but not closed. Links to bricks that are not being saved are left
+     * out.
+     *
+     * @param bricksToSave  the bricks to save, from bottom-most to top-most
+     * @param out           the stream to write to
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if no codec is registered for the type of one of the bricks, or a brick is
+     *                                  given more than once
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public void save(Collection<? extends Brick> bricksToSave, OutputStream out) throws IOException {
+
+        // Number the bricks and their types, checking every type can be saved before writing anything.
+        final Map<Brick<?>, Integer> brickNumbers = new IdentityHashMap<>();
+        final Map<String, Integer> typeNumbers = new HashMap<>();
+        final List<String> typeNames = new ArrayList<>();
+        final List<BrickCodec> typeCodecs = new ArrayList<>();
+        final int[] brickTypes = new int[bricksToSave.size()];
+        for (Brick<?> brick : bricksToSave) {
+            final String typeName = brick.getTypeName();
+            Integer type = typeNumbers.get(typeName);
+            if (type == null) {
+                final BrickCodec codec = codecs.get(typeName);
+                if (codec == null) {
+                    throw new IllegalArgumentException("No codec is registered for brick type '" + typeName + "'.");
+                }
+                type = typeNames.size();
+                typeNumbers.put(typeName, type);
+                typeNames.add(typeName);
+                typeCodecs.add(codec);
+            }
+            brickTypes[brickNumbers.size()] = type;
+            if (brickNumbers.put(brick, brickNumbers.size()) != null) {
+                throw new IllegalArgumentException("Specified brick is given more than once so cannot be saved.");
+            }
+        }
+
+        // Header and type table.
+        final DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(typeNames.size());
+        for (String typeName : typeNames) {
+            final byte[] bytes = typeName.getBytes(StandardCharsets.UTF_8);
+            data.writeInt(bytes.length);
+            data.write(bytes);
+        }
+
+        // Bricks, with each model object written to a reusable buffer first so its length can be written before it.
+        final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        final DataOutputStream payloadData = new DataOutputStream(payload);
+        final IntList links = new IntList();
+        data.writeInt(brickNumbers.size());
+        int number = 0;
+        for (Brick<?> brick : bricksToSave) {
+            payload.reset();
+            typeCodecs.get(brickTypes[number]).write(brick, payloadData);
+            payloadData.flush();
+            data.writeInt(brickTypes[number]);
+            data.writeInt(brick.getX());
+            data.writeInt(brick.getY());
+            data.writeInt(brick.zIndex);
+            data.writeInt(payload.size());
+            payload.writeTo(data);
+
+            // Each link is seen from both ends, so only keep it from the end saved first.
+            for (LinkedIdentitySet.Node<Brick<?>> node = brick.getFirstConnection(); node != null;
+                 node = node.getNext()) {
+                final Integer other = brickNumbers.get(node.getItem());
+                if (other != null && other > number) {
+                    links.add(number);
+                    links.add(other);
+                }
+            }
+            number++;
+        }
+
+        // Links.
+        data.writeInt(links.size() / 2);
+        for (int i = 0; i < links.size(); i++) {
+            data.writeInt(links.get(i));
+        }
+        data.flush();
+    }
+
+    /**
+     * Loads the bricks saved in a file onto a designer as a single batch, on top of any bricks already there. Their
+     * saved z-indices are restored as they were onto an empty designer, and otherwise shifted so that the bottom-most
+     * loaded brick sits on top of the bricks already there.
+     *
+     * @param file      the file to read from
+     * @param designer  the designer to add the bricks to
+     * @return          the bricks loaded, from bottom-most to top-most
+     * @throws IOException if an I/O error occurs, the file is not a valid diagram, or no codec is registered for the
+     *                     type of a brick in it
+     * @throws IllegalArgumentException if the bricks cannot be stacked on top of those already on the designer
+     */
+    @SuppressWarnings("unused") // API method.
+    public List<Brick<?>> load(File file, final Designer designer) throws IOException {
+        final Diagram diagram = read(file);
+        final List<Brick<?>> loaded = Collections.unmodifiableList(Arrays.asList(diagram.bricks));
+        designer.batch(new Runnable() {
+            @Override
+            public void run() {
+
+                // Saved z-indices are offset to stack on top, which must be worked out before anything is added.
+                int lowest = Integer.MAX_VALUE;
+                int highest = Integer.MIN_VALUE;
+                for (int i = 0; i < diagram.zIndices.length; i++) {
+                    lowest = Math.min(lowest, diagram.zIndices[i]);
+                    highest = Math.max(highest, diagram.zIndices[i]);
+                }
+                final int offset = diagram.zIndices.length > 0 ? designer.getImportZOffset(lowest, highest) : 0;
+                designer.addBricks(loaded);
+
+                // Bricks are added in saved order, so restoring z-indices in the same order keeps them stacked. Every
+                // brick needs restoring, as added bricks take the z-index of whatever was top-most on the designer.
+                for (int i = 0; i < diagram.bricks.length; i++) {
+                    designer.setZIndex(diagram.bricks[i], diagram.zIndices[i] + offset);
+                }
+            }
+        });
+        return loaded;
+    }
+
+    /**
+     * Loads the bricks saved in a file, linked to one another but not added to any designer.
+     *
+     * @param file  the file to read from
+     * @return      the bricks loaded, from bottom-most to top-most
+     * @throws IOException if an I/O error occurs, the file is not a valid diagram, or no codec is registered for the
+     *                     type of a brick in it
+     */
+    @SuppressWarnings("unused") // API method.
+    public List<Brick<?>> loadBricks(File file) throws IOException {
+        return Collections.unmodifiableList(Arrays.asList(read(file).bricks));
+    }
+
+    /**
+     * Maps a diagram file into memory and reads it.
+     *
+     * @param file  the file to read from
+     * @return      the diagram read
+     * @throws IOException if an I/O error occurs, the file is not a valid diagram, or no codec is registered for the
+     *                     type of a brick in it
+     */
+    Diagram read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Diagram file is too large to map into memory.");
+            }
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            try {
+                return read(buffer);
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Diagram file is truncated or corrupt.", e);
+            }
+        }
+    }
+
+    /**
+     * Reads a diagram from a buffer.
+     *
+     * @param buffer    the buffer to read from
+     * @return          the diagram read
+     * @throws IOException if the buffer does not hold a valid diagram, or no codec is registered for the type of a
+     *                     brick in it
+     */
+    private Diagram read(ByteBuffer buffer) throws IOException {
+
+        // Header.
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("File is not a diagram.");
+        }
+        final int version = buffer.getInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported diagram format version " + version + ".");
+        }
+
+        // Type table, looking up the codec for each type up front.
+        final int typeCount = readCount(buffer, 4);
+        final String[] typeNames = new String[typeCount];
+        final BrickCodec[] typeCodecs = new BrickCodec[typeCount];
+        for (int i = 0; i < typeCount; i++) {
+            final byte[] bytes = new byte[readCount(buffer, 1)];
+            buffer.get(bytes);
+            typeNames[i] = new String(bytes, StandardCharsets.UTF_8);
+            typeCodecs[i] = codecs.get(typeNames[i]);
+            if (typeCodecs[i] == null) {
+                throw new IOException("No codec is registered for brick type '" + typeNames[i] + "'.");
+            }
+        }
+
+        // Bricks, with each codec limited to reading its own model object.
+        final int brickCount = readCount(buffer, 20);
+        final Diagram diagram = new Diagram(brickCount);
+        for (int i = 0; i < brickCount; i++) {
+            final int type = buffer.getInt();
+            if (type < 0 || type >= typeCount) {
+                throw new IOException("Diagram file is truncated or corrupt.");
+            }
+            final int x = buffer.getInt();
+            final int y = buffer.getInt();
+            diagram.zIndices[i] = buffer.getInt();
+            final int length = readCount(buffer, 1);
+            final int end = buffer.position() + length;
+            buffer.limit(end);
+            try {
+                diagram.bricks[i] = typeCodecs[type].read(buffer, x, y);
+            } finally {
+                buffer.limit(buffer.capacity());
+            }
+            if (diagram.bricks[i] == null) {
+                throw new IOException("Codec for brick type '" + typeNames[type] + "' did not create a brick.");
+            }
+            buffer.position(end);
+        }
+
+        // Links.
+        final int linkCount = readCount(buffer, 8);
+        for (int i = 0; i < linkCount; i++) {
+            final int first = buffer.getInt();
+            final int second = buffer.getInt();
+            if (first < 0 || first >= brickCount || second < 0 || second >= brickCount || first == second) {
+                throw new IOException("Diagram file is truncated or corrupt.");
+            }
+            try {
+                diagram.bricks[first].addConnection(diagram.bricks[second]);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Diagram file contains a link that cannot be made.", e);
+            }
+        }
+        return diagram;
+    }
+
+    /**
+     * Reads a count from a buffer, checking it against the number of bytes left so that a corrupt file cannot cause a
+     * huge allocation.
+     *
+     * @param buffer            the buffer to read from
+     * @param minimumItemSize   the fewest bytes each item counted can take up
+     * @return                  the count
+     * @throws IOException if the count is negative or there are not enough bytes left for that many items
+     */
+    private static int readCount(ByteBuffer buffer, int minimumItemSize) throws IOException {
+        final int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / minimumItemSize) {
+            throw new IOException("Diagram file is truncated or corrupt.");
+        }
+        return count;
+    }
+
+    /**
+     * Gets the codec registered for a brick type.
+     *
+     * @param typeName  the type name of the bricks
+     * @return          the codec registered for the type, or null if there is none
+     */
+    BrickCodec getCodec(String typeName) {
+        return codecs.get(typeName);
+    }
+
+    /**
+     * A diagram read from a file.
+     */
+    static final class Diagram {
+
+        /**
+         * The bricks in the diagram, from bottom-most to top-most.
+         */
+        final Brick<?>[] bricks;
+
+        /**
+         * The z-index of each brick in the diagram.
+         */
+        final int[] zIndices;
+
+        /**
+         * Initialises a new instance of a diagram with room for the given number of bricks.
+         *
+         * @param brickCount    the number of bricks in the diagram
+         */
+        Diagram(int brickCount) {
+            bricks = new Brick<?>[brickCount];
+            zIndices = new int[brickCount];
+        }
+    }
+}
@@ -0,0 +1,867 @@
+package com.sauljohnson.bach;
+
+import java.awt.Point;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Records the changes made to a {@link Designer} in an append-only log alongside a snapshot saved with a
+ * {@link DiagramFormat}, so that edits survive a crash and a large diagram can be saved without rewriting it in full.
+ *
+ * The journal keeps its files in a directory of its own. Each time the log grows past the compaction threshold, the
+ * whole diagram is written to a new snapshot and the log is started afresh, which caps the time taken to recover.
+ * Opening a journal restores the latest snapshot onto the designer and replays the log written after it. A record
+ * torn by a crash part way through writing it is detected by its checksum and discarded.
+ *
+ * The journal records the events the designer raises (bricks being added, removed and moved) along with every link
+ * made or broken between bricks on the designer, including those made by calling {@link Brick#addConnection(Brick)}
+ * directly. Changes to z-order raise no events and so are only captured by the next snapshot. The designer must
+ * deliver events synchronously, which is the default, and the journal should only be used from the event dispatch
+ * thread.
+ *
+ * @author  Saul Johnson
+ */
+public class DiagramJournal implements DesignerEventListener {
+
+    /**
+     * The value every log file starts with, which spells "BJNL" in ASCII.
+     */
+    private static final int MAGIC = 0x424A4E4C;
+
+    /**
+     * The version of the log format written by this class. Logs written with later versions cannot be replayed.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The number of records after which the diagram is compacted into a new snapshot by default.
+     */
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 10000;
+
+    /**
+     * The record type for a brick being added.
+     */
+    private static final byte BRICK_ADDED = 1;
+
+    /**
+     * The record type for a brick being removed.
+     */
+    private static final byte BRICK_REMOVED = 2;
+
+    /**
+     * The record type for a brick being moved.
+     */
+    private static final byte BRICK_MOVED = 3;
+
+    /**
+     * The record type for a link being created.
+     */
+    private static final byte LINK_CREATED = 4;
+
+    /**
+     * The record type for a link being deleted.
+     */
+    private static final byte LINK_DELETED = 5;
+
+    /**
+     * The size of the header at the start of each record, holding its length and checksum.
+     */
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    /**
+     * The designer whose changes are recorded.
+     */
+    private final Designer designer;
+
+    /**
+     * The format snapshots are saved in, which also holds the codecs for model objects.
+     */
+    private final DiagramFormat format;
+
+    /**
+     * The directory holding the snapshots and logs.
+     */
+    private final File directory;
+
+    /**
+     * The number by which each brick on the designer is referred to in the log.
+     */
+    private final Map<Brick<?>, Integer> brickIds;
+
+    /**
+     * The number to give the next brick added.
+     */
+    private int nextBrickId;
+
+    /**
+     * The generation of the current snapshot and log, which increases each time the diagram is compacted.
+     */
+    private long generation;
+
+    /**
+     * The stream the current log is appended to.
+     */
+    private FileOutputStream log;
+
+    /**
+     * The number of records in the current log.
+     */
+    private int recordCount;
+
+    /**
+     * The number of records after which the diagram is compacted, or zero to compact only when asked.
+     */
+    private int compactionThreshold;
+
+    /**
+     * The reusable buffer each record is built up in before being appended in one write.
+     */
+    private final RecordBuffer record;
+
+    /**
+     * The output for writing to the record buffer.
+     */
+    private final DataOutputStream recordData;
+
+    /**
+     * The reusable buffer model objects are written to, so their length can be written before them.
+     */
+    private final ByteArrayOutputStream payload;
+
+    /**
+     * The output for writing to the model object buffer.
+     */
+    private final DataOutputStream payloadData;
+
+    /**
+     * The reusable checksum calculator for records.
+     */
+    private final CRC32 checksum;
+
+    /**
+     * The error that stopped changes being recorded, or null if there has been none since the last compaction.
+     */
+    private IOException failure;
+
+    /**
+     * Whether the journal has been closed.
+     */
+    private boolean closed;
+
+    /**
+     * The listener through which the designer reports every link made or broken.
+     */
+    private final DesignerLinkListener linkRecorder;
+
+    /**
+     * Initialises a new instance of a journal for a designer.
+     *
+     * @param designer  the designer whose changes to record
+     * @param format    the format to save snapshots in
+     * @param directory the directory holding the snapshots and logs
+     */
+    private DiagramJournal(Designer designer, DiagramFormat format, File directory) {
+        this.designer = designer;
+        this.format = format;
+        this.directory = directory;
+        brickIds = new IdentityHashMap<>();
+        compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+        record = new RecordBuffer();
+        recordData = new DataOutputStream(record);
+        payload = new ByteArrayOutputStream();
+        payloadData = new DataOutputStream(payload);
+        checksum = new CRC32();
+        linkRecorder = new LinkRecorder();
+    }
+
+    /**
+     * Opens the journal in a directory and starts recording the changes made to a designer. If the directory already
+     * holds a journal, the diagram in it is first restored onto the designer, which must be empty. Otherwise the
+     * contents of the designer are saved as the first snapshot.
+     *
+     * @param designer  the designer whose changes to record
+     * @param format    the format to save snapshots in, with a codec registered for every type of brick used
+     * @param directory the directory to keep the journal in, which is created if it does not exist
+     * @return          the journal
+     * @throws IOException if an I/O error occurs or the journal cannot be read
+     * @throws IllegalArgumentException if any argument is null, or the directory holds a journal and the designer is
+     *                                  not empty
+     */
+    @SuppressWarnings("unused") // API method.
+    public static DiagramJournal open(Designer designer, DiagramFormat format, File directory) throws IOException {
+        if (designer == null || format == null || directory == null) {
+            throw new IllegalArgumentException("Designer, format and directory cannot be null.");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create journal directory " + directory + ".");
+        }
+        final DiagramJournal journal = new DiagramJournal(designer, format, directory);
+        journal.recover();
+        designer.registerDesignerEventListener(journal);
+        designer.registerLinkListener(journal.linkRecorder);
+        return journal;
+    }
+
+    /**
+     * Gets the number of records after which the diagram is compacted into a new snapshot.
+     *
+     * @return  the number of records, or zero if the diagram is only compacted when asked
+     */
+    @SuppressWarnings("unused") // API method.
+    public synchronized int getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    /**
+     * Sets the number of records after which the diagram is compacted into a new snapshot.
+     *
+     * @param compactionThreshold   the number of records, or zero to compact only when asked
+     * @throws IllegalArgumentException if the number of records is negative
+     */
+    @SuppressWarnings("unused") // API method.
+    public synchronized void setCompactionThreshold(int compactionThreshold) {
+        if (compactionThreshold < 0) {
+            throw new IllegalArgumentException("Compaction threshold cannot be negative.");
+        }
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Saves the whole diagram to a new snapshot and starts a new, empty log. This also recovers from any earlier error
+     * that stopped changes being recorded.
+     *
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalStateException if the journal has been closed
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public synchronized void compact() throws IOException {
+        checkOpen();
+        final long next = generation + 1;
+
+        // Write the snapshot in full before moving it into place, so a crash leaves either it or the last one.
+        final File temporary = new File(directory, "snapshot-" + next + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temporary)) {
+            final BufferedOutputStream buffered = new BufferedOutputStream(out);
+            format.save(designer.getBricks(), buffered);
+            buffered.flush();
+            out.getChannel().force(true);
+        }
+        Files.move(temporary.toPath(), getSnapshotFile(next).toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+        // Start the new log, then let go of the old generation.
+        final FileOutputStream nextLog = createLog(getLogFile(next));
+        if (log != null) {
+            log.close();
+        }
+        log = nextLog;
+        generation = next;
+        deleteEarlierGenerations();
+
+        // Bricks are numbered by their position in the snapshot.
+        brickIds.clear();
+        final List<Brick<?>> bricks = designer.getBrickList();
+        for (int i = 0; i < bricks.size(); i++) {
+            brickIds.put(bricks.get(i), i);
+        }
+        nextBrickId = bricks.size();
+        recordCount = 0;
+        failure = null;
+    }
+
+    /**
+     * Forces the records written so far onto the storage device, so they survive the whole system crashing rather than
+     * just the application.
+     *
+     * @throws IOException if an I/O error occurs, or an earlier error stopped changes being recorded
+     * @throws IllegalStateException if the journal has been closed
+     */
+    @SuppressWarnings("unused") // API method.
+    public synchronized void sync() throws IOException {
+        checkOpen();
+        if (failure != null) {
+            throw failure;
+        }
+        log.getChannel().force(false);
+    }
+
+    /**
+     * Stops recording changes to the designer and closes the log.
+     *
+     * @throws IOException if an I/O error occurs, or an earlier error stopped changes being recorded
+     */
+    @SuppressWarnings("unused") // API method.
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        designer.unregisterDesignerEventListener(this);
+        designer.unregisterLinkListener(linkRecorder);
+        log.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public synchronized void brickAdded(Brick brick) {
+        if (!isRecording()) {
+            return;
+        }
+        final BrickCodec codec = format.getCodec(brick.getTypeName());
+        if (codec == null) {
+            throw new IllegalArgumentException("No codec is registered for brick type '" + brick.getTypeName()
+                    + "'.");
+        }
+        final int id = nextBrickId++;
+        brickIds.put(brick, id);
+        try {
+            payload.reset();
+            codec.write(brick, payloadData);
+            payloadData.flush();
+            final byte[] typeName = brick.getTypeName().getBytes(StandardCharsets.UTF_8);
+            beginRecord(BRICK_ADDED);
+            recordData.writeInt(id);
+            recordData.writeInt(typeName.length);
+            recordData.write(typeName);
+            recordData.writeInt(brick.getX());
+            recordData.writeInt(brick.getY());
+            recordData.writeInt(payload.size());
+            payload.writeTo(recordData);
+            appendRecord();
+
+            // Links the brick already had when it was added raise no events of their own.
+            for (LinkedIdentitySet.Node<Brick<?>> node = ((Brick<?>) brick).getFirstConnection(); node != null;
+                 node = node.getNext()) {
+                final Integer other = brickIds.get(node.getItem());
+                if (other != null) {
+                    beginRecord(LINK_CREATED);
+                    recordData.writeInt(id);
+                    recordData.writeInt(other);
+                    appendRecord();
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+        compactIfDue();
+    }
+
+    @Override
+    public synchronized void brickRemoved(Brick brick) {
+        final Integer id = brickIds.remove(brick);
+        if (!isRecording() || id == null) {
+            return;
+        }
+        try {
+            beginRecord(BRICK_REMOVED);
+            recordData.writeInt(id);
+            appendRecord();
+        } catch (IOException e) {
+            failure = e;
+        }
+        compactIfDue();
+    }
+
+    @Override
+    public void brickSelected(Brick brick) {
+        // Selection is not part of the diagram.
+    }
+
+    @Override
+    public synchronized void brickMoved(Brick brick, Point point) {
+        final Integer id = brickIds.get(brick);
+        if (!isRecording() || id == null) {
+            return;
+        }
+        try {
+            beginRecord(BRICK_MOVED);
+            recordData.writeInt(id);
+            recordData.writeInt(point.x);
+            recordData.writeInt(point.y);
+            appendRecord();
+        } catch (IOException e) {
+            failure = e;
+        }
+        compactIfDue();
+    }
+
+    @Override
+    public void selectionCleared() {
+        // Selection is not part of the diagram.
+    }
+
+    @Override
+    public void linkCreated(Brick brick1, Brick brick2) {
+        // Recorded as the link is made, by the link recorder.
+    }
+
+    @Override
+    public void linkRefused(Brick brick1, Brick brick2) {
+        // Nothing has changed.
+    }
+
+    @Override
+    public void linkDeleted(Brick brick1, Brick brick2) {
+        // Recorded as the link is broken, by the link recorder.
+    }
+
+    /**
+     * Records a link being created or deleted.
+     *
+     * @param type      the record type
+     * @param first     the first brick
+     * @param second    the second brick
+     */
+    private void recordLink(byte type, Brick<?> first, Brick<?> second) {
+        final Integer firstId = brickIds.get(first);
+        final Integer secondId = brickIds.get(second);
+        if (!isRecording() || firstId == null || secondId == null) {
+            return;
+        }
+        try {
+            beginRecord(type);
+            recordData.writeInt(firstId);
+            recordData.writeInt(secondId);
+            appendRecord();
+        } catch (IOException e) {
+            failure = e;
+        }
+        compactIfDue();
+    }
+
+    /**
+     * Returns true if changes are being recorded, otherwise returns false.
+     *
+     * @return  true if the journal is open and no error has stopped changes being recorded, otherwise false
+     */
+    private boolean isRecording() {
+        return !closed && failure == null;
+    }
+
+    /**
+     * Starts building a record in the record buffer, leaving room for its header.
+     *
+     * @param type  the record type
+     * @throws IOException if an I/O error occurs
+     */
+    private void beginRecord(byte type) throws IOException {
+        record.reset();
+        recordData.writeInt(0);
+        recordData.writeInt(0);
+        recordData.writeByte(type);
+    }
+
+    /**
+     * Fills in the header of the record in the record buffer and appends it to the log in a single write.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    private void appendRecord() throws IOException {
+        final byte[] bytes = record.array();
+        final int length = record.size() - RECORD_HEADER_SIZE;
+        checksum.reset();
+        checksum.update(bytes, RECORD_HEADER_SIZE, length);
+        writeInt(bytes, 0, length);
+        writeInt(bytes, 4, (int) checksum.getValue());
+        log.write(bytes, 0, record.size());
+        recordCount++;
+    }
+
+    /**
+     * Compacts the diagram if the log has grown past the compaction threshold.
+     */
+    private void compactIfDue() {
+        if (isRecording() && compactionThreshold > 0 && recordCount >= compactionThreshold) {
+            try {
+                compact();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * Restores the diagram in the journal directory onto the designer, or saves the first snapshot if there is none.
+     *
+     * @throws IOException if an I/O error occurs or the journal cannot be read
+     * @throws IllegalArgumentException if the directory holds a journal and the designer is not empty
+     */
+    private void recover() throws IOException {
+        generation = findLatestGeneration();
+        if (generation == 0) {
+            compact();
+            return;
+        }
+        if (!designer.getBricks().isEmpty()) {
+            throw new IllegalArgumentException("Specified designer must be empty to recover a journal onto it.");
+        }
+
+        // Replay the log against the bricks from the snapshot before any of them are on the designer.
+        final DiagramFormat.Diagram snapshot = format.read(getSnapshotFile(generation));
+        final List<Brick<?>> bricksById = new ArrayList<>(Arrays.<Brick<?>>asList(snapshot.bricks));
+        final File logFile = getLogFile(generation);
+        final long end = logFile.exists() ? replay(logFile, bricksById) : 0;
+        if (end == 0) {
+            log = createLog(logFile);
+        } else {
+
+            // Cut off any record torn by a crash so new records follow on from the last good one.
+            try (FileChannel channel = FileChannel.open(logFile.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(end);
+            }
+            log = new FileOutputStream(logFile, true);
+        }
+
+        // Put the surviving bricks on the designer in one go, keeping their numbers.
+        final List<Brick<?>> survivors = new ArrayList<>();
+        for (int i = 0; i < bricksById.size(); i++) {
+            final Brick<?> brick = bricksById.get(i);
+            if (brick != null) {
+                survivors.add(brick);
+                brickIds.put(brick, i);
+            }
+        }
+        nextBrickId = bricksById.size();
+        designer.batch(new Runnable() {
+            @Override
+            public void run() {
+                designer.addBricks(survivors);
+
+                // Added bricks take the z-index of whatever was top-most, so restore every one.
+                for (int i = 0; i < snapshot.bricks.length; i++) {
+                    if (bricksById.get(i) != null) {
+                        designer.setZIndex(snapshot.bricks[i], snapshot.zIndices[i]);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Replays a log against bricks that are not on any designer.
+     *
+     * @param logFile       the log to replay
+     * @param bricksById    the bricks by number, updated as bricks are added and removed
+     * @return              the length of the log up to the end of the last good record, or zero if it has no header
+     * @throws IOException if an I/O error occurs or the log cannot be read
+     */
+    private long replay(File logFile, List<Brick<?>> bricksById) throws IOException {
+        try (FileChannel channel = FileChannel.open(logFile.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Journal log is too large to map into memory.");
+            }
+            if (size < 8) {
+                return 0;
+            }
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("File is not a journal log.");
+            }
+            final int version = buffer.getInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported journal log version " + version + ".");
+            }
+
+            // Apply each record in turn, stopping at the first one that is incomplete or fails its checksum.
+            byte[] body = new byte[256];
+            int end = buffer.position();
+            while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                final int start = buffer.position();
+                final int length = buffer.getInt();
+                final int expected = buffer.getInt();
+                if (length < 1 || length > buffer.remaining()) {
+                    break;
+                }
+                if (body.length < length) {
+                    body = new byte[Math.max(length, body.length * 2)];
+                }
+                buffer.get(body, 0, length);
+                checksum.reset();
+                checksum.update(body, 0, length);
+                if ((int) checksum.getValue() != expected) {
+                    break;
+                }
+                buffer.position(start + RECORD_HEADER_SIZE);
+                buffer.limit(start + RECORD_HEADER_SIZE + length);
+                try {
+                    apply(buffer, bricksById);
+                } catch (BufferUnderflowException e) {
+                    throw new IOException("Journal log is corrupt.", e);
+                } finally {
+                    buffer.limit(buffer.capacity());
+                }
+                end = start + RECORD_HEADER_SIZE + length;
+                buffer.position(end);
+                recordCount++;
+            }
+            return end;
+        }
+    }
+
+    /**
+     * Applies a single record to bricks that are not on any designer.
+     *
+     * @param in            the buffer holding the record, positioned after its header and limited to its end
+     * @param bricksById    the bricks by number, updated as bricks are added and removed
+     * @throws IOException if the record cannot be applied
+     */
+    private void apply(ByteBuffer in, List<Brick<?>> bricksById) throws IOException {
+        final byte type = in.get();
+        switch (type) {
+            case BRICK_ADDED: {
+                if (in.getInt() != bricksById.size()) {
+                    throw new IOException("Journal log is corrupt.");
+                }
+                final int typeNameLength = in.getInt();
+                if (typeNameLength < 0 || typeNameLength > in.remaining()) {
+                    throw new IOException("Journal log is corrupt.");
+                }
+                final byte[] typeNameBytes = new byte[typeNameLength];
+                in.get(typeNameBytes);
+                final String typeName = new String(typeNameBytes, StandardCharsets.UTF_8);
+                final BrickCodec codec = format.getCodec(typeName);
+                if (codec == null) {
+                    throw new IOException("No codec is registered for brick type '" + typeName + "'.");
+                }
+                final int x = in.getInt();
+                final int y = in.getInt();
+                final int payloadLength = in.getInt();
+                if (payloadLength != in.remaining()) {
+                    throw new IOException("Journal log is corrupt.");
+                }
+                final Brick<?> brick = codec.read(in, x, y);
+                if (brick == null) {
+                    throw new IOException("Codec for brick type '" + typeName + "' did not create a brick.");
+                }
+                bricksById.add(brick);
+                break;
+            }
+            case BRICK_REMOVED: {
+                final int id = in.getInt();
+                getBrick(bricksById, id).removeAllConnections();
+                bricksById.set(id, null);
+                break;
+            }
+            case BRICK_MOVED: {
+                final Brick<?> brick = getBrick(bricksById, in.getInt());
+                brick.setX(in.getInt());
+                brick.setY(in.getInt());
+                break;
+            }
+            case LINK_CREATED: {
+                final Brick<?> first = getBrick(bricksById, in.getInt());
+                final Brick<?> second = getBrick(bricksById, in.getInt());
+                if (first != second && !first.hasConnection(second)) {
+                    try {
+                        first.addConnection(second);
+                    } catch (IllegalArgumentException e) {
+                        throw new IOException("Journal log contains a link that cannot be made.", e);
+                    }
+                }
+                break;
+            }
+            case LINK_DELETED: {
+                final Brick<?> first = getBrick(bricksById, in.getInt());
+                final Brick<?> second = getBrick(bricksById, in.getInt());
+                if (first.hasConnection(second)) {
+                    first.removeConnection(second);
+                }
+                break;
+            }
+            default:
+                throw new IOException("Journal log contains an unknown record type " + type + ".");
+        }
+    }
+
+    /**
+     * Gets a brick by its number while replaying a log.
+     *
+     * @param bricksById    the bricks by number
+     * @param id            the number of the brick
+     * @return              the brick
+     * @throws IOException if there is no brick with that number
+     */
+    private static Brick<?> getBrick(List<Brick<?>> bricksById, int id) throws IOException {
+        final Brick<?> brick = id >= 0 && id < bricksById.size() ? bricksById.get(id) : null;
+        if (brick == null) {
+            throw new IOException("Journal log refers to a brick that does not exist.");
+        }
+        return brick;
+    }
+
+    /**
+     * Creates an empty log holding just its header, replacing any existing file.
+     *
+     * @param file  the file to create
+     * @return      the stream to append records to
+     * @throws IOException if an I/O error occurs
+     */
+    private static FileOutputStream createLog(File file) throws IOException {
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            final byte[] header = new byte[8];
+            writeInt(header, 0, MAGIC);
+            writeInt(header, 4, VERSION);
+            out.write(header);
+            out.getChannel().force(true);
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+        return out;
+    }
+
+    /**
+     * Finds the generation of the latest snapshot in the journal directory.
+     *
+     * @return  the latest generation, or zero if there are no snapshots
+     */
+    private long findLatestGeneration() {
+        long latest = 0;
+        final String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                latest = Math.max(latest, parseGeneration(name, "snapshot-", ".bach"));
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Deletes every snapshot and log in the journal directory older than the current generation.
+     */
+    private void deleteEarlierGenerations() {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                final String name = file.getName();
+                final long snapshotGeneration = parseGeneration(name, "snapshot-", ".bach");
+                final long logGeneration = parseGeneration(name, "journal-", ".log");
+                if ((snapshotGeneration > 0 && snapshotGeneration < generation)
+                        || (logGeneration > 0 && logGeneration < generation)) {
+                    //noinspection ResultOfMethodCallIgnored
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the generation from the name of a snapshot or log.
+     *
+     * @param name      the file name
+     * @param prefix    the prefix before the generation
+     * @param suffix    the suffix after the generation
+     * @return          the generation, or zero if the name is not of the given kind
+     */
+    private static long parseGeneration(String name, String prefix, String suffix) {
+        if (!name.startsWith(prefix) || !name.endsWith(suffix)) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Gets the snapshot file of a generation.
+     *
+     * @param generation    the generation
+     * @return              the snapshot file
+     */
+    private File getSnapshotFile(long generation) {
+        return new File(directory, "snapshot-" + generation + ".bach");
+    }
+
+    /**
+     * Gets the log file of a generation.
+     *
+     * @param generation    the generation
+     * @return              the log file
+     */
+    private File getLogFile(long generation) {
+        return new File(directory, "journal-" + generation + ".log");
+    }
+
+    /**
+     * Throws an exception if the journal has been closed.
+     *
+     * @throws IllegalStateException if the journal has been closed
+     */
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Journal has been closed.");
+        }
+    }
+
+    /**
+     * Writes a big-endian integer into a byte array.
+     *
+     * @param bytes     the array to write to
+     * @param offset    the offset to write at
+     * @param value     the value to write
+     */
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    /**
+     * A byte array output stream whose underlying array can be read without copying it.
+     */
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+
+        /**
+         * Gets the underlying array, which holds the bytes written so far followed by unused capacity.
+         *
+         * @return  the underlying array
+         */
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    /**
+     * Records every link made or broken on the designer, including those made on bricks directly.
+     */
+    private final class LinkRecorder implements DesignerLinkListener {
+
+        @Override
+        public void linkAdded(Brick<?> first, Brick<?> second) {
+            synchronized (DiagramJournal.this) {
+                recordLink(LINK_CREATED, first, second);
+            }
+        }
+
+        @Override
+        public void linkRemoved(Brick<?> first, Brick<?> second) {
+            synchronized (DiagramJournal.this) {
+                recordLink(LINK_DELETED, first, second);
+            }
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package com.sauljohnson.bach;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exports the bricks on a {@link Designer} as JSON and imports them again, streaming both ways so that no more than a
+ * token of the document is held in memory at once. The model object of each brick is written and read by the
+ * {@link JsonBrickCodec} registered for its type.
+ *
+ * A document looks like this, with bricks listed from bottom-most to top-most and each link given once as the
+ * positions of its two bricks in that list:
+ *
+ * <pre>
+ * {"version":1,
+ *  "bricks":[{"type":"Server","x":10,"y":20,"z":0,"data":{...}}, ...],
+ *  "links":[[0,1], ...]}
+ * </pre>
+ *
+ * When importing, the members of a brick may come in any order except that its type must come before its data, and
+ * links must come after bricks. Unrecognised members are skipped.
+ *
+ * @author  Saul Johnson
+ */
+public class DiagramJson {
+
+    /**
+     * The version of the document structure written by this class. Documents with later versions cannot be imported.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The codecs used to write and read model objects, keyed by brick type name.
+     */
+    private final Map<String, JsonBrickCodec> codecs;
+
+    /**
+     * Initialises a new instance of a JSON importer and exporter with no codecs registered.
+     */
+    public DiagramJson() {
+        codecs = new HashMap<>();
+    }
+
+    /**
+     * Registers the codec used to write and read bricks of a type, replacing any already registered for it.
+     *
+     * @param typeName  the type name of the bricks, as returned by {@link Brick#getTypeName()}
+     * @param codec     the codec to use
+     * @throws IllegalArgumentException if the type name or codec is null
+     */
+    @SuppressWarnings("unused") // API method.
+    public void registerCodec(String typeName, JsonBrickCodec codec) {
+        if (typeName == null || codec == null) {
+            throw new IllegalArgumentException("Type name and codec cannot be null.");
+        }
+        codecs.put(typeName, codec);
+    }
+
+    /**
+     * Exports every brick on a designer as JSON to a stream, which is flushed but not closed. Links are found by
+     * searching the z-ordered list of bricks rather than by numbering them up front, so no memory is needed per brick.
+     *
+     * @param designer  the designer to export
+     * @param out       the stream to write to
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if no codec is registered for the type of a brick on the designer
+     */
+    @SuppressWarnings("unused") // API method.
+    public void write(Designer designer, Writer out) throws IOException {
+
+        // Check every type can be written before writing anything.
+        final List<Brick<?>> bricks = designer.getBrickList();
+        for (int i = 0; i < bricks.size(); i++) {
+            getCodec(bricks.get(i));
+        }
+
+        // Bricks.
+        final DiagramJsonWriter json = new DiagramJsonWriter(out);
+        json.beginObject().name("version").value(VERSION).name("bricks").beginArray();
+        for (int i = 0; i < bricks.size(); i++) {
+            final Brick<?> brick = bricks.get(i);
+            json.beginObject()
+                    .name("type").value(brick.getTypeName())
+                    .name("x").value(brick.getX())
+                    .name("y").value(brick.getY())
+                    .name("z").value(brick.zIndex)
+                    .name("data");
+            getCodec(brick).write(brick, json);
+            json.endObject();
+        }
+        json.endArray();
+
+        // Links, each written from the end lower in the z-order.
+        json.name("links").beginArray();
+        for (int i = 0; i < bricks.size(); i++) {
+            final Brick<?> brick = bricks.get(i);
+            for (LinkedIdentitySet.Node<Brick<?>> node = brick.getFirstConnection(); node != null;
+                 node = node.getNext()) {
+                final Brick<?> other = node.getItem();
+                if (other.designer == designer && Designer.Z_ORDER_COMPARATOR.compare(brick, other) < 0) {
+                    json.beginArray().value(i).value(indexOf(bricks, other)).endArray();
+                }
+            }
+        }
+        json.endArray().endObject().flush();
+    }
+
+    /**
+     * Imports the bricks in a JSON document from a stream onto a designer as a single batch, on top of any bricks
+     * already there. Each brick is created by its codec as it is read, and none are added to the designer unless the
+     * whole document is imported successfully. Saved z-indices are restored as they were onto an empty designer, and
+     * otherwise shifted so that the bottom-most imported brick sits on top of the bricks already there.
+     *
+     * @param in        the stream to read from
+     * @param designer  the designer to add the bricks to
+     * @return          the bricks imported, from bottom-most to top-most
+     * @throws IOException if an I/O error occurs, the document is malformed, or no codec is registered for the type of
+     *                     a brick in it
+     * @throws IllegalArgumentException if the bricks cannot be stacked on top of those already on the designer
+     */
+    @SuppressWarnings("unused") // API method.
+    public List<Brick<?>> read(Reader in, final Designer designer) throws IOException {
+        final DiagramJsonReader json = new DiagramJsonReader(in);
+        final List<Brick<?>> bricks = new ArrayList<>();
+        final IntList zIndices = new IntList();
+        boolean linksRead = false;
+        json.beginObject();
+        while (json.hasNext()) {
+            final String name = json.nextName();
+            if (name.equals("version")) {
+                final int version = json.nextInt();
+                if (version < 1 || version > VERSION) {
+                    throw new IOException("Unsupported diagram document version " + version + ".");
+                }
+            } else if (name.equals("bricks")) {
+                if (linksRead) {
+                    throw new IOException("Links must come after bricks.");
+                }
+                json.beginArray();
+                while (json.hasNext()) {
+                    readBrick(json, bricks, zIndices);
+                }
+                json.endArray();
+            } else if (name.equals("links")) {
+                linksRead = true;
+                json.beginArray();
+                while (json.hasNext()) {
+                    readLink(json, bricks);
+                }
+                json.endArray();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        if (json.peek() != DiagramJsonReader.Token.END_DOCUMENT) {
+            throw new IOException("Unexpected content after diagram document.");
+        }
+
+        // Add everything in one go, then restore z-indices in the same order so bricks stay stacked as they were.
+        final List<Brick<?>> imported = Collections.unmodifiableList(bricks);
+        designer.batch(new Runnable() {
+            @Override
+            public void run() {
+
+                // Saved z-indices are offset to stack on top, which must be worked out before anything is added.
+                int lowest = Integer.MAX_VALUE;
+                int highest = Integer.MIN_VALUE;
+                for (int i = 0; i < zIndices.size(); i++) {
+                    lowest = Math.min(lowest, zIndices.get(i));
+                    highest = Math.max(highest, zIndices.get(i));
+                }
+                final int offset = zIndices.size() > 0 ? designer.getImportZOffset(lowest, highest) : 0;
+                designer.addBricks(imported);
+
+                // Added bricks take the z-index of whatever was top-most, so restore every one.
+                for (int i = 0; i < imported.size(); i++) {
+                    designer.setZIndex(imported.get(i), zIndices.get(i) + offset);
+                }
+            }
+        });
+        return imported;
+    }
+
+    /**
+     * Reads a brick object, creating the brick through its codec.
+     *
+     * @param json      the reader positioned at the brick object
+     * @param bricks    the list to add the brick to
+     * @param zIndices  the list to add the z-index of the brick to
+     * @throws IOException if an I/O error occurs, the object is malformed, or no codec is registered for its type
+     */
+    private void readBrick(DiagramJsonReader json, List<Brick<?>> bricks, IntList zIndices) throws IOException {
+        String typeName = null;
+        int x = 0;
+        int y = 0;
+        int z = 0;
+        Brick<?> brick = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            final String name = json.nextName();
+            switch (name) {
+                case "type":
+                    if (brick != null) {
+                        throw new IOException("Brick type must come before its data.");
+                    }
+                    typeName = json.nextString();
+                    break;
+                case "x":
+                    x = json.nextInt();
+                    break;
+                case "y":
+                    y = json.nextInt();
+                    break;
+                case "z":
+                    z = json.nextInt();
+                    break;
+                case "data":
+                    brick = createBrick(typeName, json, x, y);
+                    break;
+                default:
+                    json.skipValue();
+                    break;
+            }
+        }
+        json.endObject();
+        if (brick == null) {
+            brick = createBrick(typeName, null, x, y);
+        }
+
+        // Position may have been given after the data.
+        brick.setX(x);
+        brick.setY(y);
+        bricks.add(brick);
+        zIndices.add(z);
+    }
+
+    /**
+     * Creates a brick through the codec for its type.
+     *
+     * @param typeName  the type name of the brick, or null if none was given
+     * @param json      the reader positioned at the data of the brick, or null if it has none
+     * @param x         the x-coordinate of the brick
+     * @param y         the y-coordinate of the brick
+     * @return          the brick created
+     * @throws IOException if an I/O error occurs, no type was given, or no codec is registered for the type
+     */
+    private Brick<?> createBrick(String typeName, DiagramJsonReader json, int x, int y) throws IOException {
+        if (typeName == null) {
+            throw new IOException("Brick type must come before its data.");
+        }
+        final JsonBrickCodec codec = codecs.get(typeName);
+        if (codec == null) {
+            throw new IOException("No codec is registered for brick type '" + typeName + "'.");
+        }
+        final Brick<?> brick = codec.read(json, x, y);
+        if (brick == null) {
+            throw new IOException("Codec for brick type '" + typeName + "' did not create a brick.");
+        }
+        return brick;
+    }
+
+    /**
+     * Reads a link and connects the two bricks it refers to.
+     *
+     * @param json      the reader positioned at the link array
+     * @param bricks    the bricks read so far, from bottom-most to top-most
+     * @throws IOException if an I/O error occurs, the link is malformed, or the bricks cannot be connected
+     */
+    private static void readLink(DiagramJsonReader json, List<Brick<?>> bricks) throws IOException {
+        json.beginArray();
+        final int first = json.nextInt();
+        final int second = json.nextInt();
+        json.endArray();
+        if (first < 0 || first >= bricks.size() || second < 0 || second >= bricks.size() || first == second) {
+            throw new IOException("Link [" + first + ", " + second + "] does not refer to two bricks.");
+        }
+        final Brick<?> firstBrick = bricks.get(first);
+        final Brick<?> secondBrick = bricks.get(second);
+        if (!firstBrick.hasConnection(secondBrick)) {
+            try {
+                firstBrick.addConnection(secondBrick);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Link [" + first + ", " + second + "] cannot be made.", e);
+            }
+        }
+    }
+
+    /**
+     * Gets the codec for the type of a brick.
+     *
+     * @param brick the brick
+     * @return      the codec
+     * @throws IllegalArgumentException if no codec is registered for the type of the brick
+     */
+    private JsonBrickCodec getCodec(Brick<?> brick) {
+        final JsonBrickCodec codec = codecs.get(brick.getTypeName());
+        if (codec == null) {
+            throw new IllegalArgumentException("No codec is registered for brick type '" + brick.getTypeName()
+                    + "'.");
+        }
+        return codec;
+    }
+
+    /**
+     * Finds the position of a brick in a designer's z-ordered list of bricks by binary search.
+     *
+     * @param bricks    the bricks on the designer, from bottom-most to top-most
+     * @param brick     the brick to find, which must be on the designer
+     * @return          the position of the brick
+     */
+    private static int indexOf(List<Brick<?>> bricks, Brick<?> brick) {
+        int low = 0;
+        int high = bricks.size() - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int result = Designer.Z_ORDER_COMPARATOR.compare(bricks.get(middle), brick);
+            if (result < 0) {
+                low = middle + 1;
+            } else if (result > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        throw new IllegalStateException("Brick is not in z-order.");
+    }
+}
@@ -0,0 +1,639 @@
+package com.sauljohnson.bach;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Reads JSON from a character stream one token at a time, so that a document of any size can be read without holding
+ * it in memory. Used by {@link DiagramJson} and handed to {@link JsonBrickCodec}s to read model objects.
+ *
+ * @author  Saul Johnson
+ */
+public final class DiagramJsonReader {
+
+    /**
+     * The kinds of token in a JSON document.
+     */
+    public enum Token {
+
+        /**
+         * The start of an object.
+         */
+        BEGIN_OBJECT,
+
+        /**
+         * The end of an object.
+         */
+        END_OBJECT,
+
+        /**
+         * The start of an array.
+         */
+        BEGIN_ARRAY,
+
+        /**
+         * The end of an array.
+         */
+        END_ARRAY,
+
+        /**
+         * The name of an object member.
+         */
+        NAME,
+
+        /**
+         * A string value.
+         */
+        STRING,
+
+        /**
+         * A number value.
+         */
+        NUMBER,
+
+        /**
+         * A boolean value.
+         */
+        BOOLEAN,
+
+        /**
+         * A null value.
+         */
+        NULL,
+
+        /**
+         * The end of the document.
+         */
+        END_DOCUMENT
+    }
+
+    /**
+     * Nothing has been read yet.
+     */
+    private static final int EMPTY_DOCUMENT = 0;
+
+    /**
+     * The top-level value has been read.
+     */
+    private static final int NONEMPTY_DOCUMENT = 1;
+
+    /**
+     * An array has been started but none of its elements have been read.
+     */
+    private static final int EMPTY_ARRAY = 2;
+
+    /**
+     * An array has been started and at least one of its elements has been read.
+     */
+    private static final int NONEMPTY_ARRAY = 3;
+
+    /**
+     * An object has been started but none of its members have been read.
+     */
+    private static final int EMPTY_OBJECT = 4;
+
+    /**
+     * An object has been started and at least one of its members has been read.
+     */
+    private static final int NONEMPTY_OBJECT = 5;
+
+    /**
+     * The name of an object member has been read but its value has not.
+     */
+    private static final int DANGLING_NAME = 6;
+
+    /**
+     * The stream to read from.
+     */
+    private final Reader in;
+
+    /**
+     * The characters read from the stream but not yet consumed.
+     */
+    private final char[] buffer;
+
+    /**
+     * The position of the next character to consume in the buffer.
+     */
+    private int position;
+
+    /**
+     * The number of characters in the buffer.
+     */
+    private int limit;
+
+    /**
+     * The number of characters consumed before the start of the buffer, for error messages.
+     */
+    private long offset;
+
+    /**
+     * The state of each array or object being read, with the document itself at the bottom.
+     */
+    private int[] stack;
+
+    /**
+     * The number of states on the stack.
+     */
+    private int stackSize;
+
+    /**
+     * The next token, or null if it has not been read yet.
+     */
+    private Token peeked;
+
+    /**
+     * The text of the next token if it is a name, string, number or boolean.
+     */
+    private final StringBuilder text;
+
+    /**
+     * Initialises a new instance of a reader that reads JSON from a stream.
+     *
+     * @param in    the stream to read from
+     */
+    public DiagramJsonReader(Reader in) {
+        if (in == null) {
+            throw new IllegalArgumentException("Stream to read from cannot be null.");
+        }
+        this.in = in;
+        buffer = new char[8192];
+        stack = new int[16];
+        stack[stackSize++] = EMPTY_DOCUMENT;
+        text = new StringBuilder();
+    }
+
+    /**
+     * Gets the kind of the next token without consuming it.
+     *
+     * @return  the kind of the next token
+     * @throws IOException if an I/O error occurs or the JSON is malformed
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public Token peek() throws IOException {
+        if (peeked != null) {
+            return peeked;
+        }
+        final int top = stack[stackSize - 1];
+        switch (top) {
+            case EMPTY_DOCUMENT:
+                stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+                return peeked = readValue(nextNonWhitespace());
+            case NONEMPTY_DOCUMENT:
+                if (nextNonWhitespace() != -1) {
+                    throw syntaxError("Expected end of document");
+                }
+                return peeked = Token.END_DOCUMENT;
+            case EMPTY_ARRAY:
+            case NONEMPTY_ARRAY: {
+                int c = nextNonWhitespace();
+                if (c == ']') {
+                    return peeked = Token.END_ARRAY;
+                }
+                if (top == NONEMPTY_ARRAY) {
+                    if (c != ',') {
+                        throw syntaxError("Expected ',' or ']'");
+                    }
+                    c = nextNonWhitespace();
+                }
+                stack[stackSize - 1] = NONEMPTY_ARRAY;
+                return peeked = readValue(c);
+            }
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT: {
+                int c = nextNonWhitespace();
+                if (c == '}') {
+                    return peeked = Token.END_OBJECT;
+                }
+                if (top == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw syntaxError("Expected ',' or '}'");
+                    }
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw syntaxError("Expected name");
+                }
+                readString();
+                stack[stackSize - 1] = DANGLING_NAME;
+                return peeked = Token.NAME;
+            }
+            default: {
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                stack[stackSize - 1] = NONEMPTY_OBJECT;
+                return peeked = readValue(nextNonWhitespace());
+            }
+        }
+    }
+
+    /**
+     * Returns true if the current array or object has another element or member, otherwise returns false.
+     *
+     * @return  true if there is another element or member, otherwise false
+     * @throws IOException if an I/O error occurs or the JSON is malformed
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public boolean hasNext() throws IOException {
+        final Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    /**
+     * Consumes the start of an object.
+     *
+     * @throws IOException if an I/O error occurs or the next token is not the start of an object
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    /**
+     * Consumes the end of an object.
+     *
+     * @throws IOException if an I/O error occurs or the next token is not the end of an object
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        stackSize--;
+    }
+
+    /**
+     * Consumes the start of an array.
+     *
+     * @throws IOException if an I/O error occurs or the next token is not the start of an array
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    /**
+     * Consumes the end of an array.
+     *
+     * @throws IOException if an I/O error occurs or the next token is not the end of an array
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        stackSize--;
+    }
+
+    /**
+     * Consumes the name of an object member.
+     *
+     * @return  the name
+     * @throws IOException if an I/O error occurs or the next token is not a name
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        return text.toString();
+    }
+
+    /**
+     * Consumes a string value.
+     *
+     * @return  the string
+     * @throws IOException if an I/O error occurs or the next token is not a string
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public String nextString() throws IOException {
+        expect(Token.STRING);
+        return text.toString();
+    }
+
+    /**
+     * Consumes a number value that must be a whole number.
+     *
+     * @return  the number
+     * @throws IOException if an I/O error occurs or the next token is not a whole number
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public long nextLong() throws IOException {
+        expect(Token.NUMBER);
+        try {
+            return Long.parseLong(text.toString());
+        } catch (NumberFormatException e) {
+            final double value = Double.parseDouble(text.toString());
+            if (value != Math.rint(value) || value < Long.MIN_VALUE || value > Long.MAX_VALUE) {
+                throw syntaxError("Expected whole number but was " + text);
+            }
+            return (long) value;
+        }
+    }
+
+    /**
+     * Consumes a number value that must be a whole number within the range of an integer.
+     *
+     * @return  the number
+     * @throws IOException if an I/O error occurs or the next token is not a whole number within range
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public int nextInt() throws IOException {
+        final long value = nextLong();
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw syntaxError("Number " + value + " is out of range");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Consumes a number value.
+     *
+     * @return  the number
+     * @throws IOException if an I/O error occurs or the next token is not a number
+     */
+    @SuppressWarnings("unused") // API method.
+    public double nextDouble() throws IOException {
+        expect(Token.NUMBER);
+        return Double.parseDouble(text.toString());
+    }
+
+    /**
+     * Consumes a boolean value.
+     *
+     * @return  the boolean
+     * @throws IOException if an I/O error occurs or the next token is not a boolean
+     */
+    @SuppressWarnings("unused") // API method.
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        return text.charAt(0) == 't';
+    }
+
+    /**
+     * Consumes a null value.
+     *
+     * @throws IOException if an I/O error occurs or the next token is not null
+     */
+    @SuppressWarnings("unused") // API method.
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+    }
+
+    /**
+     * Consumes the next value, including everything inside it if it is an array or object.
+     *
+     * @throws IOException if an I/O error occurs or the JSON is malformed
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            final Token token = peek();
+            switch (token) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    depth++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    depth++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    depth--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    depth--;
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("Expected value");
+                default:
+                    peeked = null;
+                    break;
+            }
+        } while (depth > 0);
+    }
+
+    /**
+     * Consumes the next token, checking that it is of the kind expected.
+     *
+     * @param expected  the kind of token expected
+     * @throws IOException if an I/O error occurs or the next token is of a different kind
+     */
+    private void expect(Token expected) throws IOException {
+        final Token token = peek();
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+        peeked = null;
+    }
+
+    /**
+     * Reads the value starting with the given character up to the end of its first token.
+     *
+     * @param c the first character of the value
+     * @return  the kind of the first token of the value
+     * @throws IOException if an I/O error occurs or the JSON is malformed
+     */
+    private Token readValue(int c) throws IOException {
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                readString();
+                return Token.STRING;
+            case 't':
+                readLiteral("true");
+                return Token.BOOLEAN;
+            case 'f':
+                readLiteral("false");
+                return Token.BOOLEAN;
+            case 'n':
+                readLiteral("null");
+                return Token.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    readNumber((char) c);
+                    return Token.NUMBER;
+                }
+                throw syntaxError("Expected value");
+        }
+    }
+
+    /**
+     * Reads the rest of a literal whose first character has been consumed into the token text.
+     *
+     * @param literal   the literal expected
+     * @throws IOException if an I/O error occurs or the literal does not match
+     */
+    private void readLiteral(String literal) throws IOException {
+        text.setLength(0);
+        text.append(literal.charAt(0));
+        for (int i = 1; i < literal.length(); i++) {
+            if (nextChar() != literal.charAt(i)) {
+                throw syntaxError("Expected " + literal);
+            }
+        }
+        text.append(literal, 1, literal.length());
+    }
+
+    /**
+     * Reads the rest of a number whose first character has been consumed into the token text.
+     *
+     * @param first the first character of the number
+     * @throws IOException if an I/O error occurs or the number is malformed
+     */
+    private void readNumber(char first) throws IOException {
+        text.setLength(0);
+        text.append(first);
+        while (position < limit || fill()) {
+            final char c = buffer[position];
+            if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                text.append(c);
+                position++;
+            } else {
+                break;
+            }
+        }
+        try {
+            Double.parseDouble(text.toString());
+        } catch (NumberFormatException e) {
+            throw syntaxError("Malformed number " + text);
+        }
+    }
+
+    /**
+     * Reads the rest of a string whose opening quote has been consumed into the token text, unescaping it.
+     *
+     * @throws IOException if an I/O error occurs or the string is malformed
+     */
+    private void readString() throws IOException {
+        text.setLength(0);
+        while (true) {
+
+            // Copy runs of plain characters straight from the buffer.
+            final int start = position;
+            while (position < limit && buffer[position] != '"' && buffer[position] != '\\') {
+                position++;
+            }
+            text.append(buffer, start, position - start);
+            if (position == limit) {
+                if (!fill()) {
+                    throw syntaxError("Unterminated string");
+                }
+                continue;
+            }
+            if (buffer[position++] == '"') {
+                return;
+            }
+            final int escaped = nextChar();
+            switch (escaped) {
+                case '"':
+                case '\\':
+                case '/':
+                    text.append((char) escaped);
+                    break;
+                case 'b':
+                    text.append('\b');
+                    break;
+                case 'f':
+                    text.append('\f');
+                    break;
+                case 'n':
+                    text.append('\n');
+                    break;
+                case 'r':
+                    text.append('\r');
+                    break;
+                case 't':
+                    text.append('\t');
+                    break;
+                case 'u': {
+                    int value = 0;
+                    for (int i = 0; i < 4; i++) {
+                        final int digit = Character.digit(nextChar(), 16);
+                        if (digit < 0) {
+                            throw syntaxError("Malformed unicode escape");
+                        }
+                        value = (value << 4) | digit;
+                    }
+                    text.append((char) value);
+                    break;
+                }
+                default:
+                    throw syntaxError("Malformed escape sequence");
+            }
+        }
+    }
+
+    /**
+     * Consumes the next character that is not whitespace.
+     *
+     * @return  the character, or -1 at the end of the stream
+     * @throws IOException if an I/O error occurs
+     */
+    private int nextNonWhitespace() throws IOException {
+        while (position < limit || fill()) {
+            final char c = buffer[position++];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Consumes the next character.
+     *
+     * @return  the character, or -1 at the end of the stream
+     * @throws IOException if an I/O error occurs
+     */
+    private int nextChar() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++];
+    }
+
+    /**
+     * Refills the buffer once every character in it has been consumed.
+     *
+     * @return  true if more characters were read, or false at the end of the stream
+     * @throws IOException if an I/O error occurs
+     */
+    private boolean fill() throws IOException {
+        offset += limit;
+        position = 0;
+        limit = 0;
+        final int read = in.read(buffer, 0, buffer.length);
+        if (read <= 0) {
+            return false;
+        }
+        limit = read;
+        return true;
+    }
+
+    /**
+     * Pushes a state onto the stack, growing it if necessary.
+     *
+     * @param state the state to push
+     */
+    private void push(int state) {
+        if (stackSize == stack.length) {
+            stack = Arrays.copyOf(stack, stackSize * 2);
+        }
+        stack[stackSize++] = state;
+    }
+
+    /**
+     * Creates an exception describing malformed JSON at the current position.
+     *
+     * @param message   the description of the problem
+     * @return          the exception
+     */
+    private IOException syntaxError(String message) {
+        return new IOException(message + " at character " + (offset + position) + ".");
+    }
+}
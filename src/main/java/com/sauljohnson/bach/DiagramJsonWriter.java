@@ -0,0 +1,328 @@
+package com.sauljohnson.bach;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Writes JSON to a character stream one token at a time, so that a document of any size can be written without
+ * building it in memory first. Used by {@link DiagramJson} and handed to {@link JsonBrickCodec}s to write model
+ * objects.
+ *
+ * @author  Saul Johnson
+ */
+public final class DiagramJsonWriter {
+
+    /**
+     * Nothing has been written yet.
+     */
+    private static final int EMPTY_DOCUMENT = 0;
+
+    /**
+     * The top-level value has been written.
+     */
+    private static final int NONEMPTY_DOCUMENT = 1;
+
+    /**
+     * An array has been started but has no elements yet.
+     */
+    private static final int EMPTY_ARRAY = 2;
+
+    /**
+     * An array has been started and has at least one element.
+     */
+    private static final int NONEMPTY_ARRAY = 3;
+
+    /**
+     * An object has been started but has no members yet.
+     */
+    private static final int EMPTY_OBJECT = 4;
+
+    /**
+     * An object has been started and has at least one member.
+     */
+    private static final int NONEMPTY_OBJECT = 5;
+
+    /**
+     * The name of an object member has been written but its value has not.
+     */
+    private static final int DANGLING_NAME = 6;
+
+    /**
+     * The stream to write to.
+     */
+    private final Writer out;
+
+    /**
+     * The state of each array or object being written, with the document itself at the bottom.
+     */
+    private int[] stack;
+
+    /**
+     * The number of states on the stack.
+     */
+    private int stackSize;
+
+    /**
+     * Initialises a new instance of a writer that writes JSON to a stream.
+     *
+     * @param out   the stream to write to
+     */
+    public DiagramJsonWriter(Writer out) {
+        if (out == null) {
+            throw new IllegalArgumentException("Stream to write to cannot be null.");
+        }
+        this.out = out;
+        stack = new int[16];
+        stack[stackSize++] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Starts an object.
+     *
+     * @return  this writer
+     * @throws IOException if an I/O error occurs
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public DiagramJsonWriter beginObject() throws IOException {
+        beforeValue();
+        push(EMPTY_OBJECT);
+        out.write('{');
+        return this;
+    }
+
+    /**
+     * Ends the current object.
+     *
+     * @return  this writer
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalStateException if an object is not being written or a member has a name but no value
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public DiagramJsonWriter endObject() throws IOException {
+        final int top = stack[stackSize - 1];
+        if (top != EMPTY_OBJECT && top != NONEMPTY_OBJECT) {
+            throw new IllegalStateException("No object to end.");
+        }
+        stackSize--;
+        out.write('}');
+        return this;
+    }
+
+    /**
+     * Starts an array.
+     *
+     * @return  this writer
+     * @throws IOException if an I/O error occurs
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public DiagramJsonWriter beginArray() throws IOException {
+        beforeValue();
+        push(EMPTY_ARRAY);
+        out.write('[');
+        return this;
+    }
+
+    /**
+     * Ends the current array.
+     *
+     * @return  this writer
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalStateException if an array is not being written
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public DiagramJsonWriter endArray() throws IOException {
+        final int top = stack[stackSize - 1];
+        if (top != EMPTY_ARRAY && top != NONEMPTY_ARRAY) {
+            throw new IllegalStateException("No array to end.");
+        }
+        stackSize--;
+        out.write(']');
+        return this;
+    }
+
+    /**
+     * Writes the name of the next member of the current object.
+     *
+     * @param name  the name
+     * @return      this writer
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalStateException if an object is not being written or the previous member has no value
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public DiagramJsonWriter name(String name) throws IOException {
+        if (name == null) {
+            throw new IllegalArgumentException("Name cannot be null.");
+        }
+        final int top = stack[stackSize - 1];
+        if (top == NONEMPTY_OBJECT) {
+            out.write(',');
+        } else if (top != EMPTY_OBJECT) {
+            throw new IllegalStateException("Names can only be written inside an object.");
+        }
+        stack[stackSize - 1] = DANGLING_NAME;
+        writeString(name);
+        out.write(':');
+        return this;
+    }
+
+    /**
+     * Writes a string value.
+     *
+     * @param value the value, or null to write a null value
+     * @return      this writer
+     * @throws IOException if an I/O error occurs
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public DiagramJsonWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        writeString(value);
+        return this;
+    }
+
+    /**
+     * Writes a whole number value.
+     *
+     * @param value the value
+     * @return      this writer
+     * @throws IOException if an I/O error occurs
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public DiagramJsonWriter value(long value) throws IOException {
+        beforeValue();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    /**
+     * Writes a number value.
+     *
+     * @param value the value
+     * @return      this writer
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if the value is not a finite number, which JSON cannot represent
+     */
+    @SuppressWarnings("unused") // API method.
+    public DiagramJsonWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("JSON numbers must be finite.");
+        }
+        beforeValue();
+        out.write(Double.toString(value));
+        return this;
+    }
+
+    /**
+     * Writes a boolean value.
+     *
+     * @param value the value
+     * @return      this writer
+     * @throws IOException if an I/O error occurs
+     */
+    @SuppressWarnings("unused") // API method.
+    public DiagramJsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * Writes a null value.
+     *
+     * @return  this writer
+     * @throws IOException if an I/O error occurs
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public DiagramJsonWriter nullValue() throws IOException {
+        beforeValue();
+        out.write("null");
+        return this;
+    }
+
+    /**
+     * Flushes the underlying stream.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Updates the state before a value is written, writing a separator if needed.
+     *
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalStateException if a value cannot be written here
+     */
+    private void beforeValue() throws IOException {
+        switch (stack[stackSize - 1]) {
+            case EMPTY_DOCUMENT:
+                stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+                break;
+            case EMPTY_ARRAY:
+                stack[stackSize - 1] = NONEMPTY_ARRAY;
+                break;
+            case NONEMPTY_ARRAY:
+                out.write(',');
+                break;
+            case DANGLING_NAME:
+                stack[stackSize - 1] = NONEMPTY_OBJECT;
+                break;
+            case NONEMPTY_DOCUMENT:
+                throw new IllegalStateException("JSON document can only have one top-level value.");
+            default:
+                throw new IllegalStateException("Values inside an object must be preceded by a name.");
+        }
+    }
+
+    /**
+     * Pushes a state onto the stack, growing it if necessary.
+     *
+     * @param state the state to push
+     */
+    private void push(int state) {
+        if (stackSize == stack.length) {
+            stack = Arrays.copyOf(stack, stackSize * 2);
+        }
+        stack[stackSize++] = state;
+    }
+
+    /**
+     * Writes a quoted string, escaping characters as necessary.
+     *
+     * @param value the string to write
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeString(String value) throws IOException {
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            final String escape;
+            if (c == '"') {
+                escape = "\\\"";
+            } else if (c == '\\') {
+                escape = "\\\\";
+            } else if (c == '\n') {
+                escape = "\\n";
+            } else if (c == '\r') {
+                escape = "\\r";
+            } else if (c == '\t') {
+                escape = "\\t";
+            } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                escape = String.format("\\u%04x", (int) c);
+            } else {
+                continue;
+            }
+            out.write(value, start, i - start);
+            out.write(escape);
+            start = i + 1;
+        }
+        out.write(value, start, value.length() - start);
+        out.write('"');
+    }
+}
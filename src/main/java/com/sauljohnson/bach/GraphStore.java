@@ -0,0 +1,1210 @@
+package com.sauljohnson.bach;
+
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * A compact store for very large diagrams, holding nodes and the links between them in primitive arrays rather than as
+ * {@link Brick} objects.
+ *
+ * Each node has a position and a type, and each type has a name, size, image and connection capacities shared by all
+ * of its nodes. Nodes are identified by the index returned when they are added, which is never reused. When a store is
+ * attached to a {@link Designer}, its nodes are painted beneath the designer's bricks and a node only becomes a brick
+ * (through the {@link BrickMaterialiser} of its type) once the user clicks on it or it is materialised explicitly. From
+ * then on the brick and the node are kept in step, so moving, linking, unlinking or removing either affects the other.
+ *
+ * @author  Saul Johnson
+ */
+public final class GraphStore {
+
+    /**
+     * The base-two logarithm of the size of the cells of the spatial hash.
+     */
+    private static final int CELL_SHIFT = 6;
+
+    /**
+     * The number of nodes or types to make room for when the store is created.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The names of the node types.
+     */
+    private String[] typeNames;
+
+    /**
+     * The widths of the node types in pixels.
+     */
+    private int[] typeWidths;
+
+    /**
+     * The heights of the node types in pixels.
+     */
+    private int[] typeHeights;
+
+    /**
+     * The images of the node types.
+     */
+    private Image[] typeImages;
+
+    /**
+     * The materialisers that create bricks for nodes of each type.
+     */
+    private BrickMaterialiser[] typeMaterialisers;
+
+    /**
+     * The maximum number of connections nodes of each type may have to nodes of each other type, indexed by the type
+     * of node and then the type of node connected to.
+     */
+    private int[][] capacities;
+
+    /**
+     * The number of node types.
+     */
+    private int typeCount;
+
+    /**
+     * The largest width and height of any node type, by which spatial queries are widened.
+     */
+    private int maxTypeWidth, maxTypeHeight;
+
+    /**
+     * The largest horizontal and vertical distance between the centres of any two connected nodes, by which queries for
+     * links are widened. These only grow between rehashes, so may overestimate once links are removed or shortened.
+     */
+    private int maxLinkWidth, maxLinkHeight;
+
+    /**
+     * The x-coordinates of the nodes.
+     */
+    private int[] xs;
+
+    /**
+     * The y-coordinates of the nodes.
+     */
+    private int[] ys;
+
+    /**
+     * The types of the nodes, or -1 for nodes that have been removed.
+     */
+    private int[] types;
+
+    /**
+     * The indices of the nodes each node is connected to, or null for nodes without connections.
+     */
+    private int[][] adjacency;
+
+    /**
+     * The number of connections each node has.
+     */
+    private int[] degrees;
+
+    /**
+     * The number of connections each node has to nodes of each type, with a stride of {@link #countStride}.
+     */
+    private int[] connectionCounts;
+
+    /**
+     * The number of types room has been made for per node in the connection counts.
+     */
+    private int countStride;
+
+    /**
+     * The brick created for each node, or null for nodes that have not been materialised.
+     */
+    private Brick<?>[] bricks;
+
+    /**
+     * The first node in each bucket of the spatial hash, or -1 if the bucket is empty.
+     */
+    private int[] bucketHeads;
+
+    /**
+     * The next and previous nodes in the same bucket of the spatial hash as each node, or -1 if none.
+     */
+    private int[] bucketNext, bucketPrevious;
+
+    /**
+     * The number of nodes ever added, which is also the index the next node will be given.
+     */
+    private int size;
+
+    /**
+     * The number of nodes that have not been removed.
+     */
+    private int nodeCount;
+
+    /**
+     * The smallest rectangle covering every node in the store, kept up to date as nodes are added and moved.
+     */
+    private final Rectangle bounds;
+
+    /**
+     * Whether a node on the edge of the bounds has moved or been removed, so that they must be recomputed.
+     */
+    private boolean boundsStale;
+
+    /**
+     * The designer this store is attached to, or null if it is not attached to one.
+     */
+    Designer designer;
+
+    /**
+     * A reusable list for collecting candidate nodes during hit-testing.
+     */
+    private final IntList hitTestResults;
+
+    /**
+     * A reusable rectangle for computing regions to repaint.
+     */
+    private final Rectangle repaintBounds;
+
+    /**
+     * Initialises a new instance of an empty graph store.
+     */
+    public GraphStore() {
+        typeNames = new String[INITIAL_CAPACITY];
+        typeWidths = new int[INITIAL_CAPACITY];
+        typeHeights = new int[INITIAL_CAPACITY];
+        typeImages = new Image[INITIAL_CAPACITY];
+        typeMaterialisers = new BrickMaterialiser[INITIAL_CAPACITY];
+        capacities = new int[INITIAL_CAPACITY][];
+        xs = new int[INITIAL_CAPACITY];
+        ys = new int[INITIAL_CAPACITY];
+        types = new int[INITIAL_CAPACITY];
+        adjacency = new int[INITIAL_CAPACITY][];
+        degrees = new int[INITIAL_CAPACITY];
+        countStride = 4;
+        connectionCounts = new int[INITIAL_CAPACITY * countStride];
+        bricks = new Brick<?>[INITIAL_CAPACITY];
+        bucketNext = new int[INITIAL_CAPACITY];
+        bucketPrevious = new int[INITIAL_CAPACITY];
+        bucketHeads = new int[INITIAL_CAPACITY];
+        Arrays.fill(bucketHeads, -1);
+        hitTestResults = new IntList();
+        repaintBounds = new Rectangle();
+        bounds = new Rectangle();
+    }
+
+    /**
+     * Adds a node type to the store. Nodes of the new type cannot connect to any others until capacities are set.
+     *
+     * @param name          the name of the type
+     * @param width         the width of nodes of the type in pixels
+     * @param height        the height of nodes of the type in pixels
+     * @param image         the image that represents nodes of the type
+     * @param materialiser  the materialiser that creates bricks for nodes of the type
+     * @return              the index of the new type
+     * @throws IllegalArgumentException if the width or height is negative, or the materialiser is null
+     */
+    @SuppressWarnings("unused") // API method.
+    public int addType(String name, int width, int height, Image image, BrickMaterialiser materialiser) {
+        if (width < 0 || height < 0) {
+            throw new IllegalArgumentException("Node type size must not be negative.");
+        }
+        if (materialiser == null) {
+            throw new IllegalArgumentException("Node type materialiser must not be null.");
+        }
+
+        // Make room for type.
+        if (typeCount == typeNames.length) {
+            final int newCapacity = typeCount * 2;
+            typeNames = Arrays.copyOf(typeNames, newCapacity);
+            typeWidths = Arrays.copyOf(typeWidths, newCapacity);
+            typeHeights = Arrays.copyOf(typeHeights, newCapacity);
+            typeImages = Arrays.copyOf(typeImages, newCapacity);
+            typeMaterialisers = Arrays.copyOf(typeMaterialisers, newCapacity);
+            capacities = Arrays.copyOf(capacities, newCapacity);
+        }
+        if (typeCount == countStride) {
+            restrideConnectionCounts(countStride * 2);
+        }
+
+        // Add type, with no capacity to or from any type.
+        final int type = typeCount++;
+        typeNames[type] = name;
+        typeWidths[type] = width;
+        typeHeights[type] = height;
+        typeImages[type] = image;
+        typeMaterialisers[type] = materialiser;
+        capacities[type] = new int[typeCount];
+        for (int i = 0; i < type; i++) {
+            capacities[i] = Arrays.copyOf(capacities[i], typeCount);
+        }
+        maxTypeWidth = Math.max(maxTypeWidth, width);
+        maxTypeHeight = Math.max(maxTypeHeight, height);
+        return type;
+    }
+
+    /**
+     * Gets the number of node types in the store.
+     *
+     * @return  the number of node types
+     */
+    @SuppressWarnings("unused") // API method.
+    public int getTypeCount() {
+        return typeCount;
+    }
+
+    /**
+     * Gets the name of a node type.
+     *
+     * @param type  the index of the type
+     * @return      the name of the type
+     * @throws IllegalArgumentException if there is no such type
+     */
+    @SuppressWarnings("unused") // API method.
+    public String getTypeName(int type) {
+        checkType(type);
+        return typeNames[type];
+    }
+
+    /**
+     * Sets the maximum number of connections nodes of one type may have to nodes of another. As with bricks, two nodes
+     * may only be connected if each has capacity remaining for the type of the other.
+     *
+     * @param type          the index of the type of node
+     * @param connectedType the index of the type of node connected to
+     * @param count         the maximum number of connections
+     * @throws IllegalArgumentException if either type does not exist or the count is negative
+     */
+    @SuppressWarnings("unused") // API method.
+    public void setConnectionCapacity(int type, int connectedType, int count) {
+        checkType(type);
+        checkType(connectedType);
+        if (count < 0) {
+            throw new IllegalArgumentException("Connection capacity must not be negative.");
+        }
+        capacities[type][connectedType] = count;
+    }
+
+    /**
+     * Adds a node to the store.
+     *
+     * @param type  the index of the type of the node
+     * @param x     the x-coordinate of the node in pixels
+     * @param y     the y-coordinate of the node in pixels
+     * @return      the index of the new node
+     * @throws IllegalArgumentException if there is no such type
+     */
+    @SuppressWarnings("unused") // API method.
+    public int addNode(int type, int x, int y) {
+        checkType(type);
+
+        // Make room for node.
+        if (size == xs.length) {
+            final int newCapacity = size * 2;
+            xs = Arrays.copyOf(xs, newCapacity);
+            ys = Arrays.copyOf(ys, newCapacity);
+            types = Arrays.copyOf(types, newCapacity);
+            adjacency = Arrays.copyOf(adjacency, newCapacity);
+            degrees = Arrays.copyOf(degrees, newCapacity);
+            connectionCounts = Arrays.copyOf(connectionCounts, newCapacity * countStride);
+            bricks = Arrays.copyOf(bricks, newCapacity);
+            bucketNext = Arrays.copyOf(bucketNext, newCapacity);
+            bucketPrevious = Arrays.copyOf(bucketPrevious, newCapacity);
+        }
+
+        // Add and index node, keeping spatial hash buckets short.
+        final int node = size++;
+        xs[node] = x;
+        ys[node] = y;
+        types[node] = type;
+        nodeCount++;
+        if (nodeCount == 1) {
+            bounds.setBounds(x, y, typeWidths[type], typeHeights[type]);
+            boundsStale = false;
+        } else {
+            addToBounds(node);
+        }
+        if (nodeCount > bucketHeads.length) {
+            rehash(bucketHeads.length * 2);
+        } else {
+            link(node);
+        }
+        repaintRegion(x, y, typeWidths[type], typeHeights[type]);
+        return node;
+    }
+
+    /**
+     * Removes a node and all of its connections from the store. If the node has been materialised and its brick is on
+     * a designer, the brick is removed from the designer too.
+     *
+     * @param node  the index of the node
+     * @throws IllegalArgumentException if there is no such node
+     */
+    @SuppressWarnings("unused") // API method.
+    public void removeNode(int node) {
+        checkNode(node);
+        final Brick<?> brick = bricks[node];
+        if (brick != null && brick.designer != null) {
+            brick.designer.removeBrick(brick);
+        } else {
+            delete(node);
+        }
+    }
+
+    /**
+     * Returns true if a node is in the store, otherwise returns false.
+     *
+     * @param node  the index of the node
+     * @return      true if the node has been added and not removed, otherwise false
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public boolean containsNode(int node) {
+        return node >= 0 && node < size && types[node] >= 0;
+    }
+
+    /**
+     * Gets the number of nodes in the store.
+     *
+     * @return  the number of nodes
+     */
+    @SuppressWarnings("unused") // API method.
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Gets the number of nodes ever added to the store, which is one more than the highest node index given out.
+     *
+     * @return  the number of nodes ever added
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public int getNodeLimit() {
+        return size;
+    }
+
+    /**
+     * Gets the type of a node.
+     *
+     * @param node  the index of the node
+     * @return      the index of the type of the node
+     * @throws IllegalArgumentException if there is no such node
+     */
+    @SuppressWarnings("unused") // API method.
+    public int getType(int node) {
+        checkNode(node);
+        return types[node];
+    }
+
+    /**
+     * Gets the x-coordinate of a node in pixels.
+     *
+     * @param node  the index of the node
+     * @return      the x-coordinate of the node
+     * @throws IllegalArgumentException if there is no such node
+     */
+    @SuppressWarnings("unused") // API method.
+    public int getX(int node) {
+        checkNode(node);
+        return xs[node];
+    }
+
+    /**
+     * Gets the y-coordinate of a node in pixels.
+     *
+     * @param node  the index of the node
+     * @return      the y-coordinate of the node
+     * @throws IllegalArgumentException if there is no such node
+     */
+    @SuppressWarnings("unused") // API method.
+    public int getY(int node) {
+        checkNode(node);
+        return ys[node];
+    }
+
+    /**
+     * Moves a node. If the node has been materialised, its brick is moved too.
+     *
+     * @param node  the index of the node
+     * @param x     the new x-coordinate of the node in pixels
+     * @param y     the new y-coordinate of the node in pixels
+     * @throws IllegalArgumentException if there is no such node
+     */
+    @SuppressWarnings("unused") // API method.
+    public void setPosition(int node, int x, int y) {
+        checkNode(node);
+        final Brick<?> brick = bricks[node];
+        if (brick != null) {
+
+            // Brick informs the store of the move itself.
+            if (brick.designer != null) {
+                brick.designer.repaintBrick(brick);
+            }
+            brick.setX(x);
+            brick.setY(y);
+            if (brick.designer != null) {
+                brick.designer.repaintBrick(brick);
+            }
+        } else {
+            repaintNode(node);
+            move(node, x, y);
+            repaintNode(node);
+        }
+    }
+
+    /**
+     * Gets the number of connections a node has.
+     *
+     * @param node  the index of the node
+     * @return      the number of connections
+     * @throws IllegalArgumentException if there is no such node
+     */
+    @SuppressWarnings("unused") // API method.
+    public int getDegree(int node) {
+        checkNode(node);
+        return degrees[node];
+    }
+
+    /**
+     * Gets one of the nodes a node is connected to. Connections are not kept in any particular order.
+     *
+     * @param node  the index of the node
+     * @param index the index of the connection, from zero to one less than the degree of the node
+     * @return      the index of the connected node
+     * @throws IllegalArgumentException if there is no such node
+     * @throws IndexOutOfBoundsException if there is no such connection
+     */
+    @SuppressWarnings("unused") // API method.
+    public int getConnection(int node, int index) {
+        checkNode(node);
+        if (index < 0 || index >= degrees[node]) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Degree: " + degrees[node]);
+        }
+        return adjacency[node][index];
+    }
+
+    /**
+     * Returns true if two nodes are connected, otherwise returns false.
+     *
+     * @param first     the index of the first node
+     * @param second    the index of the second node
+     * @return          true if the nodes are connected, otherwise false
+     * @throws IllegalArgumentException if either node does not exist
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public boolean isConnected(int first, int second) {
+        checkNode(first);
+        checkNode(second);
+
+        // Search the shorter adjacency list.
+        return degrees[first] <= degrees[second]
+                ? indexOf(first, second) >= 0
+                : indexOf(second, first) >= 0;
+    }
+
+    /**
+     * Returns true if two nodes can be connected, which requires each to have capacity remaining for the type of the
+     * other, otherwise returns false.
+     *
+     * @param first     the index of the first node
+     * @param second    the index of the second node
+     * @return          true if the nodes can be connected, otherwise false
+     * @throws IllegalArgumentException if either node does not exist
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public boolean canConnect(int first, int second) {
+        checkNode(first);
+        checkNode(second);
+        final int firstType = types[first];
+        final int secondType = types[second];
+        return first != second
+                && connectionCounts[first * countStride + secondType] < capacities[firstType][secondType]
+                && connectionCounts[second * countStride + firstType] < capacities[secondType][firstType];
+    }
+
+    /**
+     * Connects two nodes. If both have been materialised, their bricks are connected instead, subject to the
+     * connection capacities of the bricks.
+     *
+     * @param first     the index of the first node
+     * @param second    the index of the second node
+     * @throws IllegalArgumentException if either node does not exist, the nodes are already connected or either lacks
+     *                                  the capacity to connect to the other
+     */
+    @SuppressWarnings("unused") // API method.
+    public void connect(int first, int second) {
+        if (isConnected(first, second)) {
+            throw new IllegalArgumentException("You may not add multiple links between the same bricks.");
+        }
+        if (bricks[first] != null && bricks[second] != null) {
+            bricks[first].addConnection(bricks[second]);
+        } else if (canConnect(first, second)) {
+            addEdge(first, second);
+            repaintEdge(first, second);
+        } else {
+            throw new IllegalArgumentException("You may not connect a brick of type '" + typeNames[types[first]]
+                    + "' to one of type '" + typeNames[types[second]] + "'.");
+        }
+    }
+
+    /**
+     * Disconnects two nodes, along with their bricks if both have been materialised. Does nothing if the nodes are not
+     * connected.
+     *
+     * @param first     the index of the first node
+     * @param second    the index of the second node
+     * @throws IllegalArgumentException if either node does not exist
+     */
+    @SuppressWarnings("unused") // API method.
+    public void disconnect(int first, int second) {
+        if (isConnected(first, second)) {
+            repaintEdge(first, second);
+            if (bricks[first] != null && bricks[second] != null && bricks[first].hasConnection(bricks[second])) {
+                bricks[first].removeConnection(bricks[second]);
+            }
+            removeEdge(first, second);
+        }
+    }
+
+    /**
+     * Gets the top-most node at a position that has not been materialised. Nodes added later are drawn on top of those
+     * added earlier.
+     *
+     * @param x the x-coordinate of the position
+     * @param y the y-coordinate of the position
+     * @return  the index of the node, or -1 if there is none at that position
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public int getNodeAt(int x, int y) {
+        int topMost = -1;
+        query(x, y, 1, 1, hitTestResults);
+        for (int i = 0; i < hitTestResults.size(); i++) {
+            final int candidate = hitTestResults.get(i);
+            if (candidate > topMost && bricks[candidate] == null) {
+                topMost = candidate;
+            }
+        }
+        hitTestResults.clear();
+        return topMost;
+    }
+
+    /**
+     * Gets the brick that has been created for a node.
+     *
+     * @param node  the index of the node
+     * @return      the brick, or null if the node has not been materialised
+     * @throws IllegalArgumentException if there is no such node
+     */
+    @SuppressWarnings("unused") // API method.
+    public Brick<?> getBrick(int node) {
+        checkNode(node);
+        return bricks[node];
+    }
+
+    /**
+     * Gets the brick for a node, creating it with the materialiser of the node type if it does not yet exist. The new
+     * brick is moved to the position of the node, connected to the bricks of any connected nodes that have already
+     * been materialised, and added to the designer the store is attached to (if any).
+     *
+     * @param node  the index of the node
+     * @return      the brick for the node
+     * @throws IllegalArgumentException if there is no such node, or the materialiser returns null or a brick that is
+     *                                  already in a designer or store
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API method, also used internally.
+    public Brick<?> materialise(int node) {
+        checkNode(node);
+        if (bricks[node] != null) {
+            return bricks[node];
+        }
+
+        // Create brick at node position.
+        final Brick<?> brick = typeMaterialisers[types[node]].materialise(this, node);
+        if (brick == null || brick.designer != null || brick.graphStore != null) {
+            throw new IllegalArgumentException("Materialiser must return a new brick that is not in a designer.");
+        }
+        brick.setX(xs[node]);
+        brick.setY(ys[node]);
+        brick.graphStore = this;
+        brick.graphStoreNode = node;
+        bricks[node] = brick;
+
+        // Links between materialised nodes are drawn as links between their bricks, where the bricks permit them.
+        final int[] connections = adjacency[node];
+        for (int i = 0; i < degrees[node]; i++) {
+            final Brick<?> other = bricks[connections[i]];
+            if (other != null && brick.canConnect(other) && other.canConnect(brick)) {
+                brick.addConnection(other);
+            }
+        }
+        if (designer != null) {
+            designer.addBrick(brick);
+        }
+        return brick;
+    }
+
+    /**
+     * Gets the smallest rectangle covering every node in the store. This is kept up to date as nodes are added and
+     * moved, and only recomputed after a node on its edge has moved or been removed.
+     *
+     * @return  the bounds of the store, which are empty if there are no nodes
+     */
+    @SuppressWarnings("unused") // API method.
+    public Rectangle getBounds() {
+        if (boundsStale) {
+            boundsStale = false;
+            bounds.setBounds(0, 0, 0, 0);
+            boolean first = true;
+            for (int node = 0; node < size; node++) {
+                final int type = types[node];
+                if (type < 0) {
+                    continue;
+                }
+                if (first) {
+                    bounds.setBounds(xs[node], ys[node], typeWidths[type], typeHeights[type]);
+                    first = false;
+                } else {
+                    addToBounds(node);
+                }
+            }
+        }
+        return new Rectangle(bounds);
+    }
+
+    /**
+     * Finds the nodes whose bounds intersect a region, in no particular order. Safe to call from several threads at
+     * once provided the store is not modified meanwhile.
+     *
+     * @param x         the x-coordinate of the region
+     * @param y         the y-coordinate of the region
+     * @param width     the width of the region
+     * @param height    the height of the region
+     * @param results   the list to add the indices of the nodes found to
+     */
+    void query(int x, int y, int width, int height, IntList results) {
+        if (width <= 0 || height <= 0 || nodeCount == 0) {
+            return;
+        }
+
+        // Nodes are hashed by the cell of their top-left corner, so look in cells above and left of the region too.
+        final int minCellX = (x - maxTypeWidth) >> CELL_SHIFT;
+        final int minCellY = (y - maxTypeHeight) >> CELL_SHIFT;
+        final int maxCellX = (x + width - 1) >> CELL_SHIFT;
+        final int maxCellY = (y + height - 1) >> CELL_SHIFT;
+        final long cellCount = ((long) maxCellX - minCellX + 1) * ((long) maxCellY - minCellY + 1);
+
+        // Visiting every cell of a large region costs more than checking every node.
+        if (cellCount > nodeCount) {
+            for (int node = 0; node < size; node++) {
+                if (types[node] >= 0 && intersects(node, x, y, width, height)) {
+                    results.add(node);
+                }
+            }
+            return;
+        }
+        for (int cellY = minCellY; cellY <= maxCellY; cellY++) {
+            for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+                for (int node = bucketHeads[bucketOf(cellX, cellY)]; node >= 0; node = bucketNext[node]) {
+
+                    // Buckets are shared by many cells, so skip nodes from other cells to avoid duplicates.
+                    if (xs[node] >> CELL_SHIFT == cellX && ys[node] >> CELL_SHIFT == cellY
+                            && intersects(node, x, y, width, height)) {
+                        results.add(node);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the nodes with links that may pass through a region, in no particular order. Every link whose bounding box
+     * meets the region has both of its nodes among those found. Safe to call from several threads at once provided the
+     * store is not modified meanwhile.
+     *
+     * @param x         the x-coordinate of the region
+     * @param y         the y-coordinate of the region
+     * @param width     the width of the region
+     * @param height    the height of the region
+     * @param results   the list to add the indices of the nodes found to
+     */
+    void queryLinks(int x, int y, int width, int height, IntList results) {
+
+        // Link ends lie at node centres, within the longest link of the region, so widen the region by that much.
+        query(x - maxLinkWidth - 1, y - maxLinkHeight - 1, width + 2 * maxLinkWidth + 2,
+                height + 2 * maxLinkHeight + 2, results);
+    }
+
+    /**
+     * Updates a node after its brick has been moved.
+     *
+     * @param brick the brick that has moved
+     */
+    void brickMoved(Brick<?> brick) {
+        move(brick.graphStoreNode, brick.getX(), brick.getY());
+    }
+
+    /**
+     * Records a new link between two bricks materialised from this store.
+     *
+     * @param first     the first brick
+     * @param second    the second brick
+     */
+    void brickLinked(Brick<?> first, Brick<?> second) {
+        if (!isConnected(first.graphStoreNode, second.graphStoreNode)) {
+            addEdge(first.graphStoreNode, second.graphStoreNode);
+        }
+    }
+
+    /**
+     * Records the removal of a link between two bricks materialised from this store.
+     *
+     * @param first     the first brick
+     * @param second    the second brick
+     */
+    void brickUnlinked(Brick<?> first, Brick<?> second) {
+        if (isConnected(first.graphStoreNode, second.graphStoreNode)) {
+            removeEdge(first.graphStoreNode, second.graphStoreNode);
+        }
+    }
+
+    /**
+     * Removes the node of a brick materialised from this store after the brick has been removed from its designer.
+     *
+     * @param brick the brick that has been removed
+     */
+    void brickRemoved(Brick<?> brick) {
+        delete(brick.graphStoreNode);
+    }
+
+    /**
+     * Gets the x-coordinates of the nodes, indexed by node, for painting.
+     *
+     * @return  the x-coordinates, which must not be modified
+     */
+    int[] getXs() {
+        return xs;
+    }
+
+    /**
+     * Gets the y-coordinates of the nodes, indexed by node, for painting.
+     *
+     * @return  the y-coordinates, which must not be modified
+     */
+    int[] getYs() {
+        return ys;
+    }
+
+    /**
+     * Gets the types of the nodes, indexed by node, for painting. Removed nodes have a type of -1.
+     *
+     * @return  the types, which must not be modified
+     */
+    int[] getTypes() {
+        return types;
+    }
+
+    /**
+     * Gets the indices of the nodes each node is connected to, for painting. Only as many entries as the degree of
+     * each node are in use.
+     *
+     * @return  the adjacency lists, which must not be modified
+     */
+    int[][] getAdjacency() {
+        return adjacency;
+    }
+
+    /**
+     * Gets the number of connections each node has, for painting.
+     *
+     * @return  the degrees, which must not be modified
+     */
+    int[] getDegrees() {
+        return degrees;
+    }
+
+    /**
+     * Gets the bricks materialised for each node, for painting.
+     *
+     * @return  the bricks, with null for nodes that have not been materialised, which must not be modified
+     */
+    Brick<?>[] getBricks() {
+        return bricks;
+    }
+
+    /**
+     * Gets the width in pixels of nodes of a type.
+     *
+     * @param type  the index of the type
+     * @return      the width
+     */
+    int getTypeWidth(int type) {
+        return typeWidths[type];
+    }
+
+    /**
+     * Gets the height in pixels of nodes of a type.
+     *
+     * @param type  the index of the type
+     * @return      the height
+     */
+    int getTypeHeight(int type) {
+        return typeHeights[type];
+    }
+
+    /**
+     * Gets the image of nodes of a type.
+     *
+     * @param type  the index of the type
+     * @return      the image
+     */
+    Image getTypeImage(int type) {
+        return typeImages[type];
+    }
+
+    /**
+     * Returns true if the link between two nodes is drawn by the store rather than by a designer, which is the case
+     * unless both nodes have been materialised into connected bricks.
+     *
+     * @param first     the index of the first node
+     * @param second    the index of the second node
+     * @return          true if the store draws the link, otherwise false
+     */
+    boolean drawsEdge(int first, int second) {
+        final Brick<?> firstBrick = bricks[first];
+        final Brick<?> secondBrick = bricks[second];
+        return firstBrick == null || secondBrick == null || !firstBrick.hasConnection(secondBrick);
+    }
+
+    /**
+     * Adds the centres of the nodes connected to a node to a rectangle, so that it covers the links of the node.
+     *
+     * @param node  the index of the node
+     * @param rv    the rectangle to grow
+     */
+    void addConnectionCentres(int node, Rectangle rv) {
+        final int[] connections = adjacency[node];
+        for (int i = 0; i < degrees[node]; i++) {
+            final int other = connections[i];
+            final int type = types[other];
+            rv.add(xs[other] + typeWidths[type] / 2, ys[other] + typeHeights[type] / 2);
+        }
+    }
+
+    /**
+     * Moves a node, rehashing it if it changes cell.
+     *
+     * @param node  the index of the node
+     * @param x     the new x-coordinate
+     * @param y     the new y-coordinate
+     */
+    private void move(int node, int x, int y) {
+        final boolean sameCell = xs[node] >> CELL_SHIFT == x >> CELL_SHIFT && ys[node] >> CELL_SHIFT == y >> CELL_SHIFT;
+        if (!sameCell) {
+            unlink(node);
+        }
+        boundsStale |= touchesBounds(node);
+        xs[node] = x;
+        ys[node] = y;
+        addToBounds(node);
+        if (!sameCell) {
+            link(node);
+        }
+
+        // Links of the node may now be longer than any other.
+        final int[] connections = adjacency[node];
+        for (int i = 0; i < degrees[node]; i++) {
+            addToLinkSpan(node, connections[i]);
+        }
+    }
+
+    /**
+     * Removes a node and its connections, first unbinding its brick if it has one.
+     *
+     * @param node  the index of the node
+     */
+    private void delete(int node) {
+        final Brick<?> brick = bricks[node];
+        if (brick != null) {
+            brick.graphStore = null;
+            bricks[node] = null;
+            brick.removeAllConnections();
+        }
+        repaintNode(node);
+        while (degrees[node] > 0) {
+            removeEdge(node, adjacency[node][degrees[node] - 1]);
+        }
+        adjacency[node] = null;
+        unlink(node);
+        boundsStale |= touchesBounds(node);
+        types[node] = -1;
+        nodeCount--;
+    }
+
+    /**
+     * Adds an edge between two nodes without checking capacities or informing anything.
+     *
+     * @param first     the index of the first node
+     * @param second    the index of the second node
+     */
+    private void addEdge(int first, int second) {
+        append(first, second);
+        append(second, first);
+        connectionCounts[first * countStride + types[second]]++;
+        connectionCounts[second * countStride + types[first]]++;
+        addToLinkSpan(first, second);
+    }
+
+    /**
+     * Removes the edge between two connected nodes without informing anything.
+     *
+     * @param first     the index of the first node
+     * @param second    the index of the second node
+     */
+    private void removeEdge(int first, int second) {
+        removeAt(first, indexOf(first, second));
+        removeAt(second, indexOf(second, first));
+        connectionCounts[first * countStride + types[second]]--;
+        connectionCounts[second * countStride + types[first]]--;
+    }
+
+    /**
+     * Appends a node to the adjacency list of another, growing it if necessary.
+     *
+     * @param node  the index of the node whose list to append to
+     * @param other the index of the node to append
+     */
+    private void append(int node, int other) {
+        int[] connections = adjacency[node];
+        if (connections == null) {
+            connections = adjacency[node] = new int[4];
+        } else if (degrees[node] == connections.length) {
+            connections = adjacency[node] = Arrays.copyOf(connections, connections.length * 2);
+        }
+        connections[degrees[node]++] = other;
+    }
+
+    /**
+     * Removes an entry from the adjacency list of a node by moving the last entry into its place.
+     *
+     * @param node  the index of the node
+     * @param index the index of the entry to remove
+     */
+    private void removeAt(int node, int index) {
+        final int[] connections = adjacency[node];
+        connections[index] = connections[--degrees[node]];
+    }
+
+    /**
+     * Finds another node in the adjacency list of a node.
+     *
+     * @param node  the index of the node whose list to search
+     * @param other the index of the node to look for
+     * @return      the index of the entry, or -1 if the nodes are not connected
+     */
+    private int indexOf(int node, int other) {
+        final int[] connections = adjacency[node];
+        for (int i = 0; i < degrees[node]; i++) {
+            if (connections[i] == other) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Changes the number of types room is made for per node in the connection counts.
+     *
+     * @param newStride the new number of types per node
+     */
+    private void restrideConnectionCounts(int newStride) {
+        final int[] newCounts = new int[xs.length * newStride];
+        for (int node = 0; node < size; node++) {
+            System.arraycopy(connectionCounts, node * countStride, newCounts, node * newStride, countStride);
+        }
+        connectionCounts = newCounts;
+        countStride = newStride;
+    }
+
+    /**
+     * Gets the bucket of the spatial hash that holds a cell.
+     *
+     * @param cellX the x-coordinate of the cell
+     * @param cellY the y-coordinate of the cell
+     * @return      the index of the bucket
+     */
+    private int bucketOf(int cellX, int cellY) {
+        final int hash = cellX * 0x9E3779B1 ^ cellY * 0x85EBCA6B;
+        return (hash ^ hash >>> 16) & (bucketHeads.length - 1);
+    }
+
+    /**
+     * Adds a node to the bucket of the spatial hash for its position.
+     *
+     * @param node  the index of the node
+     */
+    private void link(int node) {
+        final int bucket = bucketOf(xs[node] >> CELL_SHIFT, ys[node] >> CELL_SHIFT);
+        final int head = bucketHeads[bucket];
+        bucketPrevious[node] = -1;
+        bucketNext[node] = head;
+        if (head >= 0) {
+            bucketPrevious[head] = node;
+        }
+        bucketHeads[bucket] = node;
+    }
+
+    /**
+     * Removes a node from the bucket of the spatial hash for its position.
+     *
+     * @param node  the index of the node
+     */
+    private void unlink(int node) {
+        final int previous = bucketPrevious[node];
+        final int next = bucketNext[node];
+        if (previous >= 0) {
+            bucketNext[previous] = next;
+        } else {
+            bucketHeads[bucketOf(xs[node] >> CELL_SHIFT, ys[node] >> CELL_SHIFT)] = next;
+        }
+        if (next >= 0) {
+            bucketPrevious[next] = previous;
+        }
+    }
+
+    /**
+     * Rebuilds the spatial hash with a new number of buckets.
+     *
+     * @param bucketCount   the new number of buckets, which must be a power of two
+     */
+    private void rehash(int bucketCount) {
+        bucketHeads = new int[bucketCount];
+        Arrays.fill(bucketHeads, -1);
+
+        // Every link is visited anyway, so tighten the longest link span while rebuilding.
+        maxLinkWidth = 0;
+        maxLinkHeight = 0;
+        for (int node = 0; node < size; node++) {
+            if (types[node] >= 0) {
+                link(node);
+                final int[] connections = adjacency[node];
+                for (int i = 0; i < degrees[node]; i++) {
+                    addToLinkSpan(node, connections[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Grows the bounds of the store to cover a node, unless they are to be recomputed anyway.
+     *
+     * @param node  the index of the node
+     */
+    private void addToBounds(int node) {
+        if (!boundsStale) {
+            final int type = types[node];
+            bounds.add(xs[node], ys[node]);
+            bounds.add(xs[node] + typeWidths[type], ys[node] + typeHeights[type]);
+        }
+    }
+
+    /**
+     * Returns true if a node lies on the edge of the bounds of the store, otherwise returns false.
+     *
+     * @param node  the index of the node
+     * @return      true if the bounds might shrink were the node to move or be removed, otherwise false
+     */
+    private boolean touchesBounds(int node) {
+        final int type = types[node];
+        return xs[node] == bounds.x || ys[node] == bounds.y
+                || xs[node] + typeWidths[type] == bounds.x + bounds.width
+                || ys[node] + typeHeights[type] == bounds.y + bounds.height;
+    }
+
+    /**
+     * Grows the longest link span of the store to cover the link between two nodes.
+     *
+     * @param first     the index of the first node
+     * @param second    the index of the second node
+     */
+    private void addToLinkSpan(int first, int second) {
+        final int firstType = types[first];
+        final int secondType = types[second];
+        maxLinkWidth = Math.max(maxLinkWidth, Math.abs(xs[first] + typeWidths[firstType] / 2
+                - xs[second] - typeWidths[secondType] / 2));
+        maxLinkHeight = Math.max(maxLinkHeight, Math.abs(ys[first] + typeHeights[firstType] / 2
+                - ys[second] - typeHeights[secondType] / 2));
+    }
+
+    /**
+     * Returns true if the bounds of a node intersect a region, otherwise returns false.
+     *
+     * @param node      the index of the node
+     * @param x         the x-coordinate of the region
+     * @param y         the y-coordinate of the region
+     * @param width     the width of the region
+     * @param height    the height of the region
+     * @return          true if the node intersects the region, otherwise false
+     */
+    private boolean intersects(int node, int x, int y, int width, int height) {
+        final int type = types[node];
+        return xs[node] < x + width && xs[node] + typeWidths[type] > x
+                && ys[node] < y + height && ys[node] + typeHeights[type] > y;
+    }
+
+    /**
+     * Repaints the region of the attached designer (if any) covered by a node and its links.
+     *
+     * @param node  the index of the node
+     */
+    private void repaintNode(int node) {
+        final int type = types[node];
+        repaintBounds.setBounds(xs[node], ys[node], typeWidths[type], typeHeights[type]);
+        addConnectionCentres(node, repaintBounds);
+        repaintRegion(repaintBounds.x - 1, repaintBounds.y - 1, repaintBounds.width + 2, repaintBounds.height + 2);
+    }
+
+    /**
+     * Repaints the region of the attached designer (if any) covered by the link between two nodes.
+     *
+     * @param first     the index of the first node
+     * @param second    the index of the second node
+     */
+    private void repaintEdge(int first, int second) {
+        final int firstType = types[first];
+        final int secondType = types[second];
+        repaintBounds.setBounds(xs[first] + typeWidths[firstType] / 2, ys[first] + typeHeights[firstType] / 2, 0, 0);
+        repaintBounds.add(xs[second] + typeWidths[secondType] / 2, ys[second] + typeHeights[secondType] / 2);
+        repaintRegion(repaintBounds.x - 1, repaintBounds.y - 1, repaintBounds.width + 2, repaintBounds.height + 2);
+    }
+
+    /**
+     * Repaints a region of the attached designer, if any.
+     *
+     * @param x         the x-coordinate of the region in model coordinates
+     * @param y         the y-coordinate of the region in model coordinates
+     * @param width     the width of the region
+     * @param height    the height of the region
+     */
+    private void repaintRegion(int x, int y, int width, int height) {
+        if (designer != null) {
+            designer.repaintModelRegion(x, y, width, height);
+        }
+    }
+
+    /**
+     * Throws an exception if a node type does not exist.
+     *
+     * @param type  the index of the type
+     * @throws IllegalArgumentException if there is no such type
+     */
+    private void checkType(int type) {
+        if (type < 0 || type >= typeCount) {
+            throw new IllegalArgumentException("There is no node type with index " + type + ".");
+        }
+    }
+
+    /**
+     * Throws an exception if a node does not exist.
+     *
+     * @param node  the index of the node
+     * @throws IllegalArgumentException if there is no such node
+     */
+    private void checkNode(int node) {
+        if (!containsNode(node)) {
+            throw new IllegalArgumentException("There is no node with index " + node + ".");
+        }
+    }
+}
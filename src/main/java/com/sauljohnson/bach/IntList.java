@@ -0,0 +1,76 @@
+package com.sauljohnson.bach;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of primitive integers, used to avoid boxing when collecting node indices.
+ *
+ * @author  Saul Johnson
+ */
+final class IntList {
+
+    /**
+     * The elements of the list, followed by unused capacity.
+     */
+    private int[] elements;
+
+    /**
+     * The number of elements in the list.
+     */
+    private int size;
+
+    /**
+     * Initialises a new instance of an empty list of integers.
+     */
+    IntList() {
+        elements = new int[16];
+    }
+
+    /**
+     * Gets the number of elements in the list.
+     *
+     * @return  the number of elements
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets the element at an index in the list.
+     *
+     * @param index the index of the element
+     * @return      the element
+     */
+    int get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return elements[index];
+    }
+
+    /**
+     * Adds an element to the end of the list.
+     *
+     * @param element   the element to add
+     */
+    void add(int element) {
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, size * 2);
+        }
+        elements[size++] = element;
+    }
+
+    /**
+     * Sorts the elements of the list into ascending order.
+     */
+    void sort() {
+        Arrays.sort(elements, 0, size);
+    }
+
+    /**
+     * Removes all elements from the list.
+     */
+    void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,34 @@
+package com.sauljohnson.bach;
+
+import java.io.IOException;
+
+/**
+ * Writes the model objects of one type of {@link Brick} as JSON for a {@link DiagramJson}, and acts as the factory
+ * that creates bricks of that type from it.
+ *
+ * @author  Saul Johnson
+ */
+public interface JsonBrickCodec {
+
+    /**
+     * Writes the model object of a brick as a single JSON value. The position and links of the brick are written
+     * separately.
+     *
+     * @param brick the brick whose model object to write
+     * @param out   the writer to write the value with
+     * @throws IOException if an I/O error occurs
+     */
+    void write(Brick<?> brick, DiagramJsonWriter out) throws IOException;
+
+    /**
+     * Creates a brick, reading its model object from the value written by
+     * {@link #write(Brick, DiagramJsonWriter)}.
+     *
+     * @param in    the reader positioned at the value, which must be consumed in full, or null if the brick has none
+     * @param x     the x-coordinate to create the brick at
+     * @param y     the y-coordinate to create the brick at
+     * @return      the brick created
+     * @throws IOException if an I/O error occurs or the value cannot be read
+     */
+    Brick<?> read(DiagramJsonReader in, int x, int y) throws IOException;
+}
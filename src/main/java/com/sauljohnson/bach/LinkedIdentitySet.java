@@ -0,0 +1,370 @@
+package com.sauljohnson.bach;
+
+import java.util.AbstractSequentialList;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A set that compares elements by identity and iterates over them in the order they were added. Adding, removing and
+ * checking for an element all take constant time.
+ *
+ * @param <E>   the type of elements in the set
+ * @author      Saul Johnson
+ */
+final class LinkedIdentitySet<E> extends AbstractSet<E> {
+
+    /**
+     * The nodes of the linked list, keyed by the element they hold.
+     */
+    private final IdentityHashMap<E, Node<E>> nodes;
+
+    /**
+     * The node holding the first element added, or null if the set is empty.
+     */
+    private Node<E> head;
+
+    /**
+     * The node holding the last element added, or null if the set is empty.
+     */
+    private Node<E> tail;
+
+    /**
+     * The number of times the set has been structurally modified, used to detect concurrent modification.
+     */
+    private int modCount;
+
+    /**
+     * The list view of the set, created on first use.
+     */
+    private List<E> listView;
+
+    /**
+     * Initialises a new instance of an empty, insertion-ordered identity set.
+     */
+    LinkedIdentitySet() {
+        nodes = new IdentityHashMap<>();
+    }
+
+    @Override
+    public int size() {
+        return nodes.size();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return nodes.containsKey(o);
+    }
+
+    @Override
+    public boolean add(E e) {
+        if (nodes.containsKey(e)) {
+            return false;
+        }
+
+        // Append to end of list.
+        final Node<E> node = new Node<>(e);
+        node.previous = tail;
+        if (tail == null) {
+            head = node;
+        } else {
+            tail.next = node;
+        }
+        tail = node;
+        nodes.put(e, node);
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        final Node<E> node = nodes.remove(o);
+        if (node == null) {
+            return false;
+        }
+        unlink(node);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        nodes.clear();
+        head = null;
+        tail = null;
+        modCount++;
+    }
+
+    /**
+     * Gets the first element in the set, which is the earliest added.
+     *
+     * @return  the first element
+     * @throws NoSuchElementException if the set is empty
+     */
+    E getFirst() {
+        if (head == null) {
+            throw new NoSuchElementException();
+        }
+        return head.item;
+    }
+
+    /**
+     * Gets the last element in the set, which is the latest added.
+     *
+     * @return  the last element
+     * @throws NoSuchElementException if the set is empty
+     */
+    E getLast() {
+        if (tail == null) {
+            throw new NoSuchElementException();
+        }
+        return tail.item;
+    }
+
+    /**
+     * Gets the node holding the first element in the set, from which the set can be walked in insertion order without
+     * allocating an iterator. The set must not be modified during the walk.
+     *
+     * @return  the first node, or null if the set is empty
+     */
+    Node<E> getHead() {
+        return head;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Itr(head, 0);
+    }
+
+    /**
+     * Gets a list view of the set in insertion order, which reflects later changes to the set. Accessing an element
+     * by index takes linear time, so the view should be iterated over rather than indexed into.
+     *
+     * @return  the list view
+     */
+    List<E> asList() {
+        if (listView == null) {
+            listView = new AbstractSequentialList<E>() {
+                @Override
+                public ListIterator<E> listIterator(int index) {
+                    if (index < 0 || index > nodes.size()) {
+                        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + nodes.size());
+                    }
+
+                    // Walk from whichever end is nearer.
+                    final Itr iterator;
+                    if (index < nodes.size() / 2) {
+                        iterator = new Itr(head, 0);
+                        while (iterator.nextIndex() < index) {
+                            iterator.next();
+                        }
+                    } else {
+                        iterator = new Itr(null, nodes.size());
+                        while (iterator.nextIndex() > index) {
+                            iterator.previous();
+                        }
+                    }
+                    return iterator;
+                }
+
+                @Override
+                public int size() {
+                    return nodes.size();
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    return nodes.containsKey(o);
+                }
+            };
+        }
+        return listView;
+    }
+
+    /**
+     * Removes a node from the linked list.
+     *
+     * @param node  the node to remove
+     */
+    private void unlink(Node<E> node) {
+        if (node.previous == null) {
+            head = node.next;
+        } else {
+            node.previous.next = node.next;
+        }
+        if (node.next == null) {
+            tail = node.previous;
+        } else {
+            node.next.previous = node.previous;
+        }
+        modCount++;
+    }
+
+    /**
+     * A node in the linked list that holds the elements in insertion order.
+     *
+     * @param <E>   the type of element held
+     */
+    static final class Node<E> {
+
+        /**
+         * The element held by the node.
+         */
+        private final E item;
+
+        /**
+         * The previous node in the list, or null if this is the first.
+         */
+        private Node<E> previous;
+
+        /**
+         * The next node in the list, or null if this is the last.
+         */
+        private Node<E> next;
+
+        /**
+         * Initialises a new instance of a node in the linked list.
+         *
+         * @param item  the element held by the node
+         */
+        Node(E item) {
+            this.item = item;
+        }
+
+        /**
+         * Gets the element held by the node.
+         *
+         * @return  the element
+         */
+        E getItem() {
+            return item;
+        }
+
+        /**
+         * Gets the next node in the list.
+         *
+         * @return  the next node, or null if this is the last
+         */
+        Node<E> getNext() {
+            return next;
+        }
+    }
+
+    /**
+     * Iterates over the set in insertion order. Only removal is supported, and only when iterating forwards.
+     */
+    private final class Itr implements ListIterator<E> {
+
+        /**
+         * The node that will be returned by the next call to {@link #next()}, or null if at the end.
+         */
+        private Node<E> nextNode;
+
+        /**
+         * The node last returned, or null if none or it has been removed.
+         */
+        private Node<E> lastReturned;
+
+        /**
+         * The index of the node that will be returned by the next call to {@link #next()}.
+         */
+        private int nextIndex;
+
+        /**
+         * The modification count the iterator expects the set to have.
+         */
+        private int expectedModCount;
+
+        /**
+         * Initialises a new instance of an iterator over the set.
+         *
+         * @param nextNode  the node to start at, or null to start at the end
+         * @param nextIndex the index of the node to start at
+         */
+        Itr(Node<E> nextNode, int nextIndex) {
+            this.nextNode = nextNode;
+            this.nextIndex = nextIndex;
+            expectedModCount = modCount;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextIndex < nodes.size();
+        }
+
+        @Override
+        public E next() {
+            checkForComodification();
+            if (nextNode == null) {
+                throw new NoSuchElementException();
+            }
+            lastReturned = nextNode;
+            nextNode = nextNode.next;
+            nextIndex++;
+            return lastReturned.item;
+        }
+
+        @Override
+        public boolean hasPrevious() {
+            return nextIndex > 0;
+        }
+
+        @Override
+        public E previous() {
+            checkForComodification();
+            final Node<E> previousNode = nextNode == null ? tail : nextNode.previous;
+            if (previousNode == null) {
+                throw new NoSuchElementException();
+            }
+            nextNode = previousNode;
+            lastReturned = previousNode;
+            nextIndex--;
+            return previousNode.item;
+        }
+
+        @Override
+        public int nextIndex() {
+            return nextIndex;
+        }
+
+        @Override
+        public int previousIndex() {
+            return nextIndex - 1;
+        }
+
+        @Override
+        public void remove() {
+            checkForComodification();
+            if (lastReturned == null || lastReturned == nextNode) {
+                throw new IllegalStateException();
+            }
+            nodes.remove(lastReturned.item);
+            unlink(lastReturned);
+            lastReturned = null;
+            nextIndex--;
+            expectedModCount = modCount;
+        }
+
+        @Override
+        public void set(E e) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void add(E e) {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Throws an exception if the set has been modified other than through this iterator.
+         */
+        private void checkForComodification() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+}
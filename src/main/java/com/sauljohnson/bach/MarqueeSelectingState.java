@@ -0,0 +1,100 @@
+package com.sauljohnson.bach;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.MouseEvent;
+
+/**
+ * Represents a state in which a marquee is being dragged out over empty space in a {@link Designer}. When the mouse is
+ * released, every brick lying wholly inside the marquee is selected.
+ *
+ * @author  Saul Johnson
+ */
+class MarqueeSelectingState extends DesignerState {
+
+    /**
+     * The corner of the marquee where dragging started, in view coordinates.
+     */
+    private final Point anchor;
+
+    /**
+     * The last known position of the cursor in view coordinates, which is the corner opposite the anchor.
+     */
+    private final Point cursorPosition;
+
+    /**
+     * Whether the bricks inside the marquee are added to the existing selection rather than replacing it.
+     */
+    private boolean extend;
+
+    /**
+     * Initialises a new instance of a state in which a marquee is being dragged out in a designer.
+     *
+     * @param designer  the designer this state relates to
+     */
+    MarqueeSelectingState(Designer designer) {
+        super(designer);
+        anchor = new Point();
+        cursorPosition = new Point();
+    }
+
+    @Override
+    DesignerStateType getType() {
+        return DesignerStateType.MARQUEE_SELECTING;
+    }
+
+    /**
+     * Starts the marquee at the position of the cursor, which should be done on entering the state.
+     *
+     * @param x         the x-coordinate of the cursor in view coordinates
+     * @param y         the y-coordinate of the cursor in view coordinates
+     * @param extend    true to add the bricks inside the marquee to the existing selection, false to replace it
+     */
+    void begin(int x, int y, boolean extend) {
+        anchor.setLocation(x, y);
+        cursorPosition.setLocation(x, y);
+        this.extend = extend;
+    }
+
+    /**
+     * Computes the bounds of the marquee in view coordinates.
+     *
+     * @param rv    the rectangle to write the bounds into
+     * @return      the rectangle given, containing the bounds
+     */
+    Rectangle getMarqueeBounds(Rectangle rv) {
+        rv.setBounds(Math.min(anchor.x, cursorPosition.x), Math.min(anchor.y, cursorPosition.y),
+                Math.abs(cursorPosition.x - anchor.x), Math.abs(cursorPosition.y - anchor.y));
+        return rv;
+    }
+
+    @Override
+    void handleMouseDragged(MouseEvent e) {
+
+        // Repaint where the marquee was and where it now is.
+        repaintMarquee();
+        cursorPosition.setLocation(e.getX(), e.getY());
+        repaintMarquee();
+    }
+
+    @Override
+    void handleMouseReleased(MouseEvent e) {
+        cursorPosition.setLocation(e.getX(), e.getY());
+
+        // Select everything inside the marquee with a single query, then revert state.
+        final int left = designer.viewToModelX(Math.min(anchor.x, cursorPosition.x));
+        final int top = designer.viewToModelY(Math.min(anchor.y, cursorPosition.y));
+        final int right = designer.viewToModelX(Math.max(anchor.x, cursorPosition.x));
+        final int bottom = designer.viewToModelY(Math.max(anchor.y, cursorPosition.y));
+        designer.selectBricksIn(new Rectangle(left, top, right - left + 1, bottom - top + 1), extend);
+        designer.setState(designer.getDefaultState());
+    }
+
+    /**
+     * Repaints the region covered by the outline of the marquee.
+     */
+    private void repaintMarquee() {
+        designer.repaintOverlay(Math.min(anchor.x, cursorPosition.x), Math.min(anchor.y, cursorPosition.y),
+                Math.abs(cursorPosition.x - anchor.x) + 1, Math.abs(cursorPosition.y - anchor.y) + 1);
+    }
+}
@@ -0,0 +1,245 @@
+package com.sauljohnson.bach;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a PNG image to a stream one row at a time, so that the whole image never needs to be held in memory.
+ *
+ * Images are written as 8-bit non-premultiplied RGBA, each row using the "sub" filter.
+ *
+ * @author  Saul Johnson
+ */
+final class PngStreamWriter {
+
+    /**
+     * The eight bytes every PNG file starts with.
+     */
+    private static final byte[] SIGNATURE = new byte[] {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+
+    /**
+     * The maximum number of bytes of compressed image data held before it is written out as a chunk.
+     */
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    /**
+     * The "sub" filter type, which stores each byte as the difference from the corresponding byte of the pixel to its
+     * left.
+     */
+    private static final int FILTER_SUB = 1;
+
+    /**
+     * The stream the PNG is written to.
+     */
+    private final OutputStream out;
+
+    /**
+     * The width of the image in pixels.
+     */
+    private final int width;
+
+    /**
+     * The height of the image in pixels.
+     */
+    private final int height;
+
+    /**
+     * The stream that compresses filtered rows into image data chunks.
+     */
+    private final DeflaterOutputStream imageData;
+
+    /**
+     * The compressor used for image data.
+     */
+    private final Deflater deflater;
+
+    /**
+     * The reusable buffer holding a filtered row.
+     */
+    private final byte[] row;
+
+    /**
+     * The number of rows written so far.
+     */
+    private int rowsWritten;
+
+    /**
+     * Initialises a new instance of a writer that streams a PNG image row by row, writing the file header at once.
+     *
+     * @param out       the stream to write to, which is not closed by this writer
+     * @param width     the width of the image in pixels
+     * @param height    the height of the image in pixels
+     * @throws IOException if an I/O error occurs
+     */
+    PngStreamWriter(OutputStream out, int width, int height) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Image dimensions must be positive.");
+        }
+        if ((long) width * 4 + 1 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Image is too wide to be written as a PNG.");
+        }
+        this.out = out;
+        this.width = width;
+        this.height = height;
+        row = new byte[width * 4 + 1];
+        row[0] = FILTER_SUB;
+
+        // Signature, then header: dimensions, 8 bits per sample, RGBA, deflate, adaptive filtering, no interlace.
+        out.write(SIGNATURE);
+        final byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8;
+        header[9] = 6;
+        writeChunk("IHDR", header, header.length);
+
+        // Image data passes through the compressor into IDAT chunks.
+        deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        imageData = new DeflaterOutputStream(new ChunkOutputStream(), deflater, CHUNK_SIZE);
+    }
+
+    /**
+     * Writes the next row of the image.
+     *
+     * @param pixels    the array holding the row as non-premultiplied ARGB pixels
+     * @param offset    the index in the array of the first pixel of the row
+     * @throws IOException if an I/O error occurs
+     */
+    void writeRow(int[] pixels, int offset) throws IOException {
+        if (rowsWritten == height) {
+            throw new IllegalStateException("All rows of the image have already been written.");
+        }
+        int previous = 0;
+        for (int i = 0, j = 1; i < width; i++, j += 4) {
+            final int pixel = pixels[offset + i];
+            row[j] = (byte) ((pixel >> 16) - (previous >> 16));
+            row[j + 1] = (byte) ((pixel >> 8) - (previous >> 8));
+            row[j + 2] = (byte) (pixel - previous);
+            row[j + 3] = (byte) ((pixel >>> 24) - (previous >>> 24));
+            previous = pixel;
+        }
+        imageData.write(row);
+        rowsWritten++;
+    }
+
+    /**
+     * Finishes writing the image, flushing the remaining image data and writing the end chunk. The underlying stream
+     * is flushed but not closed. The writer is closed afterwards, even if an error occurs.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    void finish() throws IOException {
+        if (rowsWritten != height) {
+            throw new IllegalStateException("Only " + rowsWritten + " of " + height + " rows have been written.");
+        }
+        try {
+            imageData.close();
+            writeChunk("IEND", new byte[0], 0);
+            out.flush();
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Releases the native memory held by the compressor, which must be done whether or not the image was finished.
+     * Calling this more than once has no further effect. The underlying stream is not closed.
+     */
+    void close() {
+        deflater.end();
+    }
+
+    /**
+     * Writes a chunk to the underlying stream.
+     *
+     * @param type      the four-character chunk type
+     * @param data      the array holding the chunk data
+     * @param length    the length of the chunk data
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        final byte[] typeBytes = type.getBytes("US-ASCII");
+        final CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        final byte[] buffer = new byte[4];
+        putInt(buffer, 0, length);
+        out.write(buffer);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        putInt(buffer, 0, (int) crc.getValue());
+        out.write(buffer);
+    }
+
+    /**
+     * Stores an integer in big-endian byte order, as used throughout PNG.
+     *
+     * @param buffer    the buffer to store into
+     * @param offset    the index in the buffer to store at
+     * @param value     the value to store
+     */
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Receives compressed image data and writes it out as IDAT chunks.
+     */
+    private final class ChunkOutputStream extends OutputStream {
+
+        /**
+         * The compressed data not yet written out as a chunk.
+         */
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+
+        /**
+         * The number of bytes held in the buffer.
+         */
+        private int count;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                flushChunk();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    flushChunk();
+                }
+                final int copied = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, copied);
+                count += copied;
+                off += copied;
+                len -= copied;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushChunk();
+        }
+
+        /**
+         * Writes the buffered data out as a chunk, if there is any.
+         *
+         * @throws IOException if an I/O error occurs
+         */
+        private void flushChunk() throws IOException {
+            if (count > 0) {
+                writeChunk("IDAT", buffer, count);
+                count = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,552 @@
+package com.sauljohnson.bach;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * A loose quadtree that indexes items by their bounding rectangles so that point and rectangle queries can be answered
+ * without visiting every item.
+ *
+ * Each node owns a square region of space, but accepts any item whose centre lies within that square and which is no
+ * larger than the square itself. This means items that straddle quadrant boundaries still sink to the deepest
+ * sensible node rather than piling up near the root. The tree grows outwards as needed to accommodate items placed
+ * anywhere in integer coordinate space.
+ *
+ * @param <T>   the type of item stored in the tree
+ * @author      Saul Johnson
+ */
+final class QuadTree<T> {
+
+    /**
+     * The number of items a leaf node may hold before it is split.
+     */
+    private static final int NODE_CAPACITY = 8;
+
+    /**
+     * The size of the smallest node that may be created by splitting.
+     */
+    private static final int MINIMUM_NODE_SIZE = 32;
+
+    /**
+     * The size of the initial root node.
+     */
+    private static final int INITIAL_ROOT_SIZE = 1024;
+
+    /**
+     * The size beyond which the root node will not grow, to avoid integer overflow.
+     */
+    private static final int MAXIMUM_ROOT_SIZE = 1 << 29;
+
+    /**
+     * The entries in the tree, keyed by item identity.
+     */
+    private final IdentityHashMap<T, Entry<T>> entries;
+
+    /**
+     * The root node of the tree.
+     */
+    private Node<T> root;
+
+    /**
+     * Initialises a new instance of a loose quadtree.
+     */
+    QuadTree() {
+        entries = new IdentityHashMap<>();
+        root = new Node<>(null, 0, 0, INITIAL_ROOT_SIZE);
+    }
+
+    /**
+     * Gets the number of items in the tree.
+     *
+     * @return  the number of items in the tree
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns true if the given item is present in the tree, otherwise returns false.
+     *
+     * @param item  the item to check
+     * @return      true if the item is present in the tree, otherwise false
+     */
+    boolean contains(T item) {
+        return entries.containsKey(item);
+    }
+
+    /**
+     * Inserts an item into the tree.
+     *
+     * @param item      the item to insert
+     * @param x         the x-coordinate of the item bounds
+     * @param y         the y-coordinate of the item bounds
+     * @param width     the width of the item bounds
+     * @param height    the height of the item bounds
+     * @throws IllegalArgumentException if the item is already present in the tree
+     */
+    void insert(T item, int x, int y, int width, int height) {
+        if (entries.containsKey(item)) {
+            throw new IllegalArgumentException("Specified item is already present in the tree.");
+        }
+        final Entry<T> entry = new Entry<>(item);
+        entry.setBounds(x, y, width, height);
+        entries.put(item, entry);
+        insert(entry);
+    }
+
+    /**
+     * Updates the bounds of an item already in the tree.
+     *
+     * @param item      the item to update
+     * @param x         the new x-coordinate of the item bounds
+     * @param y         the new y-coordinate of the item bounds
+     * @param width     the new width of the item bounds
+     * @param height    the new height of the item bounds
+     * @throws IllegalArgumentException if the item is not present in the tree
+     */
+    void update(T item, int x, int y, int width, int height) {
+        final Entry<T> entry = entries.get(item);
+        if (entry == null) {
+            throw new IllegalArgumentException("Specified item is not present in the tree.");
+        }
+
+        // Cheap path, item still belongs in the same leaf.
+        final Node<T> node = entry.node;
+        entry.setBounds(x, y, width, height);
+        if (node.isLeaf() && node.accepts(entry)) {
+            return;
+        }
+        node.removeEntry(entry);
+        collapse(node);
+        insert(entry);
+    }
+
+    /**
+     * Removes an item from the tree.
+     *
+     * @param item  the item to remove
+     * @return      true if the item was present and has been removed, otherwise false
+     */
+    boolean remove(T item) {
+        final Entry<T> entry = entries.remove(item);
+        if (entry == null) {
+            return false;
+        }
+        final Node<T> node = entry.node;
+        node.removeEntry(entry);
+        collapse(node);
+        return true;
+    }
+
+    /**
+     * Removes all items from the tree.
+     */
+    void clear() {
+        entries.clear();
+        root = new Node<>(null, 0, 0, INITIAL_ROOT_SIZE);
+    }
+
+    /**
+     * Writes the indexed bounds of an item into the given array as x, y, width and height.
+     *
+     * @param item  the item to get the bounds of
+     * @param rv    the array of at least four elements to write the bounds into
+     * @return      true if the item was present in the tree, otherwise false
+     */
+    boolean getBounds(T item, int[] rv) {
+        final Entry<T> entry = entries.get(item);
+        if (entry == null) {
+            return false;
+        }
+        rv[0] = entry.x;
+        rv[1] = entry.y;
+        rv[2] = entry.width;
+        rv[3] = entry.height;
+        return true;
+    }
+
+    /**
+     * Adds every item whose bounds contain the given point to a collection.
+     *
+     * @param x         the x-coordinate of the point
+     * @param y         the y-coordinate of the point
+     * @param results   the collection to add matching items to
+     */
+    void queryPoint(int x, int y, Collection<? super T> results) {
+        queryPoint(root, x, y, results);
+    }
+
+    /**
+     * Adds every item whose bounds intersect the given rectangle to a collection.
+     *
+     * @param x         the x-coordinate of the rectangle
+     * @param y         the y-coordinate of the rectangle
+     * @param width     the width of the rectangle
+     * @param height    the height of the rectangle
+     * @param results   the collection to add matching items to
+     */
+    void query(int x, int y, int width, int height, Collection<? super T> results) {
+        if (width > 0 && height > 0) {
+            query(root, x, y, width, height, results);
+        }
+    }
+
+    /**
+     * Inserts an entry into the tree, growing the root if necessary.
+     *
+     * @param entry the entry to insert
+     */
+    private void insert(Entry<T> entry) {
+
+        // Grow root until the entry fits within it.
+        while (!root.accepts(entry) && root.size < MAXIMUM_ROOT_SIZE) {
+            growRoot(entry);
+        }
+
+        // Sink entry to deepest accepting node.
+        Node<T> node = root;
+        while (!node.isLeaf()) {
+            final Node<T> child = node.childFor(entry);
+            if (child == null) {
+                break;
+            }
+            node = child;
+        }
+        node.addEntry(entry);
+
+        // Split leaf if over capacity.
+        if (node.isLeaf() && node.entries.size() > NODE_CAPACITY && node.size / 2 >= MINIMUM_NODE_SIZE) {
+            split(node);
+        }
+    }
+
+    /**
+     * Doubles the size of the root node in the direction of the given entry.
+     *
+     * @param entry the entry the root needs to grow towards
+     */
+    private void growRoot(Entry<T> entry) {
+        final Node<T> oldRoot = root;
+        final int size = oldRoot.size;
+        final int newX = entry.centreX() < oldRoot.x ? oldRoot.x - size : oldRoot.x;
+        final int newY = entry.centreY() < oldRoot.y ? oldRoot.y - size : oldRoot.y;
+        final Node<T> newRoot = new Node<>(null, newX, newY, size * 2);
+        newRoot.createChildren();
+
+        // Put old root in place of the matching quadrant.
+        final int quadrant = (oldRoot.x == newX ? 0 : 1) + (oldRoot.y == newY ? 0 : 2);
+        oldRoot.parent = newRoot;
+        newRoot.children[quadrant] = oldRoot;
+        root = newRoot;
+    }
+
+    /**
+     * Splits a leaf node into four children, pushing down any entries that fit within them.
+     *
+     * @param node  the node to split
+     */
+    private void split(Node<T> node) {
+        node.createChildren();
+        final List<Entry<T>> existing = new ArrayList<>(node.entries);
+        node.entries.clear();
+        for (Entry<T> entry : existing) {
+            final Node<T> child = node.childFor(entry);
+            (child == null ? node : child).addEntry(entry);
+        }
+    }
+
+    /**
+     * Removes empty children from the given node and its ancestors where possible.
+     *
+     * @param node  the node at which to begin collapsing
+     */
+    private void collapse(Node<T> node) {
+        Node<T> current = node.isLeaf() ? node.parent : node;
+        while (current != null && current.hasOnlyEmptyLeafChildren()) {
+            current.children = null;
+            current = current.parent;
+        }
+    }
+
+    /**
+     * Adds items in the subtree rooted at the given node whose bounds contain a point to a collection.
+     *
+     * @param node      the node at which to begin searching
+     * @param x         the x-coordinate of the point
+     * @param y         the y-coordinate of the point
+     * @param results   the collection to add matching items to
+     */
+    private static <T> void queryPoint(Node<T> node, int x, int y, Collection<? super T> results) {
+        if (!node.looseBoundsIntersect(x, y, 1, 1)) {
+            return;
+        }
+        final List<Entry<T>> nodeEntries = node.entries;
+        for (int i = 0; i < nodeEntries.size(); i++) {
+            final Entry<T> entry = nodeEntries.get(i);
+            if (entry.contains(x, y)) {
+                results.add(entry.item);
+            }
+        }
+        if (!node.isLeaf()) {
+            for (Node<T> child : node.children) {
+                queryPoint(child, x, y, results);
+            }
+        }
+    }
+
+    /**
+     * Adds items in the subtree rooted at the given node whose bounds intersect a rectangle to a collection.
+     *
+     * @param node      the node at which to begin searching
+     * @param x         the x-coordinate of the rectangle
+     * @param y         the y-coordinate of the rectangle
+     * @param width     the width of the rectangle
+     * @param height    the height of the rectangle
+     * @param results   the collection to add matching items to
+     */
+    private static <T> void query(Node<T> node, int x, int y, int width, int height,
+                                  Collection<? super T> results) {
+        if (!node.looseBoundsIntersect(x, y, width, height)) {
+            return;
+        }
+        final List<Entry<T>> nodeEntries = node.entries;
+        for (int i = 0; i < nodeEntries.size(); i++) {
+            final Entry<T> entry = nodeEntries.get(i);
+            if (entry.intersects(x, y, width, height)) {
+                results.add(entry.item);
+            }
+        }
+        if (!node.isLeaf()) {
+            for (Node<T> child : node.children) {
+                query(child, x, y, width, height, results);
+            }
+        }
+    }
+
+    /**
+     * Represents an item stored in the tree along with its bounds.
+     *
+     * @param <T>   the type of item
+     */
+    private static final class Entry<T> {
+
+        /**
+         * The item itself.
+         */
+        private final T item;
+
+        /**
+         * The bounds of the item.
+         */
+        private int x, y, width, height;
+
+        /**
+         * The node currently holding this entry.
+         */
+        private Node<T> node;
+
+        /**
+         * The index of this entry in the entry list of its node.
+         */
+        private int slot;
+
+        /**
+         * Initialises a new entry for an item.
+         *
+         * @param item  the item
+         */
+        Entry(T item) {
+            this.item = item;
+        }
+
+        /**
+         * Sets the bounds of the entry, clamping negative dimensions to zero.
+         */
+        void setBounds(int x, int y, int width, int height) {
+            this.x = x;
+            this.y = y;
+            this.width = Math.max(width, 0);
+            this.height = Math.max(height, 0);
+        }
+
+        /**
+         * Gets the x-coordinate of the centre of the entry.
+         */
+        int centreX() {
+            return x + width / 2;
+        }
+
+        /**
+         * Gets the y-coordinate of the centre of the entry.
+         */
+        int centreY() {
+            return y + height / 2;
+        }
+
+        /**
+         * Returns true if the entry bounds contain the given point.
+         */
+        boolean contains(int px, int py) {
+            return px >= x && py >= y && px < x + width && py < y + height;
+        }
+
+        /**
+         * Returns true if the entry bounds intersect the given rectangle.
+         */
+        boolean intersects(int rx, int ry, int rw, int rh) {
+            return rx < x + width && ry < y + height && rx + rw > x && ry + rh > y;
+        }
+    }
+
+    /**
+     * Represents a node in the tree.
+     *
+     * @param <T>   the type of item
+     */
+    private static final class Node<T> {
+
+        /**
+         * The parent of this node, or null if this is the root.
+         */
+        private Node<T> parent;
+
+        /**
+         * The tight square region owned by this node.
+         */
+        private final int x, y, size;
+
+        /**
+         * The four children of this node in the order top-left, top-right, bottom-left, bottom-right, or null if
+         * this node is a leaf.
+         */
+        private Node<T>[] children;
+
+        /**
+         * The entries held directly by this node.
+         */
+        private final List<Entry<T>> entries;
+
+        /**
+         * Initialises a new node owning the given square region.
+         */
+        Node(Node<T> parent, int x, int y, int size) {
+            this.parent = parent;
+            this.x = x;
+            this.y = y;
+            this.size = size;
+            entries = new ArrayList<>(0);
+        }
+
+        /**
+         * Returns true if this node has no children.
+         */
+        boolean isLeaf() {
+            return children == null;
+        }
+
+        /**
+         * Creates four empty children, one for each quadrant of this node.
+         */
+        @SuppressWarnings({"unchecked", "rawtypes"}) // Generic array creation.
+        void createChildren() {
+            final int half = size / 2;
+            children = new Node[] {
+                    new Node<>(this, x, y, half),
+                    new Node<>(this, x + half, y, half),
+                    new Node<>(this, x, y + half, half),
+                    new Node<>(this, x + half, y + half, half)
+            };
+        }
+
+        /**
+         * Returns true if the centre of the entry lies within this node and the entry is no larger than it.
+         *
+         * @param entry the entry to check
+         * @return      true if this node can hold the entry, otherwise false
+         */
+        boolean accepts(Entry<?> entry) {
+            final int cx = entry.centreX();
+            final int cy = entry.centreY();
+            return cx >= x && cy >= y && cx - x < size && cy - y < size
+                    && entry.width <= size && entry.height <= size;
+        }
+
+        /**
+         * Returns true if the entry is small enough to be held by a child of this node.
+         *
+         * @param entry the entry to check
+         * @return      true if a child of this node could hold the entry, otherwise false
+         */
+        boolean fitsChild(Entry<?> entry) {
+            final int half = size / 2;
+            return entry.width <= half && entry.height <= half;
+        }
+
+        /**
+         * Gets the child of this node that should hold the given entry, or null if the entry belongs in this node.
+         *
+         * @param entry the entry to place
+         * @return      the child to place the entry in, or null if none
+         */
+        Node<T> childFor(Entry<?> entry) {
+            if (!fitsChild(entry)) {
+                return null;
+            }
+            final int half = size / 2;
+            final int index = (entry.centreX() - x >= half ? 1 : 0) + (entry.centreY() - y >= half ? 2 : 0);
+            return children[index];
+        }
+
+        /**
+         * Returns true if the loose bounds of this node (its square expanded by half its size on each side) intersect
+         * the given rectangle.
+         */
+        boolean looseBoundsIntersect(int rx, int ry, int rw, int rh) {
+            final long half = size / 2;
+            final long lx = x - half;
+            final long ly = y - half;
+            final long ls = (long) size * 2;
+            return rx < lx + ls && ry < ly + ls && (long) rx + rw > lx && (long) ry + rh > ly;
+        }
+
+        /**
+         * Adds an entry to this node.
+         */
+        void addEntry(Entry<T> entry) {
+            entry.node = this;
+            entry.slot = entries.size();
+            entries.add(entry);
+        }
+
+        /**
+         * Removes an entry from this node.
+         */
+        void removeEntry(Entry<T> entry) {
+
+            // Swap with last entry for constant-time removal.
+            final int last = entries.size() - 1;
+            final Entry<T> moved = entries.get(last);
+            entries.set(entry.slot, moved);
+            moved.slot = entry.slot;
+            entries.remove(last);
+            entry.node = null;
+        }
+
+        /**
+         * Returns true if this node has children and all of them are empty leaves.
+         */
+        boolean hasOnlyEmptyLeafChildren() {
+            if (children == null) {
+                return false;
+            }
+            for (Node<T> child : children) {
+                if (!child.isLeaf() || !child.entries.isEmpty()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,527 @@
+package com.sauljohnson.bach;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.TexturePaint;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Paints the static scene of a {@link Designer} (background, grid, links and bricks) through a particular view.
+ *
+ * Each renderer holds its own view and scratch space, so several renderers may paint the same designer concurrently
+ * (for example when exporting tiles in parallel) provided the designer is not modified while they do so.
+ *
+ * @author  Saul Johnson
+ */
+final class SceneRenderer {
+
+    /**
+     * The designer whose scene is painted.
+     */
+    private final Designer designer;
+
+    /**
+     * Whether to draw brick images from the designer's image cache, which may only be used on the event thread.
+     */
+    private final boolean useImageCache;
+
+    /**
+     * The zoom factor of the view.
+     */
+    private double zoom = 1.0;
+
+    /**
+     * The horizontal pan offset of the view in view pixels.
+     */
+    private double panX;
+
+    /**
+     * The vertical pan offset of the view in view pixels.
+     */
+    private double panY;
+
+    /**
+     * The transform from model coordinates to view coordinates.
+     */
+    private final AffineTransform viewTransform;
+
+    /**
+     * The paint used to fill the background and grid at actual size, anchored at the current pan offset.
+     */
+    private TexturePaint gridPaint;
+
+    /**
+     * The grid tile the current grid paint was built from.
+     */
+    private BufferedImage gridPaintTile;
+
+    /**
+     * The pan offset the current grid paint was built for.
+     */
+    private double gridPaintPanX, gridPaintPanY;
+
+    /**
+     * Reusable list of bricks to be painted.
+     */
+    private final List<Brick<?>> paintBricks;
+
+    /**
+     * Reusable list of links to be painted.
+     */
+    private final List<BrickLink> paintLinks;
+
+    /**
+     * The number of bricks painted as placeholders because they had no image, since the renderer was created.
+     */
+    private int missingImageCount;
+
+    /**
+     * Reusable list of graph store nodes to be painted.
+     */
+    private final IntList paintNodes;
+
+    /**
+     * Reusable rectangle holding the region being painted in model coordinates.
+     */
+    private final Rectangle modelBounds;
+
+    /**
+     * Initialises a new instance of a renderer for the static scene of a designer.
+     *
+     * @param designer      the designer whose scene to paint
+     * @param useImageCache true to draw brick images from the designer's image cache, false to draw them directly
+     */
+    SceneRenderer(Designer designer, boolean useImageCache) {
+        this.designer = designer;
+        this.useImageCache = useImageCache;
+        paintBricks = new ArrayList<>();
+        paintLinks = new ArrayList<>();
+        paintNodes = new IntList();
+        modelBounds = new Rectangle();
+        viewTransform = new AffineTransform();
+    }
+
+    /**
+     * Sets the view the scene is painted through.
+     *
+     * @param zoom  the zoom factor
+     * @param panX  the horizontal pan offset in view pixels
+     * @param panY  the vertical pan offset in view pixels
+     */
+    void setView(double zoom, double panX, double panY) {
+        this.zoom = zoom;
+        this.panX = panX;
+        this.panY = panY;
+        viewTransform.setTransform(zoom, 0, 0, zoom, panX, panY);
+    }
+
+    /**
+     * Gets the transform from model coordinates to view coordinates.
+     *
+     * @return  the transform from model coordinates to view coordinates
+     */
+    AffineTransform getViewTransform() {
+        return new AffineTransform(viewTransform);
+    }
+
+    /**
+     * Transforms a graphics context from view coordinates into model coordinates.
+     *
+     * @param g the graphics context to transform
+     */
+    void applyViewTransform(Graphics2D g) {
+        g.transform(viewTransform);
+    }
+
+    /**
+     * Gets the number of bricks painted as placeholders because {@link Brick#getImage()} returned null, since the
+     * renderer was created.
+     *
+     * @return  the number of bricks painted without their images
+     */
+    int getMissingImageCount() {
+        return missingImageCount;
+    }
+
+    /**
+     * Returns true if the view is zoomed out past the designer's level of detail threshold, otherwise returns false.
+     *
+     * @return  true if bricks should be drawn as placeholders and links as hairlines, otherwise false
+     */
+    boolean isLowDetail() {
+        return zoom < designer.getLevelOfDetailThreshold();
+    }
+
+    /**
+     * Paints the parts of the static scene that lie beneath bricks (background, grid and links) within a region. These
+     * are drawn in view coordinates so that grid lines and links stay one pixel wide at any zoom.
+     *
+     * @param g             the graphics context to paint to, in view coordinates
+     * @param region        the region to paint in view coordinates
+     * @param omitSelected  true to leave out the links of selected bricks because they are painted in the overlay
+     */
+    void paintUnderlay(Graphics2D g, Rectangle region, boolean omitSelected) {
+
+        // Fill in background, with grid drawn from cached tile if enabled and at actual size.
+        final boolean showGridLines = designer.isShowGrid() && designer.getGridSpacing() > 0 && !isLowDetail();
+        if (showGridLines && zoom == 1.0) {
+            g.setPaint(getGridPaint());
+        } else {
+            g.setColor(designer.getBackgroundColor());
+        }
+        g.fillRect(region.x, region.y, region.width, region.height);
+        g.setComposite(AlphaComposite.SrcOver);
+
+        // Grid lines at other zoom levels are drawn individually, as a scaled tile would blur or drop them.
+        if (showGridLines && zoom != 1.0) {
+            paintGridLines(g, region);
+        }
+
+        // Grow region by a pixel so that lines running along its edge are not culled.
+        region.grow(1, 1);
+        modelBounds.setBounds(region);
+        viewToModel(modelBounds);
+
+        // Render brick links that pass through the region, each once, all in the same style.
+        g.setColor(designer.getBrickLinkColor());
+        designer.getLinkIndex().query(modelBounds.x, modelBounds.y, modelBounds.width, modelBounds.height,
+                paintLinks);
+        for (int i = 0; i < paintLinks.size(); i++) {
+            final BrickLink link = paintLinks.get(i);
+            if (!omitSelected || (!designer.isSelected(link.getFirst()) && !designer.isSelected(link.getSecond()))) {
+                paintLink(g, region, link.getFirst(), link.getSecond());
+            }
+        }
+        paintLinks.clear();
+
+        // Render links held in the graph store, if any.
+        final GraphStore graphStore = designer.getGraphStore();
+        if (graphStore != null) {
+            paintGraphStoreLinks(g, region, graphStore, omitSelected);
+        }
+        region.grow(-1, -1);
+    }
+
+    /**
+     * Paints the links held in a graph store that pass through a region, each once, other than those drawn as links
+     * between bricks. Only the nodes near enough to the region to have links passing through it are visited.
+     *
+     * @param g             the graphics context to paint to in view coordinates, with the link colour already set
+     * @param region        the region to paint in view coordinates
+     * @param graphStore    the graph store whose links to paint
+     * @param omitSelected  true to leave out the links of selected bricks because they are painted in the overlay
+     */
+    private void paintGraphStoreLinks(Graphics2D g, Rectangle region, GraphStore graphStore, boolean omitSelected) {
+        final int[] xs = graphStore.getXs();
+        final int[] ys = graphStore.getYs();
+        final int[] types = graphStore.getTypes();
+        final int[][] adjacency = graphStore.getAdjacency();
+        final int[] degrees = graphStore.getDegrees();
+        final Brick<?>[] bricks = graphStore.getBricks();
+        final int left = modelBounds.x;
+        final int top = modelBounds.y;
+        final int right = modelBounds.x + modelBounds.width;
+        final int bottom = modelBounds.y + modelBounds.height;
+        graphStore.queryLinks(modelBounds.x, modelBounds.y, modelBounds.width, modelBounds.height, paintNodes);
+        for (int n = 0; n < paintNodes.size(); n++) {
+            final int node = paintNodes.get(n);
+            if (degrees[node] == 0 || (omitSelected && isSelected(bricks[node]))) {
+                continue;
+            }
+            final int nodeX = xs[node] + graphStore.getTypeWidth(types[node]) / 2;
+            final int nodeY = ys[node] + graphStore.getTypeHeight(types[node]) / 2;
+            final int[] connections = adjacency[node];
+            for (int i = 0; i < degrees[node]; i++) {
+
+                // Both nodes of every such link are found and list each other, so paint it from the lower-numbered one.
+                final int other = connections[i];
+                if (other < node || (omitSelected && isSelected(bricks[other]))) {
+                    continue;
+                }
+                final int otherX = xs[other] + graphStore.getTypeWidth(types[other]) / 2;
+                final int otherY = ys[other] + graphStore.getTypeHeight(types[other]) / 2;
+
+                // Cheaply cull links whose bounding box misses the region before converting to view coordinates.
+                if (Math.max(nodeX, otherX) < left || Math.min(nodeX, otherX) > right
+                        || Math.max(nodeY, otherY) < top || Math.min(nodeY, otherY) > bottom
+                        || !graphStore.drawsEdge(node, other)) {
+                    continue;
+                }
+                paintLink(g, region, nodeX, nodeY, otherX, otherY);
+            }
+        }
+        paintNodes.clear();
+    }
+
+    /**
+     * Returns true if a graph store node has been materialised into a brick that is selected, otherwise returns false.
+     *
+     * @param brick the brick the node has been materialised into, or null if it has not
+     * @return      true if the brick is selected, otherwise false
+     */
+    private boolean isSelected(Brick<?> brick) {
+        return brick != null && designer.isSelected(brick);
+    }
+
+    /**
+     * Paints the links held in a graph store from the node of a brick materialised from it, other than those drawn as
+     * links between bricks.
+     *
+     * @param g         the graphics context to paint to in view coordinates, with the link colour already set
+     * @param region    the region to cull against in view coordinates
+     * @param brick     the brick whose node's links to paint
+     */
+    void paintGraphStoreLinks(Graphics2D g, Rectangle region, Brick<?> brick) {
+        final GraphStore graphStore = brick.graphStore;
+        final int node = brick.graphStoreNode;
+        final int[] xs = graphStore.getXs();
+        final int[] ys = graphStore.getYs();
+        final int[] types = graphStore.getTypes();
+        final int[] connections = graphStore.getAdjacency()[node];
+        for (int i = 0; i < graphStore.getDegrees()[node]; i++) {
+            final int other = connections[i];
+            if (graphStore.drawsEdge(node, other)) {
+                paintLink(g, region, brick.getCenterX(), brick.getCenterY(),
+                        xs[other] + graphStore.getTypeWidth(types[other]) / 2,
+                        ys[other] + graphStore.getTypeHeight(types[other]) / 2);
+            }
+        }
+    }
+
+    /**
+     * Paints the bricks in the static scene within a region.
+     *
+     * @param g             the graphics context to paint to, already transformed into model coordinates
+     * @param region        the region to paint in model coordinates
+     * @param omitSelected  true to leave out the selected bricks because they are painted in the overlay
+     */
+    void paintBricks(Graphics2D g, Rectangle region, boolean omitSelected) {
+
+        // Render graph store nodes (if any) beneath all bricks.
+        final boolean lowDetail = isLowDetail();
+        final GraphStore graphStore = designer.getGraphStore();
+        if (graphStore != null) {
+            paintGraphStoreNodes(g, region, graphStore, lowDetail);
+        }
+
+        // Render bricks that intersect the region, bottom-most first. Placeholders are all alike, so need no sorting.
+        designer.getBrickIndex().query(region.x, region.y, region.width, region.height, paintBricks);
+        if (lowDetail) {
+            g.setColor(designer.getLowDetailBrickColor());
+        } else {
+            Collections.sort(paintBricks, Designer.Z_ORDER_COMPARATOR);
+        }
+        for (int i = 0; i < paintBricks.size(); i++) {
+            final Brick<?> currentBrick = paintBricks.get(i);
+            if (!omitSelected || !designer.isSelected(currentBrick)) {
+                paintBrick(g, currentBrick, lowDetail);
+            }
+        }
+        paintBricks.clear();
+    }
+
+    /**
+     * Paints the nodes of a graph store that intersect a region and have not been materialised into bricks, in the
+     * order they were added.
+     *
+     * @param g             the graphics context to paint to, already transformed into model coordinates
+     * @param region        the region to paint in model coordinates
+     * @param graphStore    the graph store whose nodes to paint
+     * @param lowDetail     true to paint placeholders, false to paint node images
+     */
+    private void paintGraphStoreNodes(Graphics2D g, Rectangle region, GraphStore graphStore, boolean lowDetail) {
+        final int[] xs = graphStore.getXs();
+        final int[] ys = graphStore.getYs();
+        final int[] types = graphStore.getTypes();
+        final Brick<?>[] bricks = graphStore.getBricks();
+        graphStore.query(region.x, region.y, region.width, region.height, paintNodes);
+        if (lowDetail) {
+            g.setColor(designer.getLowDetailBrickColor());
+        } else {
+            paintNodes.sort();
+        }
+        for (int i = 0; i < paintNodes.size(); i++) {
+            final int node = paintNodes.get(i);
+            if (bricks[node] != null) {
+                continue;
+            }
+            final int type = types[node];
+            if (lowDetail) {
+                g.fillRect(xs[node], ys[node], graphStore.getTypeWidth(type), graphStore.getTypeHeight(type));
+            } else {
+                final Image image = graphStore.getTypeImage(type);
+                g.drawImage(useImageCache ? designer.getCompatibleImage(image) : image, xs[node], ys[node], null);
+            }
+        }
+        paintNodes.clear();
+    }
+
+    /**
+     * Paints grid lines within a region one by one, for zoom levels other than actual size.
+     *
+     * @param g         the graphics context to paint to, in view coordinates
+     * @param region    the region to paint in view coordinates
+     */
+    private void paintGridLines(Graphics2D g, Rectangle region) {
+        final double step = designer.getGridSpacing() * zoom;
+        final int right = region.x + region.width;
+        final int bottom = region.y + region.height;
+        g.setColor(designer.getGridLineColor());
+
+        // Draw vertical grid lines.
+        for (long i = (long) Math.ceil((region.x - panX) / step); ; i++) {
+            final int x = (int) Math.floor(i * step + panX);
+            if (x >= right) {
+                break;
+            }
+            g.drawLine(x, region.y, x, bottom);
+        }
+
+        // Draw horizontal grid lines.
+        for (long i = (long) Math.ceil((region.y - panY) / step); ; i++) {
+            final int y = (int) Math.floor(i * step + panY);
+            if (y >= bottom) {
+                break;
+            }
+            g.drawLine(region.x, y, right, y);
+        }
+    }
+
+    /**
+     * Paints a brick, either as its image or as a filled placeholder rectangle when zoomed out past the level of detail
+     * threshold or when the brick has no image yet.
+     *
+     * @param g         the graphics context to paint to
+     * @param brick     the brick to paint
+     * @param lowDetail true to paint a placeholder in the current colour, false to paint the brick image
+     */
+    void paintBrick(Graphics2D g, Brick<?> brick, boolean lowDetail) {
+        if (lowDetail) {
+            g.fillRect(brick.getX(), brick.getY(), brick.getWidth(), brick.getHeight());
+            return;
+        }
+        final Image image = brick.getImage();
+        if (image == null) {
+
+            // Still loading, so stand in for it until the loader repaints the brick.
+            missingImageCount++;
+            final Color color = g.getColor();
+            g.setColor(designer.getLowDetailBrickColor());
+            g.fillRect(brick.getX(), brick.getY(), brick.getWidth(), brick.getHeight());
+            g.setColor(color);
+        } else {
+            g.drawImage(useImageCache ? designer.getCompatibleImage(image) : image, brick.getX(), brick.getY(), null);
+        }
+    }
+
+    /**
+     * Paints the link between the centres of two bricks in view coordinates if it passes through a region.
+     *
+     * Links are drawn with {@link Graphics2D#drawLine(int, int, int, int)} rather than batched into a single stroked
+     * path. The line fast path rasterises each link identically regardless of the clip, whereas stroked paths are
+     * clipped before rasterisation and can shift by a pixel where they cross the edge of a partially repainted region.
+     *
+     * @param g         the graphics context to paint to in view coordinates, with the link colour already set
+     * @param region    the region to cull against in view coordinates
+     * @param first     the brick at one end of the link
+     * @param second    the brick at the other end of the link
+     */
+    void paintLink(Graphics2D g, Rectangle region, Brick<?> first, Brick<?> second) {
+        paintLink(g, region, first.getCenterX(), first.getCenterY(), second.getCenterX(), second.getCenterY());
+    }
+
+    /**
+     * Paints a link between two points in model coordinates, in view coordinates, if it passes through a region.
+     *
+     * @param g         the graphics context to paint to in view coordinates, with the link colour already set
+     * @param region    the region to cull against in view coordinates
+     * @param firstX    the x-coordinate of one end of the link in model coordinates
+     * @param firstY    the y-coordinate of one end of the link in model coordinates
+     * @param secondX   the x-coordinate of the other end of the link in model coordinates
+     * @param secondY   the y-coordinate of the other end of the link in model coordinates
+     */
+    private void paintLink(Graphics2D g, Rectangle region, int firstX, int firstY, int secondX, int secondY) {
+        final int sourceX = modelToViewX(firstX);
+        final int sourceY = modelToViewY(firstY);
+        final int destX = modelToViewX(secondX);
+        final int destY = modelToViewY(secondY);
+        if (region.intersectsLine(sourceX, sourceY, destX, destY)) {
+            g.drawLine(sourceX, sourceY, destX, destY);
+        }
+    }
+
+    /**
+     * Converts an x-coordinate in model coordinates to view coordinates.
+     *
+     * @param x the x-coordinate in model coordinates
+     * @return  the x-coordinate in view coordinates
+     */
+    int modelToViewX(int x) {
+        return (int) Math.floor(x * zoom + panX);
+    }
+
+    /**
+     * Converts a y-coordinate in model coordinates to view coordinates.
+     *
+     * @param y the y-coordinate in model coordinates
+     * @return  the y-coordinate in view coordinates
+     */
+    int modelToViewY(int y) {
+        return (int) Math.floor(y * zoom + panY);
+    }
+
+    /**
+     * Converts a rectangle in view coordinates to the smallest rectangle in model coordinates that covers it, in place.
+     *
+     * @param rectangle the rectangle to convert
+     * @return          the rectangle given, now in model coordinates
+     */
+    Rectangle viewToModel(Rectangle rectangle) {
+        final int left = (int) Math.floor((rectangle.x - panX) / zoom);
+        final int top = (int) Math.floor((rectangle.y - panY) / zoom);
+        final int right = (int) Math.ceil((rectangle.x + rectangle.width - panX) / zoom);
+        final int bottom = (int) Math.ceil((rectangle.y + rectangle.height - panY) / zoom);
+        rectangle.setBounds(left, top, right - left, bottom - top);
+        return rectangle;
+    }
+
+    /**
+     * Converts a rectangle in model coordinates to the smallest rectangle in view coordinates that covers it, in place.
+     *
+     * @param rectangle the rectangle to convert
+     * @return          the rectangle given, now in view coordinates
+     */
+    Rectangle modelToView(Rectangle rectangle) {
+        final int left = (int) Math.floor(rectangle.x * zoom + panX);
+        final int top = (int) Math.floor(rectangle.y * zoom + panY);
+        final int right = (int) Math.ceil((rectangle.x + rectangle.width) * zoom + panX);
+        final int bottom = (int) Math.ceil((rectangle.y + rectangle.height) * zoom + panY);
+        rectangle.setBounds(left, top, right - left, bottom - top);
+        return rectangle;
+    }
+
+    /**
+     * Gets the paint that fills the background and grid at actual size, rebuilding it if it is out of date.
+     *
+     * @return  the paint that fills the background and grid
+     */
+    private TexturePaint getGridPaint() {
+        final BufferedImage gridTile = designer.getGridTile();
+        if (gridPaint == null || gridPaintTile != gridTile || gridPaintPanX != panX || gridPaintPanY != panY) {
+            final int gridSpacing = designer.getGridSpacing();
+            gridPaint = new TexturePaint(gridTile, new Rectangle2D.Double(panX, panY, gridSpacing, gridSpacing));
+            gridPaintTile = gridTile;
+            gridPaintPanX = panX;
+            gridPaintPanY = panY;
+        }
+        return gridPaint;
+    }
+}
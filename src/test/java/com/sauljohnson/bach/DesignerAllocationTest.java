@@ -0,0 +1,268 @@
+package com.sauljohnson.bach;
+
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Stroke;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseListener;
+import java.awt.event.MouseMotionListener;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import javax.swing.JPopupMenu;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that painting a {@link Designer} and dragging bricks around it allocate nothing once they have warmed up, so
+ * that the garbage collector never interrupts a drag. The one exception is the dashed selection box, which Java2D
+ * allocates to rasterise every time it is stroked, so the drag test allows for exactly what stroking it takes.
+ *
+ * @author  Saul Johnson
+ */
+public class DesignerAllocationTest {
+
+    /**
+     * The number of frames to run before measuring, so that everything is compiled and every cache is filled.
+     */
+    private static final int WARM_UP_FRAMES = 10000;
+
+    /**
+     * The number of frames to measure.
+     */
+    private static final int MEASURED_FRAMES = 2000;
+
+    /**
+     * The designer being painted.
+     */
+    private Designer designer;
+
+    /**
+     * The image the designer is painted to.
+     */
+    private BufferedImage canvas;
+
+    /**
+     * A brick with a fixed size and image that may connect to any number of others.
+     */
+    private static final class TestBrick extends Brick<Object> {
+
+        /**
+         * The image shared by every test brick.
+         */
+        private static final BufferedImage IMAGE = createImage();
+
+        /**
+         * Initialises a new instance of a test brick.
+         *
+         * @param x the x-coordinate of the brick
+         * @param y the y-coordinate of the brick
+         */
+        TestBrick(int x, int y) {
+            super(null, x, y);
+        }
+
+        @Override
+        public String getTypeName() {
+            return "Test";
+        }
+
+        @Override
+        public int getWidth() {
+            return 32;
+        }
+
+        @Override
+        public int getHeight() {
+            return 24;
+        }
+
+        @Override
+        public Image getImage() {
+            return IMAGE;
+        }
+
+        @Override
+        public JPopupMenu getContextMenu() {
+            return null;
+        }
+
+        @Override
+        public List<ConnectionCapacity> getConnectionCapacities() {
+            return Collections.singletonList(new ConnectionCapacity(Integer.MAX_VALUE, TestBrick.class));
+        }
+
+        /**
+         * Creates the image shared by every test brick.
+         *
+         * @return  the image
+         */
+        private static BufferedImage createImage() {
+            final BufferedImage image = new BufferedImage(32, 24, BufferedImage.TYPE_INT_ARGB);
+            final Graphics2D g = image.createGraphics();
+            g.setColor(Color.ORANGE);
+            g.fillRect(0, 0, 32, 24);
+            g.dispose();
+            return image;
+        }
+    }
+
+    @BeforeClass
+    public static void setUpHeadless() {
+        System.setProperty("java.awt.headless", "true");
+    }
+
+    @Before
+    public void setUp() {
+        designer = new Designer(null);
+        designer.setSize(320, 240);
+        canvas = new BufferedImage(320, 240, BufferedImage.TYPE_INT_ARGB);
+
+        // Scatter linked bricks, leaving room in the top-left corner for the one being dragged.
+        final Random random = new Random(0);
+        final TestBrick[] bricks = new TestBrick[100];
+        for (int i = 0; i < bricks.length; i++) {
+            bricks[i] = new TestBrick(60 + random.nextInt(240), 60 + random.nextInt(160));
+        }
+        for (int i = 1; i < bricks.length; i++) {
+            bricks[i].addConnection(bricks[random.nextInt(i)]);
+        }
+        final TestBrick dragged = new TestBrick(20, 20);
+        dragged.addConnection(bricks[0]);
+        designer.addBrick(dragged);
+        for (TestBrick brick : bricks) {
+            designer.addBrick(brick);
+        }
+    }
+
+    @Test
+    public void paintAllocatesNothing() {
+        final Graphics2D g = canvas.createGraphics();
+        final Runnable frame = new Runnable() {
+            @Override
+            public void run() {
+                designer.paintComponent(g);
+            }
+        };
+        assertAllocatesNothing(frame);
+        g.dispose();
+    }
+
+    @Test
+    public void dragAllocatesNothingButTheSelectionStroke() {
+        final Graphics2D g = canvas.createGraphics();
+        final MouseListener mouseListener = designer.getMouseListeners()[0];
+        final MouseMotionListener mouseMotionListener = designer.getMouseMotionListeners()[0];
+
+        // Pick up the brick in the top-left corner, then drag it back and forth between two points a few cells apart.
+        mouseListener.mousePressed(createMouseEvent(MouseEvent.MOUSE_PRESSED, 30, 30));
+        final Brick dragged = designer.getSelectedBrick();
+        final int step = Math.max(designer.getGridSpacing(), 1) * 2;
+        final MouseEvent[] drags = {
+                createMouseEvent(MouseEvent.MOUSE_DRAGGED, 30 + step, 30 + step),
+                createMouseEvent(MouseEvent.MOUSE_DRAGGED, 30, 30)
+        };
+        final Stroke initialStroke = g.getStroke();
+        final Runnable frame = new Runnable() {
+
+            /**
+             * The number of frames run so far.
+             */
+            private int count;
+
+            @Override
+            public void run() {
+                mouseMotionListener.mouseDragged(drags[count++ & 1]);
+
+                // Swing paints with fresh graphics each time, so the stroke of the last selection box is not kept.
+                g.setStroke(initialStroke);
+                designer.paintComponent(g);
+            }
+        };
+
+        // Stroke the selection box around the dragged brick on its own, at both ends of the drag, to see what it costs.
+        final Graphics2D strokeGraphics = canvas.createGraphics();
+        strokeGraphics.setColor(designer.getSelectionBoundingBoxColor());
+        strokeGraphics.setStroke(designer.getSelectionBoundingBoxStroke());
+        final Runnable stroke = new Runnable() {
+
+            /**
+             * The number of frames run so far.
+             */
+            private int count;
+
+            @Override
+            public void run() {
+                final int offset = (count++ & 1) == 0 ? step : 0;
+                strokeGraphics.drawRect(dragged.getX() - 1 + offset, dragged.getY() - 1 + offset,
+                        dragged.getWidth() + 1, dragged.getHeight() + 1);
+            }
+        };
+        final long strokeAllocated = measureAllocation(stroke);
+        assertAllocatesAtMost(frame, strokeAllocated + strokeAllocated / 4);
+        mouseListener.mouseReleased(createMouseEvent(MouseEvent.MOUSE_RELEASED, 30, 30));
+        strokeGraphics.dispose();
+        g.dispose();
+    }
+
+    /**
+     * Creates a mouse event on the designer for the left button.
+     *
+     * @param id    the type of event
+     * @param x     the x-coordinate of the cursor
+     * @param y     the y-coordinate of the cursor
+     * @return      the event
+     */
+    private MouseEvent createMouseEvent(int id, int x, int y) {
+        return new MouseEvent(designer, id, 0, MouseEvent.BUTTON1_DOWN_MASK, x, y, 1, false, MouseEvent.BUTTON1);
+    }
+
+    /**
+     * Runs a frame until it has warmed up, then checks that running it repeatedly allocates nothing.
+     *
+     * @param frame the frame to run
+     */
+    private static void assertAllocatesNothing(Runnable frame) {
+        assertAllocatesAtMost(frame, 0);
+    }
+
+    /**
+     * Runs a frame until it has warmed up, then checks that running it repeatedly allocates no more than allowed.
+     *
+     * @param frame     the frame to run
+     * @param allowance the number of bytes the measured frames may allocate between them
+     */
+    private static void assertAllocatesAtMost(Runnable frame, long allowance) {
+
+        // Reading the counter may allocate once, which is why less than a byte per frame over the allowance passes.
+        final long allocated = measureAllocation(frame);
+        assertTrue("Allocated " + allocated + " bytes over " + MEASURED_FRAMES + " frames, allowing " + allowance + ".",
+                allocated < MEASURED_FRAMES + allowance);
+    }
+
+    /**
+     * Runs a frame until it has warmed up, then counts the bytes allocated by running it repeatedly.
+     *
+     * @param frame the frame to run
+     * @return      the number of bytes allocated by the measured frames between them
+     */
+    private static long measureAllocation(Runnable frame) {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            frame.run();
+        }
+        final long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_FRAMES; i++) {
+            frame.run();
+        }
+        return threads.getThreadAllocatedBytes(threadId) - before;
+    }
+}